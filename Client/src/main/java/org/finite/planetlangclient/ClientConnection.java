@@ -2,32 +2,148 @@ package org.finite.planetlangclient;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.finite.planetlangserver.Networking.Request;
 import org.finite.planetlangserver.Networking.Auth;
+import org.finite.planetlangserver.Networking.MemoryCodec;
+import org.finite.planetlangserver.Networking.ProgramFrame;
+import org.finite.planetlangserver.Networking.Protocol;
+import org.finite.planetlang.proto.PlanetLangProto;
+import org.finite.planetlang.proto.PlanetLangProto.ChatMessage;
+import org.finite.planetlang.proto.PlanetLangProto.ChatRequest;
+import org.finite.planetlang.proto.PlanetLangProto.Event;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionRequest;
+import org.finite.planetlang.proto.PlanetLangProto.GetChatMessages;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateRequest;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateResponse;
+import org.finite.planetlang.proto.PlanetLangProto.KeepAlive;
+import org.finite.planetlang.proto.PlanetLangProto.MemoryState;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+import org.finite.planetlang.proto.PlanetLangProto.Response;
+import org.finite.planetlang.proto.PlanetLangProto.SendChatMessage;
+import org.finite.planetlang.proto.PlanetLangProto.StackOperationRequest;
+import org.finite.planetlang.proto.PlanetLangProto.SubscribeRequest;
+import org.finite.planetlang.proto.PlanetLangProto.WatchHit;
+import org.finite.planetlang.proto.PlanetLangProto.WatchRequest;
 import org.json.JSONObject;
+import PlanetVM.ChatLog;
+import PlanetVM.MemoryRange;
 
 /**
  * Handles client-side network communication with the PlanetLang server
  * Enhanced with robust connection handling, retry logic, and timeout support
+ * <p>
+ * A reader thread owns the socket's input: command responses complete the
+ * caller waiting on them, and EVENT lines pushed by the server for
+ * subscribed topics are handed to {@link StateListener}s. Callers don't
+ * take turns: any number of requests can be on the wire at once, answered
+ * in order over text and matched by message_id over protobuf.
+ * <p>
+ * Every request has an {@code ...Async} form returning a
+ * {@link CompletableFuture}; the blocking methods just wait for it. The
+ * future completes with what the blocking method would return, failures
+ * included, and every request behind it gives up after the read timeout.
+ * Cancelling it gives up the reply without disturbing the requests around
+ * it. At most {@link #MAX_IN_FLIGHT} requests are on the wire at once; more
+ * wait their turn and are written in the order they were made. Futures
+ * complete on the connection's own threads, so callbacks must not block:
+ * move to the EDT with e.g.
+ * {@code thenAcceptAsync(action, SwingUtilities::invokeLater)}.
+ * <p>
+ * After the greeting the client asks for protobuf frames (see
+ * {@link Protocol}); state then arrives as numbers and is only rendered to
+ * the text forms below for callers. Servers without protobuf stay on text.
  */
 public class ClientConnection {
+    /**
+     * Receives pushed state changes. Called on the connection's event thread;
+     * state is the rendered stack or memory, or the full chat text for CHAT.
+     */
+    public interface StateListener {
+        void stateChanged(String topic, long version, String state);
+    }
+
+    /**
+     * Receives the new value of watched global memory cells, on the
+     * connection's event thread
+     */
+    public interface WatchListener {
+        void memoryChanged(int watchId, int address, long value, long version);
+    }
+
     private static final int DEFAULT_CONNECT_TIMEOUT = 5000; // 5 seconds
     private static final int DEFAULT_READ_TIMEOUT = 10000; // 10 seconds
     private static final int DEFAULT_MAX_RETRIES = 3;
     private static final long DEFAULT_RETRY_DELAY = 1000; // 1 second
+    private static final String THROTTLED_PREFIX = "THROTTLED:";
     private static final int DEFAULT_KEEP_ALIVE_INTERVAL = 30000; // 30 seconds
+    private static final int CHAT_HISTORY_LIMIT = 100;
+    /** Topic of each conditional read slot, also the response prefix */
+    private static final String[] SLOT_TOPICS = { "USER_STACK", "GLOBAL_STACK", "GLOBAL_MEMORY", "USER_MEMORY" };
+    /** Wire protocol asked for after the greeting: "protobuf", or "text" to never ask */
+    private static final String PROTOCOL = System.getProperty("planetlang.client.protocol", "protobuf");
+    /** Requests written and not answered yet, at most */
+    static final int MAX_IN_FLIGHT = Integer.getInteger("planetlang.client.maxInFlight", 64);
     
     private Socket socket;
     private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream output;
+    private InputStream in;
+    /** Whether the current connection speaks protobuf frames */
+    private volatile boolean binary;
+    private final AtomicLong nextMessageId = new AtomicLong();
     private final AtomicBoolean connected = new AtomicBoolean(false);
     private final AtomicBoolean connecting = new AtomicBoolean(false);
     private final AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
     private String sessionId;
+    /** Id of the newest chat message received, and the messages kept locally */
+    private long chatCursor;
+    private final Deque<String> chatHistory = new ArrayDeque<>();
+    /** Last state received per conditional read: user stack, global stack, global memory, user memory */
+    private final long[] cachedVersions = { -1, -1, -1, -1 };
+    private final String[] cachedStates = new String[4];
+    /** Over protobuf, the values behind cachedStates: stacks top first, memory's first cells */
+    private final long[][] cachedValues = new long[4][];
+    private final int[] cachedMemorySizes = new int[4];
+    /** Guards the cache and the connection fields; never held while waiting for a reply */
     private final Object lock = new Object();
+    /** Orders writes, so text replies pair up with the commands sent */
+    private final Object writeLock = new Object();
+    /** Serializes chat fetches, which move chatCursor */
+    private final Object chatLock = new Object();
+    /** The newest chat fetch; the next one starts when it ends. Guarded by chatLock */
+    private CompletableFuture<String> chatFetch = CompletableFuture.completedFuture("");
+
+    // Requests awaiting replies on the current connection; replaced on every connect
+    private volatile InFlight inFlight = new InFlight();
+    // A slot per request on the wire; requests without one wait in order, guarded by waitingForSlot
+    private final Semaphore slots = new Semaphore(MAX_IN_FLIGHT);
+    private final Queue<Runnable> waitingForSlot = new ConcurrentLinkedQueue<>();
+    // Writes the requests that had to wait, so the reader thread never blocks writing
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "planetlang-client-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Replies owed to sendMessage(), handed out in order by readResponse()
+    private final LinkedBlockingQueue<CompletableFuture<Object>> rawReplies = new LinkedBlockingQueue<>();
+    private final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private final List<WatchListener> watchListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> subscribedTopics = ConcurrentHashMap.newKeySet();
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "planetlang-client-events");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     // Connection configuration
     private final int connectTimeout;
@@ -79,6 +195,18 @@ public class ClientConnection {
         }
     }
     
+    /**
+     * {@link #connect} on a thread of its own. Cancelling the future doesn't
+     * stop the attempt.
+     */
+    public CompletableFuture<Boolean> connectAsync(String host, int port) {
+        return CompletableFuture.supplyAsync(() -> connect(host, port), task -> {
+            Thread thread = new Thread(task, "planetlang-client-connect");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
     private boolean connectWithRetry(String host, int port) {
         Exception lastException = null;
         
@@ -86,7 +214,11 @@ public class ClientConnection {
             try {
                 if (attemptConnection(host, port)) {
                     startKeepAlive();
-                    System.out.println("Connected to server at " + host + ":" + port + " with session " + sessionId);
+                    if (!subscribedTopics.isEmpty()) {
+                        await(requestTopics(List.copyOf(subscribedTopics), false), null);
+                    }
+                    System.out.println("Connected to server at " + host + ":" + port + " with session " + sessionId
+                            + (binary ? " (protobuf)" : ""));
                     return true;
                 }
             } catch (Exception e) {
@@ -125,14 +257,24 @@ public class ClientConnection {
             // Connect with timeout
             socket.connect(new InetSocketAddress(host, port), connectTimeout);
             
-            // Setup streams
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            // Setup streams; lines are read as bytes so frames can follow them
+            output = socket.getOutputStream();
+            out = new PrintWriter(output, true);
+            in = new BufferedInputStream(socket.getInputStream());
             
             // Read session ID from server
-            String sessionResponse = in.readLine();
+            String sessionResponse = Protocol.readLine(in);
             if (sessionResponse != null && sessionResponse.startsWith("SESSION:")) {
                 sessionId = sessionResponse.substring(8);
+                synchronized (chatLock) {
+                    chatCursor = 0;
+                    chatHistory.clear();
+                }
+                java.util.Arrays.fill(cachedVersions, -1);
+                binary = negotiate();
+                // From here on the reader thread blocks on the socket and timeouts apply per response
+                socket.setSoTimeout(0);
+                startReader(socket, in, binary);
                 connected.set(true);
                 lastActivity.set(System.currentTimeMillis());
                 return true;
@@ -144,6 +286,18 @@ public class ClientConnection {
         }
     }
     
+    /**
+     * Ask for protobuf frames. A server that doesn't know the request answers
+     * with an error line and the connection stays on text.
+     */
+    private boolean negotiate() throws IOException {
+        if (!PROTOCOL.equalsIgnoreCase("protobuf")) return false;
+        out.println(Protocol.PROTOBUF);
+        String reply = Protocol.readLine(in);
+        if (reply == null) throw new EOFException("Connection closed while negotiating");
+        return reply.equals(Protocol.PROTOBUF);
+    }
+
     private void startKeepAlive() {
         if (keepAliveTask != null) {
             keepAliveTask.cancel(false);
@@ -152,294 +306,964 @@ public class ClientConnection {
         keepAliveTask = scheduler.scheduleAtFixedRate(() -> {
             if (connected.get() && 
                 System.currentTimeMillis() - lastActivity.get() > DEFAULT_KEEP_ALIVE_INTERVAL) {
-                try {
-                    synchronized (lock) {
-                        if (connected.get()) {
-                            out.println("PING");
-                            String response = in.readLine();
-                            lastActivity.set(System.currentTimeMillis());
-                            if (response == null || !response.equals("PONG")) {
-                                System.err.println("Keep-alive failed, marking connection as disconnected");
-                                connected.set(false);
-                            }
-                        }
+                ping().thenAccept(response -> {
+                    if (!response.equals("PONG")) {
+                        System.err.println("Keep-alive failed: " + response);
+                        connected.set(false);
                     }
-                } catch (IOException e) {
-                    System.err.println("Keep-alive failed: " + e.getMessage());
-                    connected.set(false);
-                }
+                });
             }
         }, DEFAULT_KEEP_ALIVE_INTERVAL, DEFAULT_KEEP_ALIVE_INTERVAL, TimeUnit.MILLISECONDS);
     }
     
+    private CompletableFuture<String> ping() {
+        if (!binary) return sendCommand("PING");
+        return map(exchange(Message.newBuilder().setKeepAlive(KeepAlive.newBuilder().setTimestamp(System.currentTimeMillis()))),
+                reply -> reply.hasKeepAlive() ? "PONG" : reply.getResponse().getErrorMessage());
+    }
+
+    /**
+     * Read every line, or every frame, from one connection. Responses
+     * complete that connection's waiters, events go to the listeners; when
+     * the stream ends the waiters left get {@link InFlight#CLOSED}.
+     */
+    private void startReader(Socket owner, InputStream input, boolean frames) {
+        InFlight flight = new InFlight();
+        inFlight = flight;
+        Thread thread = new Thread(() -> {
+            try {
+                if (frames) {
+                    Message message;
+                    while ((message = Protocol.readFrame(input)) != null) {
+                        if (message.hasEvent()) {
+                            dispatchEvent(message.getEvent());
+                        } else {
+                            // False for a reply its caller stopped waiting for
+                            flight.frameReceived(message);
+                        }
+                    }
+                } else {
+                    String line;
+                    while ((line = Protocol.readLine(input)) != null) {
+                        if (line.startsWith("EVENT:")) {
+                            dispatchEvent(line);
+                        } else if (!flight.lineReceived(line)) {
+                            System.err.println("Unexpected response: " + line);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Socket closed
+            }
+            if (inFlight == flight) {
+                connected.set(false);
+            }
+            flight.close();
+        }, "planetlang-client-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private void closeConnection() {
+        // Close the socket first: it unblocks the reader thread, which holds
+        // the input stream's lock while waiting for a line
         try {
-            if (in != null) {
-                in.close();
-                in = null;
+            if (socket != null && !socket.isClosed()) {
+                socket.close();
             }
         } catch (IOException e) {
             // Ignore
         }
+        socket = null;
+        in = null;
+        output = null;
+        binary = false;
+        rawReplies.clear();
         
         if (out != null) {
             out.close();
             out = null;
         }
-        
-        try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-                socket = null;
-            }
-        } catch (IOException e) {
-            // Ignore
-        }
     }
 
     /**
      * Helper method to execute operations with automatic retry on connection failure
      */
-    private String executeWithRetry(java.util.function.Supplier<String> operation) {
-        String result = operation.get();
-        
-        // If operation failed due to connection issues and we should retry
-        if (result.startsWith("ERROR:") && shouldReconnect && !connected.get()) {
-            // This will be implemented when we add auto-reconnect logic
-            // For now, just return the error
-        }
-        
+    private CompletableFuture<String> executeWithRetry(Supplier<CompletableFuture<String>> operation) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        attempt(operation, 1, result);
         return result;
     }
 
-    /**
-     * Execute instruction on local (user) stack
-     */
-    public String executeLocal(String instruction) {
-        return executeWithRetry(() -> {
-            synchronized (lock) {
-                if (!connected.get()) {
-                    return "ERROR: Not connected to server";
-                }
-                out.println("LOCAL:" + instruction);
+    private void attempt(Supplier<CompletableFuture<String>> operation, int attempt, CompletableFuture<String> result) {
+        CompletableFuture<String> reply = operation.get();
+        cancelling(reply, result);
+        reply.whenComplete((response, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            // Out of global budget: wait as long as the server asks, unless that's
+            // longer than we'd wait for a reconnect, and try again
+            long wait = response.startsWith(THROTTLED_PREFIX) ? throttleWait(response) : -1;
+            if (attempt < maxRetries && wait >= 0 && wait <= retryDelay) {
                 try {
-                    String response = in.readLine();
-                    lastActivity.set(System.currentTimeMillis());
-                    return response;
-                } catch (IOException e) {
-                    connected.set(false);
-                    return "ERROR: " + e.getMessage();
+                    scheduler.schedule(() -> {
+                        if (!result.isDone()) attempt(operation, attempt + 1, result);
+                    }, wait, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Shut down; answer with the throttled response
                 }
             }
+            result.complete(response);
         });
     }
 
+    /**
+     * The wait a "THROTTLED: retry in Nms" response asks for, or -1 if it
+     * can't be read
+     */
+    private static long throttleWait(String response) {
+        int start = response.indexOf("retry in ");
+        int end = response.lastIndexOf("ms");
+        if (start < 0 || end < start) return -1;
+        try {
+            return Long.parseLong(response.substring(start + 9, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Execute instruction on local (user) stack
+     */
+    public String executeLocal(String instruction) {
+        return await(executeLocalAsync(instruction), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> executeLocalAsync(String instruction) {
+        return executeWithRetry(() -> binary
+                ? execute(ExecuteInstructionRequest.ExecutionScope.LOCAL, instruction, false)
+                : map(sendCommand("LOCAL:" + instruction), response -> applyDelta(response, 0, 3)));
+    }
+
     /**
      * Execute instruction on global stack
      */
     public String executeGlobal(String instruction) {
-        return executeWithRetry(() -> {
-            synchronized (lock) {
-                if (!connected.get()) {
-                    return "ERROR: Not connected to server";
-                }
-                out.println("GLOBAL:" + instruction);
-                try {
-                    String response = in.readLine();
-                    lastActivity.set(System.currentTimeMillis());
-                    return response;
-                } catch (IOException e) {
-                    connected.set(false);
-                    return "ERROR: " + e.getMessage();
-                }
-            }
+        return await(executeGlobalAsync(instruction), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> executeGlobalAsync(String instruction) {
+        return executeWithRetry(() -> binary
+                ? execute(ExecuteInstructionRequest.ExecutionScope.GLOBAL, instruction, false)
+                : map(sendCommand("GLOBAL:" + instruction), response -> applyDelta(response, 1, 2)));
+    }
+
+    /**
+     * Execute a multi-line program on the local (user) stack in one request
+     */
+    public String executeLocalProgram(String source) {
+        return await(executeLocalProgramAsync(source), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> executeLocalProgramAsync(String source) {
+        return executeWithRetry(() -> binary
+                ? execute(ExecuteInstructionRequest.ExecutionScope.LOCAL, source, true)
+                : map(sendCommand("LOCAL_PROGRAM:" + ProgramFrame.encode(source)), response -> applyDelta(response, 0, 3)));
+    }
+
+    /**
+     * Execute a multi-line program on the global stack in one request
+     */
+    public String executeGlobalProgram(String source) {
+        return await(executeGlobalProgramAsync(source), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> executeGlobalProgramAsync(String source) {
+        return executeWithRetry(() -> binary
+                ? execute(ExecuteInstructionRequest.ExecutionScope.GLOBAL, source, true)
+                : map(sendCommand("GLOBAL_PROGRAM:" + ProgramFrame.encode(source)), response -> applyDelta(response, 1, 2)));
+    }
+
+    /**
+     * Execute over protobuf; the result comes back in its text form
+     */
+    private CompletableFuture<String> execute(ExecuteInstructionRequest.ExecutionScope scope, String source, boolean program) {
+        return map(call(PlanetLangProto.Request.newBuilder().setExecuteInstruction(
+                ExecuteInstructionRequest.newBuilder().setScope(scope).setInstruction(source).setProgram(program))), response -> {
+            if (!response.getSuccess()) return response.getErrorMessage();
+            StateDelta delta = new StateDelta(response.getExecuteInstruction());
+            boolean global = scope == ExecuteInstructionRequest.ExecutionScope.GLOBAL;
+            applyDelta(delta, global ? 1 : 0, global ? 2 : 3);
+            return delta.toString();
         });
     }
 
     /**
-     * Share value from user stack to global stack
+     * Bring the cached stack and memory of the executing runtime forward
+     * using the changes listed in an execution response, and tell the state
+     * listeners. Only a cache holding exactly the previous version is
+     * updated; anything else is left for the next conditional read.
      */
-    public String shareToGlobal() {
-        return executeWithRetry(() -> {
-            synchronized (lock) {
-                if (!connected.get()) {
-                    return "ERROR: Not connected to server";
-                }
-                out.println("SHARE");
-                try {
-                    String response = in.readLine();
-                    lastActivity.set(System.currentTimeMillis());
-                    return response;
-                } catch (IOException e) {
-                    connected.set(false);
-                    return "ERROR: " + e.getMessage();
-                }
+    private String applyDelta(String response, int stackSlot, int memorySlot) {
+        StateDelta delta = StateDelta.parse(response);
+        if (delta != null) applyDelta(delta, stackSlot, memorySlot);
+        return response;
+    }
+
+    private void applyDelta(StateDelta delta, int stackSlot, int memorySlot) {
+        synchronized (lock) {
+            if (binary) {
+                applyDelta(delta, stackSlot, delta.applyToStack(cachedValues[stackSlot]));
+                applyDelta(delta, memorySlot, delta.changesMemory()
+                        ? delta.applyToMemory(cachedValues[memorySlot]) : cachedValues[memorySlot]);
+                return;
             }
-        });
+            applyDelta(delta, stackSlot, delta.applyToStack(cachedStates[stackSlot]));
+            if (delta.changesMemory()) {
+                applyDelta(delta, memorySlot, delta.applyToMemory(cachedStates[memorySlot]));
+            } else {
+                applyDelta(delta, memorySlot, cachedStates[memorySlot]);
+            }
+        }
+    }
+
+    private void applyDelta(StateDelta delta, int slot, long[] updated) {
+        if (cachedVersions[slot] != delta.version - 1) return;
+        cachedValues[slot] = updated;
+        applyDelta(delta, slot, updated == null ? null : render(slot, updated, cachedMemorySizes[slot]));
+    }
+
+    private void applyDelta(StateDelta delta, int slot, String updated) {
+        if (cachedVersions[slot] != delta.version - 1) return;
+        if (updated == null) {
+            cachedVersions[slot] = -1;
+            return;
+        }
+        boolean changed = !updated.equals(cachedStates[slot]);
+        cachedVersions[slot] = delta.version;
+        cachedStates[slot] = updated;
+        if (changed) {
+            eventExecutor.execute(() -> notifyListeners(SLOT_TOPICS[slot], delta.version, updated));
+        }
     }
 
     /**
-     * Take value from global stack to user stack
+     * Send one command line; the future completes with its one-line response
      */
-    public String takeFromGlobal() {
-        return executeWithRetry(() -> {
-            synchronized (lock) {
-                if (!connected.get()) {
-                    return "ERROR: Not connected to server";
-                }
-                out.println("TAKE");
-                try {
-                    String response = in.readLine();
-                    lastActivity.set(System.currentTimeMillis());
-                    return response;
-                } catch (IOException e) {
-                    connected.set(false);
-                    return "ERROR: " + e.getMessage();
+    private CompletableFuture<String> sendCommand(String command) {
+        return map(request(() -> writeLine(command)), String.class::cast);
+    }
+
+    /**
+     * Send one request frame; the future completes with the reply carrying
+     * its message_id. Failures to get one come back as a failed response
+     * holding the same "ERROR:" text {@link #sendCommand} gives.
+     */
+    private CompletableFuture<Response> call(PlanetLangProto.Request.Builder request) {
+        return map(exchange(Message.newBuilder().setRequest(request)), Message::getResponse);
+    }
+
+    private CompletableFuture<Message> exchange(Message.Builder message) {
+        return map(request(() -> writeFrame(message)),
+                reply -> reply instanceof Message ? (Message) reply : failure((String) reply));
+    }
+
+    /**
+     * Write a request once it has one of the {@link #MAX_IN_FLIGHT} slots.
+     * The future completes with the reply, or the "ERROR:" text to answer
+     * with instead, within the read timeout counted from now. Giving up on
+     * it, by timeout or cancelling, frees the slot straight away; the
+     * connection and the requests behind it carry on.
+     */
+    private CompletableFuture<Object> request(Supplier<CompletableFuture<Object>> write) {
+        if (!connected.get()) {
+            return CompletableFuture.completedFuture("ERROR: Not connected to server");
+        }
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        reply.orTimeout(readTimeout, TimeUnit.MILLISECONDS);
+        Runnable start = () -> {
+            reply.whenComplete((response, failure) -> releaseSlot());
+            if (reply.isDone()) return;
+            CompletableFuture<Object> written = write.get();
+            written.whenComplete((response, failure) -> {
+                if (failure == null) reply.complete(response);
+            });
+            // A frame's id is forgotten; a line's waiter keeps its place and absorbs the reply
+            reply.whenComplete((response, failure) -> written.cancel(false));
+        };
+
+        boolean now;
+        synchronized (waitingForSlot) {
+            now = waitingForSlot.isEmpty() && slots.tryAcquire();
+            if (!now) waitingForSlot.add(start);
+        }
+        if (now) {
+            start.run();
+        } else {
+            startWaiting();
+        }
+        return cancelling(reply, reply.handle(this::answer));
+    }
+
+    /**
+     * Have the writer start as many waiting requests as there are free slots
+     */
+    private void startWaiting() {
+        try {
+            writer.execute(() -> {
+                synchronized (waitingForSlot) {
+                    while (!waitingForSlot.isEmpty() && slots.tryAcquire()) {
+                        waitingForSlot.poll().run();
+                    }
                 }
-            }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down; whatever is still waiting times out
+        }
+    }
+
+    private void releaseSlot() {
+        slots.release();
+        if (!waitingForSlot.isEmpty()) startWaiting();
+    }
+
+    /**
+     * The reply a request answers with: the line or frame received, or the
+     * "ERROR:" text for a closed connection or a timeout
+     */
+    private Object answer(Object response, Throwable failure) {
+        if (failure instanceof TimeoutException) {
+            return "ERROR: Read timed out";
+        }
+        if (failure != null) {
+            return "ERROR: " + failure.getMessage();
+        }
+        lastActivity.set(System.currentTimeMillis());
+        if (response == InFlight.CLOSED) {
+            connected.set(false);
+            return "ERROR: Connection closed";
+        }
+        return response;
+    }
+
+    private static <T, R> CompletableFuture<R> map(CompletableFuture<T> source, Function<T, R> function) {
+        return cancelling(source, source.thenApply(function));
+    }
+
+    /**
+     * Make cancelling {@code result} also cancel the {@code source} it is
+     * computed from, so the request underneath is given up too
+     */
+    private static <T> CompletableFuture<T> cancelling(CompletableFuture<?> source, CompletableFuture<T> result) {
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) source.cancel(false);
         });
-    }    /**
-     * Get current user stack state
+        return result;
+    }
+
+    /**
+     * Wait for an asynchronous call, for the blocking methods. Every request
+     * gives up after the read timeout, so this needs no timeout of its own.
      */
-    public String getUserStack() {
-        synchronized (lock) {
-            if (!connected.get()) {
-                return "ERROR: Not connected to server";
+    private static <T> T await(CompletableFuture<T> future, T interrupted) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return interrupted;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Write one command line and return the future its reply completes.
+     * Joining the line of waiters and writing happen together, so replies
+     * pair up with commands however many threads are sending.
+     */
+    private CompletableFuture<Object> writeLine(String command) {
+        synchronized (writeLock) {
+            CompletableFuture<Object> reply = inFlight.expectLine();
+            PrintWriter writer = out;
+            if (writer == null) {
+                reply.complete(InFlight.CLOSED);
+            } else {
+                writer.println(command);
             }
-            out.println("GET_USER_STACK");
+            return reply;
+        }
+    }
+
+    /**
+     * Write one request frame under a new message_id and return the future
+     * its reply completes
+     */
+    private CompletableFuture<Object> writeFrame(Message.Builder message) {
+        long id = nextMessageId.incrementAndGet();
+        byte[] frame = Protocol.frame(message.setSessionId(sessionId).setMessageId(id).build());
+        synchronized (writeLock) {
+            CompletableFuture<Object> reply = inFlight.expectFrame(id);
             try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                if (response != null && response.startsWith("USER_STACK:")) {
-                    return response.substring(11);
-                }
-                return response;
+                OutputStream stream = output;
+                if (stream == null) throw new EOFException("Connection closed");
+                stream.write(frame);
             } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
+                reply.complete(InFlight.CLOSED);
             }
+            return reply;
         }
     }
 
+    private static Message failure(String error) {
+        return Message.newBuilder().setResponse(Response.newBuilder().setErrorMessage(error)).build();
+    }
+
+    /**
+     * The text protocol's answer to a request without a result: OK or the error
+     */
+    private static String status(Response response) {
+        return response.getSuccess() ? "OK" : response.getErrorMessage();
+    }
+
+    /**
+     * Share value from user stack to global stack
+     */
+    public String shareToGlobal() {
+        return await(shareToGlobalAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> shareToGlobalAsync() {
+        return executeWithRetry(() -> binary
+                ? stackOperation(StackOperationRequest.OperationType.SHARE_TO_GLOBAL)
+                : sendCommand("SHARE"));
+    }
+
+    /**
+     * Take value from global stack to user stack
+     */
+    public String takeFromGlobal() {
+        return await(takeFromGlobalAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> takeFromGlobalAsync() {
+        return executeWithRetry(() -> binary
+                ? stackOperation(StackOperationRequest.OperationType.TAKE_FROM_GLOBAL)
+                : sendCommand("TAKE"));
+    }
+
+    private CompletableFuture<String> stackOperation(StackOperationRequest.OperationType operation) {
+        return map(call(PlanetLangProto.Request.newBuilder().setStackOperation(
+                StackOperationRequest.newBuilder().setOperation(operation))), ClientConnection::status);
+    }
+
+    /**
+     * Get current user stack state
+     */
+    public String getUserStack() {
+        return await(getUserStackAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> getUserStackAsync() {
+        return conditionalGet("GET_USER_STACK", 0);
+    }
+
     /**
      * Get current global stack state
      */
     public String getGlobalStack() {
-        synchronized (lock) {
-            if (!connected.get()) {
-                return "ERROR: Not connected to server";
+        return await(getGlobalStackAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> getGlobalStackAsync() {
+        return conditionalGet("GET_GLOBAL_STACK", 1);
+    }
+
+    /**
+     * Get global memory state
+     */
+    public String getGlobalMemory() {
+        return await(getGlobalMemoryAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> getGlobalMemoryAsync() {
+        return conditionalGet("GET_GLOBAL_MEMORY", 2);
+    }
+
+    /**
+     * Get user memory state
+     */
+    public String getUserMemory() {
+        return await(getUserMemoryAsync(), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> getUserMemoryAsync() {
+        return conditionalGet("GET_USER_MEMORY", 3);
+    }
+
+    /**
+     * Read {@code count} cells of global memory from {@code start}. The server
+     * may return fewer (its per-read limit, or the end of memory). Returns
+     * null if not connected or the read was refused.
+     */
+    public MemoryRange getGlobalMemoryRange(int start, int count) {
+        return await(getGlobalMemoryRangeAsync(start, count), null);
+    }
+
+    public CompletableFuture<MemoryRange> getGlobalMemoryRangeAsync(int start, int count) {
+        return memoryRange("GET_GLOBAL_MEMORY_RANGE:" + start + "," + count);
+    }
+
+    /**
+     * Read a window of user memory, like {@link #getGlobalMemoryRange}
+     */
+    public MemoryRange getUserMemoryRange(int start, int count) {
+        return await(getUserMemoryRangeAsync(start, count), null);
+    }
+
+    public CompletableFuture<MemoryRange> getUserMemoryRangeAsync(int start, int count) {
+        return memoryRange("GET_USER_MEMORY_RANGE:" + start + "," + count);
+    }
+
+    private CompletableFuture<MemoryRange> memoryRange(String command) {
+        if (binary) {
+            // GET_x_MEMORY_RANGE:start,count
+            String[] range = command.substring(command.indexOf(':') + 1).split(",");
+            GetStateRequest.StateType type = command.startsWith("GET_USER")
+                    ? GetStateRequest.StateType.USER_MEMORY : GetStateRequest.StateType.GLOBAL_MEMORY;
+            return map(call(PlanetLangProto.Request.newBuilder().setGetState(GetStateRequest.newBuilder()
+                    .setStateType(type)
+                    .setStart(Integer.parseInt(range[0]))
+                    .setCount(Integer.parseInt(range[1])))), response -> {
+                if (!response.getSuccess()) {
+                    System.err.println("Memory read failed: " + response.getErrorMessage());
+                    return null;
+                }
+                MemoryState memory = response.getGetState().getMemoryState();
+                return new MemoryRange(memory.getStart(), toArray(memory.getCellsList()), memory.getMemorySize(),
+                        response.getGetState().getVersion());
+            });
+        }
+        return map(sendCommand(command), response -> {
+            if (!response.startsWith("MEMORY_RANGE:")) {
+                System.err.println("Memory read failed: " + response);
+                return null;
             }
-            out.println("GET_GLOBAL_STACK");
-            try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                if (response != null && response.startsWith("GLOBAL_STACK:")) {
-                    return response.substring(13);
+            // MEMORY_RANGE:start,count,memorySize@version:cells
+            int at = response.indexOf('@');
+            int colon = response.indexOf(':', at);
+            String[] header = response.substring(13, at).split(",");
+            int start = Integer.parseInt(header[0]);
+            int count = Integer.parseInt(header[1]);
+            int memorySize = Integer.parseInt(header[2]);
+            long version = Long.parseLong(response.substring(at + 1, colon));
+            long[] values = MemoryCodec.decode(response.substring(colon + 1), count);
+            return new MemoryRange(start, values, memorySize, version);
+        });
+    }
+
+    /**
+     * Versioned read. The server answers NOT_MODIFIED when the runtime hasn't
+     * changed since the version cached here, and the cached text is returned.
+     * Reads may overlap, so the cache only ever moves to a newer version.
+     */
+    private CompletableFuture<String> conditionalGet(String command, int slot) {
+        if (!connected.get()) {
+            return CompletableFuture.completedFuture("ERROR: Not connected to server");
+        }
+        long since;
+        synchronized (lock) {
+            since = cachedVersions[slot];
+        }
+        CompletableFuture<String> read = conditionalGet(command, slot, since);
+        // Null is a NOT_MODIFIED with no text cached to stand for it; read the whole state instead
+        return cancelling(read, read.thenCompose(state -> {
+            if (state != null) return CompletableFuture.completedFuture(state);
+            CompletableFuture<String> full = since < 0 ? CompletableFuture.completedFuture(null) : conditionalGet(command, slot, -1);
+            return full.thenApply(text -> text != null ? text : "ERROR: No state cached for " + SLOT_TOPICS[slot]);
+        }));
+    }
+
+    private CompletableFuture<String> conditionalGet(String command, int slot, long since) {
+        String prefix = SLOT_TOPICS[slot];
+        if (binary) {
+            return conditionalGet(GetStateRequest.StateType.valueOf(prefix), slot, since);
+        }
+        return map(sendCommand(command + "@" + since), response -> {
+            synchronized (lock) {
+                if (response.startsWith("NOT_MODIFIED@")) {
+                    return cachedStates[slot];
+                }
+                if (response.startsWith(prefix + "@")) {
+                    int colon = response.indexOf(':');
+                    long version = Long.parseLong(response.substring(prefix.length() + 1, colon));
+                    String state = response.substring(colon + 1);
+                    if (version >= cachedVersions[slot]) {
+                        cachedVersions[slot] = version;
+                        cachedStates[slot] = state;
+                    }
+                    return state;
                 }
                 return response;
-            } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
             }
+        });
+    }
+
+    private CompletableFuture<String> conditionalGet(GetStateRequest.StateType type, int slot, long since) {
+        GetStateRequest.Builder get = GetStateRequest.newBuilder().setStateType(type);
+        if (since >= 0) get.setIfChangedSince(since);
+        return map(call(PlanetLangProto.Request.newBuilder().setGetState(get)), response -> {
+            if (!response.getSuccess()) return response.getErrorMessage();
+            GetStateResponse state = response.getGetState();
+            synchronized (lock) {
+                if (state.getNotModified()) return cachedStates[slot];
+                long[] values;
+                int memorySize = 0;
+                if (state.hasStackState()) {
+                    values = toArray(state.getStackState().getValuesList());
+                } else {
+                    values = toArray(state.getMemoryState().getCellsList());
+                    memorySize = state.getMemoryState().getMemorySize();
+                }
+                if (state.getVersion() >= cachedVersions[slot]) {
+                    cache(slot, state.getVersion(), values, memorySize);
+                }
+                return render(slot, values, memorySize);
+            }
+        });
+    }
+
+    /**
+     * Over protobuf: hold values read at {@code version} and their rendering
+     */
+    private void cache(int slot, long version, long[] values, int memorySize) {
+        cachedVersions[slot] = version;
+        cachedValues[slot] = values;
+        cachedMemorySizes[slot] = memorySize;
+        cachedStates[slot] = render(slot, values, memorySize);
+    }
+
+    /**
+     * The text the server would have sent: a stack top first as "[a, b]",
+     * memory as its first cells with ", ..." when there are more
+     */
+    private static String render(int slot, long[] values, int memorySize) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(values[i]);
         }
+        boolean memory = slot == 2 || slot == 3;
+        if (memory && memorySize > values.length) sb.append(", ...");
+        return sb.append(']').toString();
+    }
+
+    private static long[] toArray(List<Long> list) {
+        long[] values = new long[list.size()];
+        for (int i = 0; i < values.length; i++) values[i] = list.get(i);
+        return values;
     }
 
     /**
-     * Get global memory state
+     * Send a chat message
      */
-    public String getGlobalMemory() {
-        synchronized (lock) {
+    public String sendChatMessage(String message) {
+        return await(sendChatMessageAsync(message), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> sendChatMessageAsync(String message) {
+        if (!connected.get()) {
+            return CompletableFuture.completedFuture("ERROR: Not connected to server");
+        }
+        if (binary) {
+            return map(call(PlanetLangProto.Request.newBuilder().setChat(ChatRequest.newBuilder()
+                    .setSendMessage(SendChatMessage.newBuilder().setMessage(message)))), ClientConnection::status);
+        }
+        return sendCommand("CHAT:" + message);
+    }
+
+    /**
+     * Get chat messages. Only messages newer than the last one seen are
+     * fetched; earlier ones come from the local history.
+     */
+    public String getChatMessages() {
+        return await(getChatMessagesAsync(), "ERROR: Interrupted");
+    }
+
+    /**
+     * Fetches run one at a time, each from where the last left off.
+     * Cancelling the future only stops waiting: the fetch still runs, so
+     * its messages reach the history.
+     */
+    public CompletableFuture<String> getChatMessagesAsync() {
+        synchronized (chatLock) {
+            chatFetch = chatFetch.handle((chat, failure) -> null).thenComposeAsync(ignored -> fetchChat(), writer);
+            return chatFetch.copy();
+        }
+    }
+
+    private CompletableFuture<String> fetchChat() {
+        long since;
+        synchronized (chatLock) {
             if (!connected.get()) {
-                return "ERROR: Not connected to server";
+                return CompletableFuture.completedFuture("");
             }
-            out.println("GET_GLOBAL_MEMORY");
-            try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                if (response != null && response.startsWith("GLOBAL_MEMORY:")) {
-                    return response.substring(14);
+            since = chatCursor;
+        }
+        if (binary) {
+            return map(call(PlanetLangProto.Request.newBuilder().setChat(ChatRequest.newBuilder()
+                    .setGetMessages(GetChatMessages.newBuilder().setSinceId(since)))), response -> {
+                if (!response.getSuccess()) return response.getErrorMessage();
+                synchronized (chatLock) {
+                    for (ChatMessage message : response.getChat().getGetResponse().getMessagesList()) {
+                        addChatLine(ChatLog.format(message.getTimestamp(), message.getUserId(), message.getMessage()));
+                        chatCursor = message.getMessageId();
+                    }
+                    return String.join("\n", chatHistory);
                 }
-                return response;
-            } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
+            });
+        }
+        return map(sendCommand("GET_CHAT_SINCE:" + since), response -> {
+            if (!response.startsWith("CHAT_SINCE:")) {
+                return response.startsWith("ERROR:") ? response : "";
+            }
+            String batch = ProgramFrame.decode(response.substring(11));
+            int colon = batch.indexOf(':');
+            synchronized (chatLock) {
+                chatCursor = Long.parseLong(batch.substring(0, colon));
+                if (colon + 1 < batch.length()) {
+                    for (String message : batch.substring(colon + 1).split("\n")) {
+                        addChatLine(message);
+                    }
+                }
+                return String.join("\n", chatHistory);
             }
+        });
+    }
+
+    private void addChatLine(String message) {
+        chatHistory.addLast(message);
+        if (chatHistory.size() > CHAT_HISTORY_LIMIT) chatHistory.removeFirst();
+    }
+
+    /**
+     * Ask the server to push changes to the given topics (USER_STACK,
+     * USER_MEMORY, GLOBAL_STACK, GLOBAL_MEMORY, CHAT). The current state of
+     * each topic is pushed straight away, and subscriptions are renewed
+     * after a reconnect.
+     */
+    public String subscribe(String... topics) {
+        return await(subscribeAsync(topics), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> subscribeAsync(String... topics) {
+        subscribedTopics.addAll(List.of(topics));
+        return requestTopics(List.of(topics), false);
+    }
+
+    /**
+     * Stop pushes for the given topics
+     */
+    public String unsubscribe(String... topics) {
+        return await(unsubscribeAsync(topics), "ERROR: Interrupted");
+    }
+
+    public CompletableFuture<String> unsubscribeAsync(String... topics) {
+        subscribedTopics.removeAll(List.of(topics));
+        return requestTopics(List.of(topics), true);
+    }
+
+    private CompletableFuture<String> requestTopics(List<String> topics, boolean unsubscribe) {
+        if (binary) {
+            return map(call(PlanetLangProto.Request.newBuilder().setSubscribe(SubscribeRequest.newBuilder()
+                    .addAllTopics(topics)
+                    .setUnsubscribe(unsubscribe))), ClientConnection::status);
         }
+        return sendCommand((unsubscribe ? "UNSUBSCRIBE:" : "SUBSCRIBE:") + String.join(",", topics));
     }
 
     /**
-     * Get user memory state
+     * Watch {@code count} cells of global memory from {@code start}; writes to
+     * them are pushed to the {@link WatchListener}s. Watches belong to the
+     * connection and end with it.
+     * @return the watch id, or -1 if the server refused
      */
-    public String getUserMemory() {
-        synchronized (lock) {
-            if (!connected.get()) {
-                return "ERROR: Not connected to server";
-            }
-            out.println("GET_USER_MEMORY");
-            try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                if (response != null && response.startsWith("USER_MEMORY:")) {
-                    return response.substring(12);
+    public int watchGlobalMemory(int start, int count) {
+        return await(watchGlobalMemoryAsync(start, count), -1);
+    }
+
+    public CompletableFuture<Integer> watchGlobalMemoryAsync(int start, int count) {
+        if (binary) {
+            return map(call(PlanetLangProto.Request.newBuilder().setWatch(WatchRequest.newBuilder()
+                    .setStart(start)
+                    .setCount(count))), response -> {
+                if (!response.getSuccess()) {
+                    System.err.println("Watch failed: " + response.getErrorMessage());
+                    return -1;
                 }
-                return response;
-            } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
+                return response.getWatch().getWatchId();
+            });
+        }
+        return map(sendCommand("WATCH:" + start + "," + count), response -> {
+            if (!response.startsWith("WATCH:")) {
+                System.err.println("Watch failed: " + response);
+                return -1;
             }
+            return Integer.parseInt(response.substring(6));
+        });
+    }
+
+    public boolean unwatchGlobalMemory(int watchId) {
+        return await(unwatchGlobalMemoryAsync(watchId), false);
+    }
+
+    public CompletableFuture<Boolean> unwatchGlobalMemoryAsync(int watchId) {
+        if (binary) {
+            return map(call(PlanetLangProto.Request.newBuilder().setWatch(WatchRequest.newBuilder().setUnwatch(watchId))),
+                    Response::getSuccess);
         }
+        return map(sendCommand("UNWATCH:" + watchId), response -> response.equals("OK"));
+    }
+
+    public void addWatchListener(WatchListener listener) {
+        watchListeners.add(listener);
+    }
+
+    public void removeWatchListener(WatchListener listener) {
+        watchListeners.remove(listener);
+    }
+
+    public void addStateListener(StateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeStateListener(StateListener listener) {
+        stateListeners.remove(listener);
     }
 
     /**
-     * Send a chat message
+     * Parse EVENT:TOPIC@version[:state] on the reader thread and deliver it
+     * on the event thread, so listeners may call back into this connection
      */
-    public String sendChatMessage(String message) {
+    private void dispatchEvent(String line) {
+        int at = line.indexOf('@');
+        int colon = line.indexOf(':', at);
+        String topic = line.substring(6, at);
+        long version;
+        try {
+            version = Long.parseLong(line.substring(at + 1, colon < 0 ? line.length() : colon));
+        } catch (NumberFormatException e) {
+            System.err.println("Malformed event: " + line);
+            return;
+        }
+        String state = colon < 0 ? null : line.substring(colon + 1);
+        if (topic.equals("WATCH")) {
+            eventExecutor.execute(() -> deliverWatchHits(version, state));
+        } else {
+            eventExecutor.execute(() -> deliverEvent(topic, version, state));
+        }
+    }
+
+    /**
+     * The protobuf form of {@link #dispatchEvent(String)}
+     */
+    private void dispatchEvent(Event event) {
+        String topic = event.getTopic();
+        long version = event.getVersion();
+        if (topic.equals("WATCH")) {
+            eventExecutor.execute(() -> {
+                for (WatchHit hit : event.getWatchHitsList()) {
+                    deliverWatchHit(hit.getWatchId(), hit.getAddress(), hit.getValue(), version);
+                }
+            });
+        } else if (event.hasStackState()) {
+            eventExecutor.execute(() -> deliverEvent(topic, version, toArray(event.getStackState().getValuesList()), 0));
+        } else if (event.hasMemoryState()) {
+            MemoryState memory = event.getMemoryState();
+            eventExecutor.execute(() -> deliverEvent(topic, version, toArray(memory.getCellsList()), memory.getMemorySize()));
+        } else {
+            eventExecutor.execute(() -> deliverEvent(topic, version, null));
+        }
+    }
+
+    private void deliverEvent(String topic, long version, long[] values, int memorySize) {
+        int slot = List.of(SLOT_TOPICS).indexOf(topic);
+        if (slot < 0) return;
+        String state;
         synchronized (lock) {
-            if (!connected.get()) {
-                return "ERROR: Not connected to server";
+            state = render(slot, values, memorySize);
+            if (version > cachedVersions[slot]) {
+                cache(slot, version, values, memorySize);
             }
-            out.println("CHAT:" + message);
-            try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                return response;
-            } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
+        }
+        notifyListeners(topic, version, state);
+    }
+
+    private void deliverEvent(String topic, long version, String state) {
+        if (topic.equals("CHAT")) {
+            // Chat events only carry the newest id; fetch what's new without holding up other events
+            getChatMessagesAsync().thenAcceptAsync(chat -> notifyListeners(topic, version, chat), eventExecutor);
+            return;
+        }
+        int slot = List.of(SLOT_TOPICS).indexOf(topic);
+        if (slot < 0) return;
+        synchronized (lock) {
+            // Keep conditional reads answering from the pushed state
+            if (version > cachedVersions[slot]) {
+                cachedVersions[slot] = version;
+                cachedStates[slot] = state;
             }
         }
+        notifyListeners(topic, version, state);
     }
 
     /**
-     * Get chat messages
+     * Entries are id:address=value, comma separated
      */
-    public String getChatMessages() {
-        synchronized (lock) {
-            if (!connected.get()) {
-                return "";
+    private void deliverWatchHits(long version, String hits) {
+        for (String hit : hits.split(",")) {
+            int colon = hit.indexOf(':');
+            int equals = hit.indexOf('=', colon);
+            int watchId = Integer.parseInt(hit.substring(0, colon));
+            int address = Integer.parseInt(hit.substring(colon + 1, equals));
+            long value = Long.parseLong(hit.substring(equals + 1));
+            deliverWatchHit(watchId, address, value, version);
+        }
+    }
+
+    private void deliverWatchHit(int watchId, int address, long value, long version) {
+        for (WatchListener listener : watchListeners) {
+            try {
+                listener.memoryChanged(watchId, address, value, version);
+            } catch (RuntimeException e) {
+                System.err.println("Watch listener failed: " + e.getMessage());
             }
-            out.println("GET_CHAT_MESSAGES");
+        }
+    }
+
+    private void notifyListeners(String topic, long version, String state) {
+        for (StateListener listener : stateListeners) {
             try {
-                String response = in.readLine();
-                lastActivity.set(System.currentTimeMillis());
-                if (response != null && response.startsWith("CHAT_MESSAGES:")) {
-                    return response.substring(14);
-                }
-                return "";
-            } catch (IOException e) {
-                connected.set(false);
-                return "ERROR: " + e.getMessage();
+                listener.stateChanged(topic, version, state);
+            } catch (RuntimeException e) {
+                System.err.println("State listener failed: " + e.getMessage());
             }
         }
-    }    /**
+    }
+
+    /**
      * Send a request to the server
      */
     public void sendRequest(Request request) {
-        if (!connected.get()) {
-            System.err.println("Not connected to server");
+        if (!connected.get() || binary) {
+            System.err.println(binary ? "Raw requests need the text protocol" : "Not connected to server");
             return;
         }
-        out.println(request.toString());
+        rawReplies.add(writeLine(request.toString()));
         lastActivity.set(System.currentTimeMillis());
     }
 
@@ -447,11 +1271,11 @@ public class ClientConnection {
      * Send a simple text message to the server
      */
     public void sendMessage(String message) {
-        if (!connected.get()) {
-            System.err.println("Not connected to server");
+        if (!connected.get() || binary) {
+            System.err.println(binary ? "Raw messages need the text protocol" : "Not connected to server");
             return;
         }
-        out.println(message);
+        rawReplies.add(writeLine(message));
         lastActivity.set(System.currentTimeMillis());
     }
 
@@ -462,9 +1286,25 @@ public class ClientConnection {
         if (!connected.get()) {
             throw new IOException("Not connected to server");
         }
-        String response = in.readLine();
-        lastActivity.set(System.currentTimeMillis());
-        return response;
+        if (binary) {
+            throw new IOException("Raw reads need the text protocol");
+        }
+        CompletableFuture<Object> reply = rawReplies.poll();
+        if (reply == null) {
+            throw new IOException("No message awaiting a response");
+        }
+        try {
+            Object response = reply.get(readTimeout, TimeUnit.MILLISECONDS);
+            lastActivity.set(System.currentTimeMillis());
+            return response == InFlight.CLOSED ? null : (String) response;
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Read timed out");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for response");
+        }
     }
 
     /**
@@ -502,6 +1342,8 @@ public class ClientConnection {
      */
     public void shutdown() {
         disconnect();
+        eventExecutor.shutdown();
+        writer.shutdown();
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
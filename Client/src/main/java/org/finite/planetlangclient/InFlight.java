@@ -0,0 +1,77 @@
+package org.finite.planetlangclient;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+
+/**
+ * Requests written on one connection and not answered yet. Text replies come
+ * back in request order and complete the oldest waiter; protobuf replies
+ * complete the waiter registered under their message_id. When the connection
+ * ends, every waiter left is completed with {@link #CLOSED}.
+ */
+final class InFlight {
+    /** Reply given to waiters whose connection ended */
+    static final Object CLOSED = new Object();
+
+    private final Queue<CompletableFuture<Object>> lines = new ConcurrentLinkedQueue<>();
+    private final Map<Long, CompletableFuture<Object>> frames = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Wait for the next text reply. Must be called in the order the lines
+     * are written. A waiter that gives up keeps its place and absorbs its
+     * late reply, so the ones behind it still get theirs.
+     */
+    CompletableFuture<Object> expectLine() {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        lines.add(reply);
+        if (closed) reply.complete(CLOSED);
+        return reply;
+    }
+
+    /**
+     * Wait for the frame answering {@code messageId}. A waiter that gives up
+     * is forgotten, and its late reply dropped.
+     */
+    CompletableFuture<Object> expectFrame(long messageId) {
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        frames.put(messageId, reply);
+        reply.whenComplete((result, failure) -> frames.remove(messageId, reply));
+        if (closed) reply.complete(CLOSED);
+        return reply;
+    }
+
+    /**
+     * Hand a text reply to the oldest waiter. Returns false if nobody was waiting.
+     */
+    boolean lineReceived(String line) {
+        CompletableFuture<Object> reply = lines.poll();
+        if (reply == null) return false;
+        reply.complete(line);
+        return true;
+    }
+
+    /**
+     * Hand a reply frame to its waiter. Returns false if nobody is waiting
+     * for it any more.
+     */
+    boolean frameReceived(Message message) {
+        CompletableFuture<Object> reply = frames.get(message.getMessageId());
+        return reply != null && reply.complete(message);
+    }
+
+    void close() {
+        closed = true;
+        CompletableFuture<Object> reply;
+        while ((reply = lines.poll()) != null) {
+            reply.complete(CLOSED);
+        }
+        for (CompletableFuture<Object> waiting : frames.values()) {
+            waiting.complete(CLOSED);
+        }
+    }
+}
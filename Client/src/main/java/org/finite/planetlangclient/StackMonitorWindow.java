@@ -4,6 +4,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import org.finite.planetlangclient.ui.components.MemoryPageView;
 
 /**
  * A dedicated window for monitoring PlanetLang stacks and memory in real-time
@@ -17,7 +18,11 @@ public class StackMonitorWindow extends JFrame {
     private JTextArea globalStackArea;
     private JTextArea globalMemoryArea;
     private JTextArea userMemoryArea;
-    private Timer updateTimer;
+    private MemoryPageView globalMemoryPage;
+    private MemoryPageView userMemoryPage;
+    private static final String[] TOPICS = { "USER_STACK", "GLOBAL_STACK", "GLOBAL_MEMORY", "USER_MEMORY" };
+    private final ClientConnection.StateListener stateListener =
+            (topic, version, state) -> SwingUtilities.invokeLater(() -> showState(topic, state));
     private JButton refreshButton;
     private JCheckBox autoRefreshCheckBox;
 
@@ -27,8 +32,8 @@ public class StackMonitorWindow extends JFrame {
 
         initComponents();
         setupLayout();
-        setupTimer();
         setupWindowProperties();
+        setConnected(connected);
 
         // Initial update
         updateDisplays();
@@ -40,19 +45,15 @@ public class StackMonitorWindow extends JFrame {
         globalStackArea = createStackArea("Global Stack");
         globalMemoryArea = createStackArea("Global Memory");
         userMemoryArea = createStackArea("Your Memory");
+        globalMemoryPage = new MemoryPageView(globalMemoryArea, clientConnection::getGlobalMemoryRangeAsync);
+        userMemoryPage = new MemoryPageView(userMemoryArea, clientConnection::getUserMemoryRangeAsync);
 
         // Control buttons
         refreshButton = new JButton("Refresh Now");
         refreshButton.addActionListener(e -> updateDisplays());
 
         autoRefreshCheckBox = new JCheckBox("Auto Refresh", true);
-        autoRefreshCheckBox.addActionListener(e -> {
-            if (autoRefreshCheckBox.isSelected()) {
-                updateTimer.start();
-            } else {
-                updateTimer.stop();
-            }
-        });
+        autoRefreshCheckBox.addActionListener(e -> setConnected(connected));
     }
 
     private JTextArea createStackArea(String title) {
@@ -73,8 +74,8 @@ public class StackMonitorWindow extends JFrame {
 
         stacksPanel.add(new JScrollPane(userStackArea));
         stacksPanel.add(new JScrollPane(globalStackArea));
-        stacksPanel.add(new JScrollPane(userMemoryArea));
-        stacksPanel.add(new JScrollPane(globalMemoryArea));
+        stacksPanel.add(userMemoryPage);
+        stacksPanel.add(globalMemoryPage);
 
         add(stacksPanel, BorderLayout.CENTER);
 
@@ -97,13 +98,6 @@ public class StackMonitorWindow extends JFrame {
         add(bottomPanel, BorderLayout.SOUTH);
     }
 
-    private void setupTimer() {
-        updateTimer = new Timer(1000, e -> updateDisplays());
-        if (autoRefreshCheckBox.isSelected()) {
-            updateTimer.start();
-        }
-    }
-
     private void setupWindowProperties() {
         setTitle("PlanetLang Stack Monitor");
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
@@ -114,9 +108,7 @@ public class StackMonitorWindow extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (updateTimer != null) {
-                    updateTimer.stop();
-                }
+                clientConnection.removeStateListener(stateListener);
             }
         });
     }
@@ -126,41 +118,47 @@ public class StackMonitorWindow extends JFrame {
             connected = false;
             userStackArea.setText("Not connected to server");
             globalStackArea.setText("Not connected to server");
-            globalMemoryArea.setText("Not connected to server");
-            userMemoryArea.setText("Not connected to server");
+            globalMemoryPage.showMessage("Not connected to server");
+            userMemoryPage.showMessage("Not connected to server");
             return;
         }
 
         connected = true;
 
-        try {
-            // Update all displays
-            SwingUtilities.invokeLater(() -> {
-                userStackArea.setText(clientConnection.getUserStack());
-                globalStackArea.setText(clientConnection.getGlobalStack());
-                globalMemoryArea.setText(clientConnection.getGlobalMemory());
-                userMemoryArea.setText(clientConnection.getUserMemory());
-
-                // Auto-scroll to top for better visibility
-                userStackArea.setCaretPosition(0);
-                globalStackArea.setCaretPosition(0);
-                globalMemoryArea.setCaretPosition(0);
-                userMemoryArea.setCaretPosition(0);
-            });
-        } catch (Exception e) {
-            System.err.println("Failed to update stack monitor: " + e.getMessage());
+        // Update all displays as their reads come back
+        globalMemoryPage.refresh();
+        userMemoryPage.refresh();
+        clientConnection.getUserStackAsync().thenAcceptAsync(state -> showState("USER_STACK", state), SwingUtilities::invokeLater);
+        clientConnection.getGlobalStackAsync().thenAcceptAsync(state -> showState("GLOBAL_STACK", state), SwingUtilities::invokeLater);
+    }
+
+    /**
+     * Apply one pushed state change to its display
+     */
+    private void showState(String topic, String state) {
+        JTextArea area;
+        switch (topic) {
+            case "USER_STACK": area = userStackArea; break;
+            case "GLOBAL_STACK": area = globalStackArea; break;
+            // Memory events carry only a preview; read the visible page instead
+            case "GLOBAL_MEMORY": globalMemoryPage.refresh(); return;
+            case "USER_MEMORY": userMemoryPage.refresh(); return;
+            default: return;
         }
+        area.setText(state);
+        area.setCaretPosition(0);
     }
 
     /**
-     * Update connection status
+     * Update connection status. While connected with auto refresh on, the
+     * displays follow the server's pushed changes.
      */
     public void setConnected(boolean connected) {
         this.connected = connected;
-        if (!connected && updateTimer != null) {
-            updateTimer.stop();
-        } else if (connected && autoRefreshCheckBox.isSelected() && updateTimer != null) {
-            updateTimer.start();
+        clientConnection.removeStateListener(stateListener);
+        if (connected && autoRefreshCheckBox.isSelected()) {
+            clientConnection.addStateListener(stateListener);
+            clientConnection.subscribeAsync(TOPICS);
         }
     }
 }
\ No newline at end of file
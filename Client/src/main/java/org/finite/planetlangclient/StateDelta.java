@@ -0,0 +1,189 @@
+package org.finite.planetlangclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionResponse;
+
+/**
+ * The change list the server returns with a successful execution:
+ * "OK@version pop=k push=a,b mem=addr:value,..." over text, the same fields
+ * of an ExecuteInstructionResponse over protobuf. Applying it to the state at
+ * version - 1 gives the state at version, so the client's view can follow its
+ * own executions without reading the stack or memory again.
+ */
+final class StateDelta {
+    final long version;
+    final int pops;
+    /** Bottom to top */
+    final long[] pushes;
+    /** Too many values pushed to list; the stack has to be read again */
+    final boolean stackOverflow;
+    final int[] addresses;
+    final long[] values;
+    /** Too many cells changed to list; memory has to be read again */
+    final boolean memoryOverflow;
+
+    private StateDelta(long version, int pops, long[] pushes, boolean stackOverflow, int[] addresses, long[] values,
+                       boolean memoryOverflow) {
+        this.version = version;
+        this.pops = pops;
+        this.pushes = pushes;
+        this.stackOverflow = stackOverflow;
+        this.addresses = addresses;
+        this.values = values;
+        this.memoryOverflow = memoryOverflow;
+    }
+
+    StateDelta(ExecuteInstructionResponse response) {
+        this.version = response.getVersion();
+        this.pops = response.getPopped();
+        this.pushes = new long[response.getPushedCount()];
+        for (int i = 0; i < pushes.length; i++) pushes[i] = response.getPushed(i);
+        this.stackOverflow = response.getStackOverflow();
+        this.addresses = new int[response.getMemoryWritesCount()];
+        this.values = new long[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = response.getMemoryWrites(i).getAddress();
+            values[i] = response.getMemoryWrites(i).getValue();
+        }
+        this.memoryOverflow = response.getMemoryOverflow();
+    }
+
+    /**
+     * Parse an execution response, or return null if it carries no changes
+     * (an error, or a server that only answers "OK")
+     */
+    static StateDelta parse(String response) {
+        if (response == null || !response.startsWith("OK@")) return null;
+        try {
+            String[] parts = response.substring(3).split(" ");
+            long version = Long.parseLong(parts[0]);
+            int pops = 0;
+            long[] pushes = new long[0];
+            boolean stackOverflow = false;
+            int[] addresses = new int[0];
+            long[] values = new long[0];
+            boolean memoryOverflow = false;
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i];
+                if (part.equals("stack=*")) {
+                    stackOverflow = true;
+                } else if (part.startsWith("pop=")) {
+                    pops = Integer.parseInt(part.substring(4));
+                } else if (part.startsWith("push=")) {
+                    String[] items = part.substring(5).split(",");
+                    pushes = new long[items.length];
+                    for (int j = 0; j < items.length; j++) pushes[j] = Long.parseLong(items[j]);
+                } else if (part.equals("mem=*")) {
+                    memoryOverflow = true;
+                } else if (part.startsWith("mem=")) {
+                    String[] cells = part.substring(4).split(",");
+                    addresses = new int[cells.length];
+                    values = new long[cells.length];
+                    for (int j = 0; j < cells.length; j++) {
+                        int colon = cells[j].indexOf(':');
+                        addresses[j] = Integer.parseInt(cells[j].substring(0, colon));
+                        values[j] = Long.parseLong(cells[j].substring(colon + 1));
+                    }
+                }
+            }
+            return new StateDelta(version, pops, pushes, stackOverflow, addresses, values, memoryOverflow);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply to a stack rendered top first as "[a, b, c]". Returns null if the
+     * rendering doesn't fit the delta or the stack must be re-read.
+     */
+    String applyToStack(String stack) {
+        if (stackOverflow) return null;
+        List<String> items = parseList(stack);
+        if (items == null || items.size() < pops) return null;
+        items.subList(0, pops).clear();
+        for (long value : pushes) {
+            items.add(0, Long.toString(value));
+        }
+        return "[" + String.join(", ", items) + "]";
+    }
+
+    /**
+     * Apply to the memory preview "[m0, m1, ..., ...]"; writes beyond the
+     * cells shown don't change it. Returns null if memory must be re-read.
+     */
+    String applyToMemory(String memory) {
+        if (memoryOverflow) return null;
+        List<String> cells = parseList(memory);
+        if (cells == null) return null;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] >= 0 && addresses[i] < cells.size() && !cells.get(addresses[i]).equals("...")) {
+                cells.set(addresses[i], Long.toString(values[i]));
+            }
+        }
+        return "[" + String.join(", ", cells) + "]";
+    }
+
+    /**
+     * Apply to stack values held top first. Returns null if the stack is too
+     * short for the delta or must be re-read.
+     */
+    long[] applyToStack(long[] stack) {
+        if (stackOverflow || stack == null || stack.length < pops) return null;
+        long[] result = new long[stack.length - pops + pushes.length];
+        for (int i = 0; i < pushes.length; i++) {
+            result[i] = pushes[pushes.length - 1 - i];
+        }
+        System.arraycopy(stack, pops, result, pushes.length, stack.length - pops);
+        return result;
+    }
+
+    /**
+     * Apply to the first cells of memory; writes beyond them don't change it.
+     * Returns null if memory must be re-read.
+     */
+    long[] applyToMemory(long[] cells) {
+        if (memoryOverflow || cells == null) return null;
+        long[] result = Arrays.copyOf(cells, cells.length);
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] >= 0 && addresses[i] < result.length) result[addresses[i]] = values[i];
+        }
+        return result;
+    }
+
+    boolean changesMemory() {
+        return memoryOverflow || addresses.length > 0;
+    }
+
+    /**
+     * The text form, as the server sends it
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OK@").append(version);
+        if (stackOverflow) sb.append(" stack=*");
+        if (pops > 0) sb.append(" pop=").append(pops);
+        for (int i = 0; i < pushes.length; i++) {
+            sb.append(i == 0 ? " push=" : ",").append(pushes[i]);
+        }
+        if (memoryOverflow) {
+            sb.append(" mem=*");
+        } else {
+            for (int i = 0; i < addresses.length; i++) {
+                sb.append(i == 0 ? " mem=" : ",").append(addresses[i]).append(':').append(values[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<String> parseList(String rendered) {
+        if (rendered == null || !rendered.startsWith("[") || !rendered.endsWith("]")) return null;
+        List<String> items = new ArrayList<>();
+        String body = rendered.substring(1, rendered.length() - 1);
+        if (!body.isEmpty()) {
+            for (String item : body.split(", ")) items.add(item);
+        }
+        return items;
+    }
+}
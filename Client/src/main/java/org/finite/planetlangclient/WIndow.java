@@ -18,7 +18,6 @@ public class WIndow extends javax.swing.JFrame {
     private javax.swing.JTextArea globalMemoryArea;
     private javax.swing.JTextField commandField;
     private javax.swing.JComboBox<String> executionModeCombo;
-    private javax.swing.Timer updateTimer;
     private javax.swing.JTextPane chatArea;
     private javax.swing.JTextField chatInputField;
     private javax.swing.JTextArea codeEditor;
@@ -260,8 +259,17 @@ public class WIndow extends javax.swing.JFrame {
     }
     
     private void setupRealTimeUpdates() {
-        updateTimer = new javax.swing.Timer(300, e -> updateDisplays());
-        updateTimer.setRepeats(true);
+        // The server pushes changes to subscribed topics; apply them on the EDT
+        clientConnection.addStateListener((topic, version, state) -> javax.swing.SwingUtilities.invokeLater(() -> {
+            if (!connected) return;
+            switch (topic) {
+                case "USER_STACK": userStackArea.setText(state); break;
+                case "GLOBAL_STACK": globalStackArea.setText(state); break;
+                case "GLOBAL_MEMORY": globalMemoryArea.setText(state); break;
+                case "CHAT": showChat(state); break;
+                default: break;
+            }
+        }));
     }
     
     private void executeCommand() {
@@ -274,20 +282,18 @@ public class WIndow extends javax.swing.JFrame {
         if (command.isEmpty()) return;
         
         String mode = (String) executionModeCombo.getSelectedItem();
-        String result;
-        
-        if ("Local".equals(mode)) {
-            result = clientConnection.executeLocal(command);
-        } else {
-            result = clientConnection.executeGlobal(command);
-        }
+        java.util.concurrent.CompletableFuture<String> execution = "Local".equals(mode)
+                ? clientConnection.executeLocalAsync(command)
+                : clientConnection.executeGlobalAsync(command);
         
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Command failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
+        onEdt(execution, result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Command failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+        });
         
+        // The displays follow from the changes returned with the result
         commandField.setText("");
-        updateDisplays();
     }
     
     private void shareToGlobal() {
@@ -296,11 +302,12 @@ public class WIndow extends javax.swing.JFrame {
             return;
         }
         
-        String result = clientConnection.shareToGlobal();
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Share failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
-        updateDisplays();
+        onEdt(clientConnection.shareToGlobalAsync(), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Share failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+            updateDisplays();
+        });
     }
     
     private void takeFromGlobal() {
@@ -309,11 +316,12 @@ public class WIndow extends javax.swing.JFrame {
             return;
         }
         
-        String result = clientConnection.takeFromGlobal();
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Take failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
-        updateDisplays();
+        onEdt(clientConnection.takeFromGlobalAsync(), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Take failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+            updateDisplays();
+        });
     }
     
     private void sendChatMessage() {
@@ -325,13 +333,14 @@ public class WIndow extends javax.swing.JFrame {
         String message = chatInputField.getText().trim();
         if (message.isEmpty()) return;
         
-        String result = clientConnection.sendChatMessage(message);
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Failed to send chat message: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        } else {
-            chatInputField.setText("");
-            updateChat();
-        }
+        onEdt(clientConnection.sendChatMessageAsync(message), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Failed to send chat message: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            } else {
+                chatInputField.setText("");
+                updateChat();
+            }
+        });
     }
     
     private void executeCodeLocal() {
@@ -343,11 +352,11 @@ public class WIndow extends javax.swing.JFrame {
         String code = codeEditor.getText().trim();
         if (code.isEmpty()) return;
         
-        String result = clientConnection.executeLocal(code);
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Code execution failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
-        updateDisplays();
+        onEdt(clientConnection.executeLocalProgramAsync(code), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Code execution failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
     
     private void executeCodeGlobal() {
@@ -359,11 +368,11 @@ public class WIndow extends javax.swing.JFrame {
         String code = codeEditor.getText().trim();
         if (code.isEmpty()) return;
         
-        String result = clientConnection.executeGlobal(code);
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Code execution failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
-        updateDisplays();
+        onEdt(clientConnection.executeGlobalProgramAsync(code), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Code execution failed: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
     
     private void shareCodeToChat() {
@@ -377,12 +386,13 @@ public class WIndow extends javax.swing.JFrame {
         
         // Format code as a special chat message
         String message = "[CODE]\n" + code + "\n[/CODE]";
-        String result = clientConnection.sendChatMessage(message);
-        if (!result.startsWith("OK")) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Failed to share code: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        } else {
-            updateChat();
-        }
+        onEdt(clientConnection.sendChatMessageAsync(message), result -> {
+            if (!result.startsWith("OK")) {
+                javax.swing.JOptionPane.showMessageDialog(this, "Failed to share code: " + result, "Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            } else {
+                updateChat();
+            }
+        });
     }
     
     private void loadCodeFromChat() {
@@ -423,31 +433,40 @@ public class WIndow extends javax.swing.JFrame {
     private void updateDisplays() {
         if (!connected) return;
         
-        try {
-            userStackArea.setText(clientConnection.getUserStack());
-            globalStackArea.setText(clientConnection.getGlobalStack());
-            globalMemoryArea.setText(clientConnection.getGlobalMemory());
-            updateChat();
-        } catch (Exception e) {
-            System.err.println("Failed to update displays: " + e.getMessage());
-        }
+        onEdt(clientConnection.getUserStackAsync(), userStackArea::setText);
+        onEdt(clientConnection.getGlobalStackAsync(), globalStackArea::setText);
+        onEdt(clientConnection.getGlobalMemoryAsync(), globalMemoryArea::setText);
+        updateChat();
     }
     
     private void updateChat() {
         if (!connected) return;
         
-        try {
-            String chatMessages = clientConnection.getChatMessages();
-            if (chatMessages != null && !chatMessages.isEmpty()) {
-                // Format code blocks in chat
-                chatMessages = chatMessages.replace("[CODE]\n", "```\n");
-                chatMessages = chatMessages.replace("\n[/CODE]", "\n```");
-                chatArea.setText(chatMessages);
-                // Auto-scroll to bottom
-                chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        onEdt(clientConnection.getChatMessagesAsync(), this::showChat);
+    }
+    
+    /**
+     * Handle a reply on the EDT once it arrives, so waiting for the server
+     * never freezes the window
+     */
+    private void onEdt(java.util.concurrent.CompletableFuture<String> reply, java.util.function.Consumer<String> action) {
+        reply.whenCompleteAsync((result, failure) -> {
+            if (failure != null) {
+                System.err.println("Request failed: " + failure.getMessage());
+            } else {
+                action.accept(result);
             }
-        } catch (Exception e) {
-            System.err.println("Failed to update chat: " + e.getMessage());
+        }, javax.swing.SwingUtilities::invokeLater);
+    }
+    
+    private void showChat(String chatMessages) {
+        if (chatMessages != null && !chatMessages.isEmpty()) {
+            // Format code blocks in chat
+            chatMessages = chatMessages.replace("[CODE]\n", "```\n");
+            chatMessages = chatMessages.replace("\n[/CODE]", "\n```");
+            chatArea.setText(chatMessages);
+            // Auto-scroll to bottom
+            chatArea.setCaretPosition(chatArea.getDocument().getLength());
         }
     }
     
@@ -463,12 +482,19 @@ public class WIndow extends javax.swing.JFrame {
         String portStr = javax.swing.JOptionPane.showInputDialog(this, "Enter server port:", "8000");
         if (portStr == null || portStr.trim().isEmpty()) return;
         
+        int port;
         try {
-            int port = Integer.parseInt(portStr.trim());
-            if (clientConnection.connect(host.trim(), port)) {
+            port = Integer.parseInt(portStr.trim());
+        } catch (NumberFormatException e) {
+            javax.swing.JOptionPane.showMessageDialog(this, "Invalid port number!", "Input Error", javax.swing.JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        clientConnection.connectAsync(host.trim(), port).thenAcceptAsync(success -> {
+            if (success) {
                 connected = true;
                 setTitle("PlanetLang Client - Connected to " + host + ":" + port);
-                updateTimer.start();
+                clientConnection.subscribeAsync("USER_STACK", "GLOBAL_STACK", "GLOBAL_MEMORY", "CHAT");
                 updateDisplays();
                 
                 // Update stack monitor if it's open
@@ -480,9 +506,7 @@ public class WIndow extends javax.swing.JFrame {
             } else {
                 javax.swing.JOptionPane.showMessageDialog(this, "Failed to connect to server!", "Connection Error", javax.swing.JOptionPane.ERROR_MESSAGE);
             }
-        } catch (NumberFormatException e) {
-            javax.swing.JOptionPane.showMessageDialog(this, "Invalid port number!", "Input Error", javax.swing.JOptionPane.ERROR_MESSAGE);
-        }
+        }, javax.swing.SwingUtilities::invokeLater);
     }
     
     private void disconnectFromServer() {
@@ -493,7 +517,6 @@ public class WIndow extends javax.swing.JFrame {
         
         clientConnection.disconnect();
         connected = false;
-        updateTimer.stop();
         userStackArea.setText("");
         globalStackArea.setText("");
         globalMemoryArea.setText("");
@@ -7,6 +7,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -36,7 +37,6 @@ public class ModernMainWindow extends JFrame {
     
     // Timers and background tasks
     private ScheduledExecutorService scheduler;
-    private Timer uiUpdateTimer;
     
     public ModernMainWindow() {
         initializeClient();
@@ -209,14 +209,15 @@ public class ModernMainWindow extends JFrame {
     }
     
     private void setupBackgroundTasks() {
-        // UI update timer for real-time data
-        uiUpdateTimer = new Timer(1000, e -> {
-            if (connected) {
-                updateStackMonitor();
-                updateChatMessages();
+        // Real-time data is pushed by the server for the topics subscribed on connect
+        clientConnection.addStateListener((topic, version, state) -> {
+            if (!connected) return;
+            if (topic.equals("USER_STACK")) {
+                updateStackMonitor(state);
+            } else if (topic.equals("CHAT")) {
+                updateChatMessages(state);
             }
         });
-        uiUpdateTimer.start();
         
         // Connection health check
         scheduler.scheduleAtFixedRate(this::checkConnectionHealth, 5, 5, TimeUnit.SECONDS);
@@ -227,17 +228,19 @@ public class ModernMainWindow extends JFrame {
         if (connect) {
             statusBar.setActivityStatus("Connecting to " + host + ":" + port + "...", new Color(255, 193, 7));
             
-            // Connect in background thread
-            SwingUtilities.invokeLater(() -> {
-                boolean success = clientConnection.connect(host, port);
+            // Connect in background thread, then report back on the EDT
+            clientConnection.connectAsync(host, port).thenAcceptAsync(success -> {
                 updateConnectionState(success);
+                if (success) {
+                    clientConnection.subscribeAsync("USER_STACK", "CHAT");
+                }
                 
                 if (success) {
                     statusBar.setActivityStatus("Connected to " + host + ":" + port, new Color(40, 167, 69));
                 } else {
                     statusBar.setActivityStatus("Failed to connect to " + host + ":" + port, new Color(220, 53, 69));
                 }
-            });
+            }, SwingUtilities::invokeLater);
         } else {
             clientConnection.disconnect();
             updateConnectionState(false);
@@ -280,25 +283,20 @@ public class ModernMainWindow extends JFrame {
             return;
         }
         
-        // Execute in background thread
-        SwingUtilities.invokeLater(() -> {
-            try {
-                String result;
-                if (global) {
-                    result = clientConnection.executeGlobal(code);
-                    statusBar.setActivityStatus("Executed on global stack", new Color(40, 167, 69));
-                } else {
-                    result = clientConnection.executeLocal(code);
-                    statusBar.setActivityStatus("Executed on local stack", new Color(40, 167, 69));
-                }
-                
-                // Show result in a modern dialog
-                showExecutionResult(result, global);
-                
-            } catch (Exception e) {
-                statusBar.setActivityStatus("Execution error: " + e.getMessage(), new Color(220, 53, 69));
+        // Execute without blocking the EDT; the result comes back to it
+        CompletableFuture<String> execution = global
+                ? clientConnection.executeGlobalProgramAsync(code)
+                : clientConnection.executeLocalProgramAsync(code);
+        execution.whenCompleteAsync((result, failure) -> {
+            if (failure != null) {
+                statusBar.setActivityStatus("Execution error: " + failure.getMessage(), new Color(220, 53, 69));
+                return;
             }
-        });
+            statusBar.setActivityStatus(global ? "Executed on global stack" : "Executed on local stack", new Color(40, 167, 69));
+            
+            // Show result in a modern dialog
+            showExecutionResult(result, global);
+        }, SwingUtilities::invokeLater);
     }
     
     private void shareCodeToChat() {
@@ -318,16 +316,13 @@ public class ModernMainWindow extends JFrame {
             return;
         }
         
-        SwingUtilities.invokeLater(() -> {
-            try {
-                String result = clientConnection.sendChatMessage(message);
-                if (result.startsWith("ERROR")) {
-                    statusBar.setActivityStatus("Failed to send message", new Color(220, 53, 69));
-                }
-            } catch (Exception e) {
-                statusBar.setActivityStatus("Chat error: " + e.getMessage(), new Color(220, 53, 69));
+        clientConnection.sendChatMessageAsync(message).whenCompleteAsync((result, failure) -> {
+            if (failure != null) {
+                statusBar.setActivityStatus("Chat error: " + failure.getMessage(), new Color(220, 53, 69));
+            } else if (result.startsWith("ERROR")) {
+                statusBar.setActivityStatus("Failed to send message", new Color(220, 53, 69));
             }
-        });
+        }, SwingUtilities::invokeLater);
     }
     
     // UI update methods
@@ -349,30 +344,23 @@ public class ModernMainWindow extends JFrame {
         });
     }
     
-    private void updateStackMonitor() {
-        if (!connected) return;
-        
-        SwingUtilities.invokeLater(() -> {
-            try {
-                // For now, just refresh the stack monitor display
-                stackMonitor.refreshStack();
-            } catch (Exception e) {
-                // Silently handle update errors
+    private void updateStackMonitor(String stack) {
+        if (stack == null || !stack.startsWith("[")) return;
+        
+        // The server renders the stack top first as [a, b, c]; the monitor wants bottom first
+        java.util.List<String> items = new java.util.ArrayList<>();
+        String values = stack.substring(1, stack.length() - 1);
+        if (!values.isEmpty()) {
+            for (String value : values.split(", ")) {
+                items.add(0, value);
             }
-        });
+        }
+        stackMonitor.updateStack(items);
     }
     
-    private void updateChatMessages() {
-        if (!connected) return;
-        
-        SwingUtilities.invokeLater(() -> {
-            try {
-                // For now, just append a system message about updates
-                chatPanel.appendSystemMessage("Messages updated");
-            } catch (Exception e) {
-                // Silently handle update errors
-            }
-        });
+    private void updateChatMessages(String messages) {
+        if (messages == null || messages.startsWith("ERROR:")) return;
+        chatPanel.setMessages(messages);
     }
     
     private void checkConnectionHealth() {
@@ -464,10 +452,6 @@ public class ModernMainWindow extends JFrame {
     }
     
     private void shutdown() {
-        if (uiUpdateTimer != null) {
-            uiUpdateTimer.stop();
-        }
-        
         if (scheduler != null) {
             scheduler.shutdown();
         }
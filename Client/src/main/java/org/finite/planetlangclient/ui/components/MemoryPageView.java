@@ -0,0 +1,150 @@
+package org.finite.planetlangclient.ui.components;
+
+import PlanetVM.MemoryRange;
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pages through a runtime's memory one cell per row, reading only the cells
+ * that fit in the visible area. The owning window supplies the styled text
+ * area and how to read a range from the server.
+ */
+public class MemoryPageView extends JPanel {
+
+    /**
+     * Reads a window of memory, e.g. {@code clientConnection::getUserMemoryRangeAsync}
+     */
+    public interface RangeReader {
+        CompletableFuture<MemoryRange> read(int start, int count);
+    }
+
+    private final JTextArea area;
+    private final RangeReader reader;
+    private final JScrollPane scrollPane;
+    private final JButton previousButton = new JButton("◀");
+    private final JButton nextButton = new JButton("▶");
+    private final JTextField addressField = new JTextField(6);
+    private final JLabel pageLabel = new JLabel(" ");
+
+    private int start;
+    private int memorySize = -1;
+    /** The page being read, replaced (and cancelled) by a newer one */
+    private CompletableFuture<MemoryRange> pending;
+
+    public MemoryPageView(JTextArea area, RangeReader reader) {
+        super(new BorderLayout());
+        this.area = area;
+        this.reader = reader;
+
+        // Pages replace scrolling, so the area never grows past the viewport
+        scrollPane = new JScrollPane(area, JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        scrollPane.setBorder(null);
+        scrollPane.getViewport().setBackground(area.getBackground());
+        add(scrollPane, BorderLayout.CENTER);
+
+        JPanel navigation = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 2));
+        navigation.setBackground(area.getBackground());
+        navigation.setBorder(new EmptyBorder(2, 5, 2, 5));
+        JLabel goLabel = new JLabel("Go to:");
+        goLabel.setForeground(area.getForeground());
+        pageLabel.setForeground(area.getForeground());
+        navigation.add(previousButton);
+        navigation.add(nextButton);
+        navigation.add(goLabel);
+        navigation.add(addressField);
+        navigation.add(pageLabel);
+        add(navigation, BorderLayout.SOUTH);
+
+        previousButton.addActionListener(e -> {
+            start = Math.max(0, start - pageSize());
+            refresh();
+        });
+        nextButton.addActionListener(e -> {
+            start += pageSize();
+            refresh();
+        });
+        addressField.addActionListener(e -> {
+            try {
+                start = Math.max(0, Integer.parseInt(addressField.getText().trim()));
+                refresh();
+            } catch (NumberFormatException ex) {
+                addressField.selectAll();
+            }
+        });
+        // A taller view shows more cells, so fetch again when resized
+        scrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (memorySize >= 0) refresh();
+            }
+        });
+    }
+
+    /**
+     * Rows that fit in the visible area, one cell per row
+     */
+    private int pageSize() {
+        int lineHeight = area.getFontMetrics(area.getFont()).getHeight();
+        Insets insets = area.getInsets();
+        int height = scrollPane.getViewport().getExtentSize().height - insets.top - insets.bottom;
+        if (height <= 0) return Math.max(1, area.getRows());
+        return Math.max(1, height / lineHeight);
+    }
+
+    /**
+     * Read the current page and show it when it arrives. Call on the event
+     * dispatch thread.
+     */
+    public void refresh() {
+        int count = pageSize();
+        if (memorySize > 0 && start >= memorySize) {
+            start = Math.max(0, memorySize - count);
+        }
+        if (pending != null) pending.cancel(false);
+        CompletableFuture<MemoryRange> read = reader.read(start, count);
+        pending = read;
+        read.thenAcceptAsync(range -> {
+            if (pending == read) show(range);
+        }, SwingUtilities::invokeLater);
+    }
+
+    private void show(MemoryRange range) {
+        pending = null;
+        if (range == null) {
+            showMessage("Memory unavailable");
+            return;
+        }
+        memorySize = range.memorySize;
+
+        int width = String.valueOf(Math.max(0, memorySize - 1)).length();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < range.values.length; i++) {
+            if (i > 0) sb.append('\n');
+            sb.append(String.format("%" + width + "d: %d", range.start + i, range.values[i]));
+        }
+        area.setText(sb.toString());
+        area.setCaretPosition(0);
+
+        int end = range.start + range.values.length;
+        pageLabel.setText(range.values.length == 0 ? "empty" : range.start + "-" + (end - 1) + " of " + memorySize);
+        previousButton.setEnabled(range.start > 0);
+        nextButton.setEnabled(end < memorySize);
+    }
+
+    /**
+     * Show a status message instead of memory, e.g. while disconnected
+     */
+    public void showMessage(String message) {
+        if (pending != null) pending.cancel(false);
+        pending = null;
+        memorySize = -1;
+        area.setText(message);
+        pageLabel.setText(" ");
+        previousButton.setEnabled(false);
+        nextButton.setEnabled(false);
+    }
+}
@@ -155,6 +155,16 @@ public class ModernChatPanel extends JPanel {
         appendMessage("Error", message, new Color(220, 53, 69));
     }
     
+    /**
+     * Replace the transcript with the server's chat history
+     */
+    public void setMessages(String messages) {
+        SwingUtilities.invokeLater(() -> {
+            chatArea.setText(messages);
+            chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        });
+    }
+    
     public void clearChat() {
         SwingUtilities.invokeLater(() -> {
             chatArea.setText("");
@@ -29,6 +29,8 @@ public class ModernStackMemoryWindow extends JFrame {
     private JTextArea globalStackArea;
     private JTextArea userMemoryArea;
     private JTextArea globalMemoryArea;
+    private MemoryPageView userMemoryPage;
+    private MemoryPageView globalMemoryPage;
     
     // Control components
     private JButton refreshButton;
@@ -38,7 +40,9 @@ public class ModernStackMemoryWindow extends JFrame {
     
     // Background tasks
     private ScheduledExecutorService scheduler;
-    private Timer updateTimer;
+    private final ClientConnection.StateListener stateListener =
+            (topic, version, state) -> SwingUtilities.invokeLater(() -> showState(topic, state));
+    private boolean liveUpdates;
     
     public ModernStackMemoryWindow(ClientConnection clientConnection) {
         this.clientConnection = clientConnection;
@@ -47,7 +51,6 @@ public class ModernStackMemoryWindow extends JFrame {
         initializeComponents();
         setupLayout();
         setupEventHandlers();
-        setupTimer();
         setupWindowProperties();
         
         // Initial update
@@ -60,6 +63,10 @@ public class ModernStackMemoryWindow extends JFrame {
         globalStackArea = createDisplayArea("Global Stack");
         userMemoryArea = createDisplayArea("User Memory");
         globalMemoryArea = createDisplayArea("Global Memory");
+        if (clientConnection != null) {
+            userMemoryPage = new MemoryPageView(userMemoryArea, clientConnection::getUserMemoryRangeAsync);
+            globalMemoryPage = new MemoryPageView(globalMemoryArea, clientConnection::getGlobalMemoryRangeAsync);
+        }
         
         // Control components
         refreshButton = createButton("🔄 Refresh Now", ACCENT_COLOR);
@@ -135,8 +142,8 @@ public class ModernStackMemoryWindow extends JFrame {
         // Create titled panels for each display area
         mainPanel.add(createTitledPanel("📊 User Stack", userStackArea));
         mainPanel.add(createTitledPanel("🌐 Global Stack", globalStackArea));
-        mainPanel.add(createTitledPanel("💾 User Memory", userMemoryArea));
-        mainPanel.add(createTitledPanel("🗄️ Global Memory", globalMemoryArea));
+        mainPanel.add(createTitledPanel("💾 User Memory", userMemoryPage != null ? userMemoryPage : userMemoryArea));
+        mainPanel.add(createTitledPanel("🗄️ Global Memory", globalMemoryPage != null ? globalMemoryPage : globalMemoryArea));
         
         add(mainPanel, BorderLayout.CENTER);
         
@@ -180,33 +187,57 @@ public class ModernStackMemoryWindow extends JFrame {
         titleLabel.setOpaque(true);
         titleLabel.setBackground(new Color(35, 35, 35));
         
+        panel.add(titleLabel, BorderLayout.NORTH);
+        if (component instanceof MemoryPageView) {
+            // Pages through memory itself
+            panel.add(component, BorderLayout.CENTER);
+            return panel;
+        }
+        
         JScrollPane scrollPane = new JScrollPane(component);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setBorder(null);
         scrollPane.getViewport().setBackground(PANEL_COLOR);
         
-        panel.add(titleLabel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
         
         return panel;
     }
     
     private void setupEventHandlers() {
-        autoRefreshCheckBox.addActionListener(e -> {
-            if (autoRefreshCheckBox.isSelected() && connected) {
-                updateTimer.start();
-            } else {
-                updateTimer.stop();
-            }
-        });
+        autoRefreshCheckBox.addActionListener(e -> setLiveUpdates(autoRefreshCheckBox.isSelected() && connected));
+    }
+    
+    /**
+     * Follow the server's pushed state changes instead of polling
+     */
+    private void setLiveUpdates(boolean enabled) {
+        if (enabled == liveUpdates || clientConnection == null) return;
+        liveUpdates = enabled;
+        if (enabled) {
+            clientConnection.addStateListener(stateListener);
+            clientConnection.subscribeAsync("USER_STACK", "GLOBAL_STACK", "USER_MEMORY", "GLOBAL_MEMORY");
+        } else {
+            clientConnection.removeStateListener(stateListener);
+        }
     }
     
-    private void setupTimer() {
-        updateTimer = new Timer(2000, e -> updateDisplays()); // Update every 2 seconds
-        if (autoRefreshCheckBox.isSelected() && connected) {
-            updateTimer.start();
+    private void showState(String topic, String state) {
+        switch (topic) {
+            case "USER_STACK": showStack(userStackArea, state); break;
+            case "GLOBAL_STACK": showStack(globalStackArea, state); break;
+            // The pushed memory is only a preview; read the visible page instead
+            case "USER_MEMORY": userMemoryPage.refresh(); break;
+            case "GLOBAL_MEMORY": globalMemoryPage.refresh(); break;
+            default: return;
         }
+        lastUpdateLabel.setText("Last Update: " + java.time.LocalTime.now().toString().substring(0, 8));
+    }
+    
+    private void showStack(JTextArea area, String state) {
+        area.setText(state != null ? state : "No data available");
+        area.setCaretPosition(0);
     }
     
     private void setupWindowProperties() {
@@ -220,9 +251,7 @@ public class ModernStackMemoryWindow extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (updateTimer != null && updateTimer.isRunning()) {
-                    updateTimer.stop();
-                }
+                setLiveUpdates(false);
                 if (scheduler != null && !scheduler.isShutdown()) {
                     scheduler.shutdown();
                 }
@@ -264,42 +293,33 @@ public class ModernStackMemoryWindow extends JFrame {
             SwingUtilities.invokeLater(() -> {
                 userStackArea.setText("Not connected to server");
                 globalStackArea.setText("Not connected to server");
-                userMemoryArea.setText("Not connected to server");
-                globalMemoryArea.setText("Not connected to server");
+                userMemoryPage.showMessage("Not connected to server");
+                globalMemoryPage.showMessage("Not connected to server");
             });
             return;
         }
         
-        // Update in background thread to avoid blocking UI
+        // Memory views read only the cells they show
         SwingUtilities.invokeLater(() -> {
-            try {
-                String userStack = clientConnection.getUserStack();
-                String globalStack = clientConnection.getGlobalStack();
-                String userMemory = clientConnection.getUserMemory();
-                String globalMemory = clientConnection.getGlobalMemory();
-                
-                userStackArea.setText(userStack != null ? userStack : "No data available");
-                globalStackArea.setText(globalStack != null ? globalStack : "No data available");
-                userMemoryArea.setText(userMemory != null ? userMemory : "No data available");
-                globalMemoryArea.setText(globalMemory != null ? globalMemory : "No data available");
-                
-                // Auto-scroll to top for better visibility
-                userStackArea.setCaretPosition(0);
-                globalStackArea.setCaretPosition(0);
-                userMemoryArea.setCaretPosition(0);
-                globalMemoryArea.setCaretPosition(0);
-                
-                // Update last update time
-                lastUpdateLabel.setText("Last Update: " + java.time.LocalTime.now().toString().substring(0, 8));
-                
-            } catch (Exception e) {
-                System.err.println("Failed to update stack/memory displays: " + e.getMessage());
-                // Show error in status
-                SwingUtilities.invokeLater(() -> {
-                    connectionStatusLabel.setText("Status: Update Error");
-                    connectionStatusLabel.setForeground(DANGER_COLOR);
-                });
-            }
+            userMemoryPage.refresh();
+            globalMemoryPage.refresh();
+        });
+
+        // Both reads go out at once; the displays update on the EDT when both are back
+        clientConnection.getUserStackAsync().thenAcceptBothAsync(clientConnection.getGlobalStackAsync(), (userStack, globalStack) -> {
+            showStack(userStackArea, userStack);
+            showStack(globalStackArea, globalStack);
+            
+            // Update last update time
+            lastUpdateLabel.setText("Last Update: " + java.time.LocalTime.now().toString().substring(0, 8));
+        }, SwingUtilities::invokeLater).exceptionally(e -> {
+            System.err.println("Failed to update stack/memory displays: " + e.getMessage());
+            // Show error in status
+            SwingUtilities.invokeLater(() -> {
+                connectionStatusLabel.setText("Status: Update Error");
+                connectionStatusLabel.setForeground(DANGER_COLOR);
+            });
+            return null;
         });
     }
     
@@ -310,15 +330,11 @@ public class ModernStackMemoryWindow extends JFrame {
             if (isConnected) {
                 connectionStatusLabel.setText("Status: Connected");
                 connectionStatusLabel.setForeground(SUCCESS_COLOR);
-                if (autoRefreshCheckBox.isSelected()) {
-                    updateTimer.start();
-                }
+                setLiveUpdates(autoRefreshCheckBox.isSelected());
             } else {
                 connectionStatusLabel.setText("Status: Disconnected");
                 connectionStatusLabel.setForeground(DANGER_COLOR);
-                if (updateTimer.isRunning()) {
-                    updateTimer.stop();
-                }
+                setLiveUpdates(false);
             }
         });
     }
@@ -0,0 +1,169 @@
+package org.finite.planetlangclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Drives ClientConnection through its asynchronous API: requests made
+ * without waiting run in order, a cancelled request doesn't shift the
+ * replies after it, and against a server that never answers, requests time
+ * out and no more than MAX_IN_FLIGHT are written at once.
+ */
+public class AsyncConnectionTest {
+    private static final int REQUESTS = 200;
+    private static int passed = 0;
+    private static int failed = 0;
+
+    public static void main(String[] args) throws Exception {
+        for (Server.Mode mode : Server.Mode.values()) {
+            testMode(mode);
+        }
+        testSilentServer();
+        System.out.println("Passed: " + passed + ", Failed: " + failed);
+    }
+
+    public static void testMode(Server.Mode mode) throws Exception {
+        System.out.println("=== Testing the async API against " + mode + " Server ===");
+
+        PrintStream console = System.out;
+        // The server logs every command; keep the results readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        List<String> results = new ArrayList<>();
+        ClientConnection client = new ClientConnection();
+        try {
+            if (!client.connect("localhost", server.getPort())) {
+                check(results, "connected", false);
+                return;
+            }
+
+            // More than MAX_IN_FLIGHT, so some wait for a slot
+            List<CompletableFuture<String>> pushes = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                pushes.add(client.executeLocalAsync("push " + i));
+            }
+            String stack = client.getUserStackAsync().get();
+            boolean pushed = true;
+            for (int i = 0; i < REQUESTS; i++) {
+                pushed &= pushes.get(i).get().endsWith(" push=" + i);
+            }
+            check(results, REQUESTS + " pushes answered in order", pushed);
+            // Sessions from one address share a runtime, so only the top is known
+            check(results, "stack read after them sees them all", stack.startsWith("[" + (REQUESTS - 1) + ", " + (REQUESTS - 2) + ","));
+
+            // Cancel every other one of a burst; most are still waiting for their reply
+            int cancelled = 0;
+            List<CompletableFuture<String>> kept = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                CompletableFuture<String> push = client.executeLocalAsync("push " + i);
+                if (i % 2 == 1) {
+                    if (push.cancel(false)) cancelled++;
+                } else {
+                    kept.add(push);
+                }
+            }
+            boolean matched = true;
+            for (int i = 0; i < kept.size(); i++) {
+                matched &= kept.get(i).get().endsWith(" push=" + 2 * i);
+            }
+            check(results, "cancelled requests leave the other replies in place", cancelled > 0 && matched
+                    && client.executeLocalAsync("push -2").get().endsWith(" push=-2"));
+        } finally {
+            client.shutdown();
+            server.stop();
+            // Let the handler finish logging its disconnect
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+        for (String result : results) System.out.println(result);
+        System.out.println();
+    }
+
+    /**
+     * A server that greets, refuses protobuf and then only counts the lines
+     * it gets
+     */
+    public static void testSilentServer() throws Exception {
+        System.out.println("=== Testing the async API against a silent server ===");
+
+        AtomicInteger received = new AtomicInteger();
+        ServerSocket listener = new ServerSocket(0);
+        Thread silent = new Thread(() -> {
+            try (Socket socket = listener.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.println("SESSION:silent");
+                String line = in.readLine();
+                if (line != null && line.startsWith("PROTOCOL:")) out.println("ERROR: Unknown command");
+                while (in.readLine() != null) {
+                    received.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // Closed by the test
+            }
+        });
+        silent.setDaemon(true);
+        silent.start();
+
+        List<String> results = new ArrayList<>();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ClientConnection client = new ClientConnection(1000, 500, 1, 0);
+        try {
+            client.connect("localhost", listener.getLocalPort());
+
+            long start = System.nanoTime();
+            String timedOut = client.executeLocalAsync("push 1").get();
+            long waited = (System.nanoTime() - start) / 1_000_000;
+            check(results, "unanswered request times out", timedOut.equals("ERROR: Read timed out") && waited >= 450 && waited < 2000);
+
+            received.set(0);
+            List<CompletableFuture<String>> flood = new ArrayList<>();
+            for (int i = 0; i <= ClientConnection.MAX_IN_FLIGHT; i++) {
+                flood.add(client.executeLocalAsync("push " + i));
+            }
+            Thread.sleep(200);
+            int written = received.get();
+            flood.get(0).cancel(false);
+            Thread.sleep(200);
+            check(results, "only " + ClientConnection.MAX_IN_FLIGHT + " requests written at once",
+                    written == ClientConnection.MAX_IN_FLIGHT);
+            check(results, "cancelling frees a slot for the one waiting", received.get() == ClientConnection.MAX_IN_FLIGHT + 1);
+            check(results, "the rest time out too", flood.get(ClientConnection.MAX_IN_FLIGHT).get().equals("ERROR: Read timed out"));
+        } finally {
+            client.shutdown();
+            listener.close();
+            System.setOut(console);
+        }
+        for (String result : results) System.out.println(result);
+        System.out.println();
+    }
+
+    private static void check(List<String> results, String name, boolean ok) {
+        if (ok) passed++; else failed++;
+        results.add((ok ? "✓ " : "✗ ") + name);
+    }
+}
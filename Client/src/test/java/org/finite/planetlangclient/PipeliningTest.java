@@ -0,0 +1,103 @@
+package org.finite.planetlangclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Shares one connection between many threads against every server mode:
+ * each execution's reply must carry its own pushed value, and the shared
+ * connection should answer more requests per second than one caller can.
+ * Runs over protobuf by default; -Dplanetlang.client.protocol=text checks
+ * the text protocol.
+ */
+public class PipeliningTest {
+    private static final int THREADS = 16;
+    private static final int REQUESTS = 4000;
+
+    public static void main(String[] args) throws Exception {
+        for (Server.Mode mode : Server.Mode.values()) {
+            testMode(mode);
+        }
+    }
+
+    public static void testMode(Server.Mode mode) throws Exception {
+        System.out.println("=== Testing Pipelining against " + mode + " Server ===");
+
+        PrintStream console = System.out;
+        // The server logs every command; keep the results readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        ClientConnection client = new ClientConnection();
+        AtomicInteger mismatched = new AtomicInteger();
+        long sequential;
+        long pipelined;
+        try {
+            if (!client.connect("localhost", server.getPort())) {
+                System.setOut(console);
+                System.out.println("✗ Failed to connect");
+                return;
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS / THREADS; i++) {
+                check(client, i, mismatched);
+            }
+            sequential = rate(REQUESTS / THREADS, start);
+
+            CountDownLatch done = new CountDownLatch(THREADS);
+            start = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                int base = (t + 1) * 1_000_000;
+                new Thread(() -> {
+                    for (int i = 0; i < REQUESTS / THREADS; i++) {
+                        check(client, base + i, mismatched);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            pipelined = rate(REQUESTS, start);
+        } finally {
+            client.shutdown();
+            server.stop();
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+
+        if (mismatched.get() == 0) {
+            System.out.println("✓ " + REQUESTS + " requests from " + THREADS + " threads matched their replies");
+        } else {
+            System.out.println("✗ " + mismatched.get() + " replies didn't match their request");
+        }
+        System.out.println("  one caller: " + sequential + " req/s, " + THREADS + " callers: " + pipelined + " req/s");
+        System.out.println();
+    }
+
+    /**
+     * Push a value and pop it again; both replies must be about that value
+     */
+    private static void check(ClientConnection client, long value, AtomicInteger mismatched) {
+        String pushed = client.executeLocal("push " + value);
+        if (!pushed.startsWith("OK@") || !pushed.endsWith(" push=" + value)) mismatched.incrementAndGet();
+        if (!client.executeLocal("pop").startsWith("OK@")) mismatched.incrementAndGet();
+    }
+
+    private static long rate(int requests, long startNanos) {
+        // Two executions per request
+        return 2L * requests * 1_000_000_000L / java.lang.Math.max(1, System.nanoTime() - startNanos);
+    }
+}
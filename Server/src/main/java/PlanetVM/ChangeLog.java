@@ -0,0 +1,63 @@
+package PlanetVM;
+
+/**
+ * What one execution did to a runtime, compact enough to send back with the
+ * result. The stack part is derived from the stack's low-water mark: values
+ * below it were never touched, so the change is "pop down to the mark, then
+ * push everything above it". Memory writes are logged by address only and
+ * read back when the log is rendered, so repeated stores to one cell cost a
+ * single entry. Both parts are capped so a result stays well under a
+ * message: past the cap the part is reported as an overflow instead, and
+ * the client reads that state again.
+ * <p>
+ * Written by the runtime's single writer; capture before the next execution.
+ */
+final class ChangeLog {
+    /** Distinct addresses logged before the log gives up and reports an overflow */
+    static final int MAX_WRITES = Integer.getInteger("planetlang.vm.changeLogWrites", 64);
+    /** Values pushed above the low-water mark before the stack part is reported as an overflow */
+    static final int MAX_PUSHES = Integer.getInteger("planetlang.vm.changeLogPushes", 1024);
+
+    private final int[] addresses = new int[MAX_WRITES];
+    private int writes;
+    private boolean overflowed;
+    private int startSize;
+
+    void begin(LongStack stack) {
+        startSize = stack.size();
+        stack.markLowWater();
+        writes = 0;
+        overflowed = false;
+    }
+
+    void recordWrite(int address) {
+        for (int i = 0; i < writes; i++) {
+            if (addresses[i] == address) return;
+        }
+        if (writes < addresses.length) {
+            addresses[writes++] = address;
+        } else {
+            overflowed = true;
+        }
+    }
+
+    /**
+     * The changes since {@link #begin}. Pushed values go bottom to top.
+     */
+    ExecutionResult capture(long version, LongStack stack, RuntimeMemory memory) {
+        int lowWater = stack.lowWater();
+        int above = stack.size() - lowWater;
+        boolean stackOverflowed = above > MAX_PUSHES;
+        long[] pushed = new long[stackOverflowed ? 0 : above];
+        for (int i = 0; i < pushed.length; i++) {
+            pushed[i] = stack.peek(pushed.length - 1 - i);
+        }
+        int popped = stackOverflowed ? 0 : java.lang.Math.max(0, startSize - lowWater);
+        int[] written = java.util.Arrays.copyOf(addresses, overflowed ? 0 : writes);
+        long[] values = new long[written.length];
+        for (int i = 0; i < written.length; i++) {
+            values[i] = memory.load(written[i]);
+        }
+        return new ExecutionResult(version, popped, pushed, stackOverflowed, written, values, overflowed);
+    }
+}
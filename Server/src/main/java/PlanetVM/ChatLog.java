@@ -0,0 +1,142 @@
+package PlanetVM;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring buffer of chat messages, written without a lock. Every message gets
+ * the next id from a single sequence, so clients can ask for just the
+ * messages after the last id they saw. Once the ring wraps, the oldest
+ * messages are overwritten in place.
+ * <p>
+ * A slot's sequence is the id of the message it holds. Writers never wait on
+ * each other: each publishes with a compare-and-set that only moves the
+ * sequence forward, so a writer that stalls after taking its id and is
+ * lapped meanwhile drops its message instead of storing over a newer one.
+ * Readers check the sequence against the id they want and skip or stop at
+ * slots that don't match.
+ */
+public final class ChatLog {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /**
+     * One chat message. The display form is rendered once, when the message is added.
+     */
+    public static final class Message {
+        public final long id;
+        public final long timestamp;
+        public final String userId;
+        public final String text;
+        private final String formatted;
+
+        Message(long id, long timestamp, String userId, String text) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.userId = userId;
+            this.text = text;
+            this.formatted = format(timestamp, userId, text);
+        }
+
+        @Override
+        public String toString() {
+            return formatted;
+        }
+    }
+
+    /**
+     * Display form of a message, "[HH:mm:ss] user: text"
+     */
+    public static String format(long timestamp, String userId, String text) {
+        return "[" + TIME.format(Instant.ofEpochMilli(timestamp)) + "] " + userId + ": " + text;
+    }
+
+    private final AtomicReferenceArray<Message> slots;
+    private final AtomicLong lastId = new AtomicLong();
+
+    public ChatLog(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    public Message add(String userId, String text) {
+        Message message = claim(userId, text);
+        publish(message);
+        return message;
+    }
+
+    /**
+     * Take the next id for a message without storing it. Split from
+     * {@link #publish} so the stress test can stall a writer in between.
+     */
+    Message claim(String userId, String text) {
+        return new Message(lastId.incrementAndGet(), System.currentTimeMillis(), userId, text);
+    }
+
+    /**
+     * Store a claimed message unless its slot already holds a newer one
+     */
+    void publish(Message message) {
+        int slot = slot(message.id);
+        Message current = slots.get(slot);
+        while (current == null || current.id < message.id) {
+            if (slots.compareAndSet(slot, current, message)) return;
+            current = slots.get(slot);
+        }
+    }
+
+    /**
+     * Messages with ids greater than {@code sinceId}, oldest first. Messages
+     * already overwritten are skipped. A message whose id is taken but which
+     * isn't stored yet ends the result, so a caller polling with the last id it
+     * received can never step over it.
+     */
+    public List<Message> since(long sinceId) {
+        long last = lastId.get();
+        long first = java.lang.Math.max(sinceId + 1, last - slots.length() + 1);
+        List<Message> result = new ArrayList<>((int) java.lang.Math.max(0, last - first + 1));
+        for (long id = first; id <= last; id++) {
+            Message message = slots.get(slot(id));
+            if (message == null || message.id < id) break;
+            if (message.id == id) result.add(message);
+        }
+        return result;
+    }
+
+    /**
+     * Messages sent after {@code timestampMillis}, oldest first
+     */
+    public List<Message> sinceTimestamp(long timestampMillis) {
+        List<Message> all = since(0);
+        int start = 0;
+        while (start < all.size() && all.get(start).timestamp <= timestampMillis) start++;
+        return all.subList(start, all.size());
+    }
+
+    /**
+     * Id of the newest message, 0 if there are none
+     */
+    public long lastId() {
+        return lastId.get();
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Sequence of a slot: the id of the message in it, 0 if it is empty
+     */
+    long idAt(int slot) {
+        Message message = slots.get(slot);
+        return message == null ? 0 : message.id;
+    }
+
+    private int slot(long id) {
+        return (int) (id % slots.length());
+    }
+}
@@ -0,0 +1,11 @@
+package PlanetVM;
+
+/**
+ * A program translated to JVM bytecode by {@link ProgramJit}
+ */
+interface CompiledCode {
+    /**
+     * @return false if the program was stopped by a stack overflow
+     */
+    boolean run(Runtime runtime);
+}
@@ -0,0 +1,51 @@
+package PlanetVM;
+
+/**
+ * Compiles PlanetLang source text into a {@link Program}.
+ * Each non-blank line holds one instruction. Lines that can't be compiled are
+ * skipped and logged, the same way the line interpreter ignores them.
+ */
+public final class Compiler {
+    /** Run the peephole optimizer on compiled programs */
+    private static final boolean OPTIMIZE = !"false".equals(System.getProperty("planetlang.vm.optimize"));
+
+    private Compiler() {
+    }
+
+    public static Program compile(String source) {
+        Program program = parse(source);
+        return OPTIMIZE ? Optimizer.optimize(program) : program;
+    }
+
+    /**
+     * Parse without optimizing
+     */
+    public static Program parse(String source) {
+        int capacity = 1;
+        for (int i = 0; i < source.length(); i++) {
+            if (source.charAt(i) == '\n') capacity++;
+        }
+        int[] opcodes = new int[capacity];
+        long[] operands = new long[capacity];
+        int length = 0;
+        int errorLine = 0;
+        String error = null;
+
+        InstructionScanner scanner = new InstructionScanner().reset(source);
+        while (scanner.next()) {
+            if (scanner.error() != InstructionScanner.OK) {
+                String message = scanner.errorMessage();
+                System.err.println(message);
+                if (error == null) {
+                    error = message;
+                    errorLine = scanner.line();
+                }
+                continue;
+            }
+            opcodes[length] = scanner.opcode();
+            operands[length] = scanner.operand();
+            length++;
+        }
+        return new Program(opcodes, operands, length, errorLine, error);
+    }
+}
@@ -0,0 +1,98 @@
+package PlanetVM;
+
+/**
+ * Outcome of one execution: an error, or the version it produced and what it
+ * changed. The stack change is "pop this many, then push these"; memory
+ * changes are the final value of each cell written. A client holding the
+ * state at version - 1 can apply the changes instead of reading it again.
+ */
+public final class ExecutionResult {
+    private static final long[] NO_VALUES = new long[0];
+    private static final int[] NO_ADDRESSES = new int[0];
+
+    /** "ERROR: ..." or "THROTTLED: ...", null if the execution ran */
+    public final String error;
+    public final long version;
+    public final int popped;
+    /** Bottom to top */
+    public final long[] pushed;
+    /** Too many values were pushed to list; the stack has to be read again */
+    public final boolean stackOverflow;
+    public final int[] addresses;
+    public final long[] values;
+    /** Too many cells were written to list; memory has to be read again */
+    public final boolean memoryOverflow;
+
+    ExecutionResult(long version, int popped, long[] pushed, boolean stackOverflow, int[] addresses, long[] values,
+                    boolean memoryOverflow) {
+        this.error = null;
+        this.version = version;
+        this.popped = popped;
+        this.pushed = pushed;
+        this.stackOverflow = stackOverflow;
+        this.addresses = addresses;
+        this.values = values;
+        this.memoryOverflow = memoryOverflow;
+    }
+
+    private ExecutionResult(String error) {
+        this.error = error;
+        this.version = -1;
+        this.popped = 0;
+        this.pushed = NO_VALUES;
+        this.stackOverflow = false;
+        this.addresses = NO_ADDRESSES;
+        this.values = NO_VALUES;
+        this.memoryOverflow = false;
+    }
+
+    static ExecutionResult failed(String error) {
+        return new ExecutionResult(error);
+    }
+
+    public boolean isOk() {
+        return error == null;
+    }
+
+    /**
+     * Whether any memory cell was written
+     */
+    public boolean changesMemory() {
+        return memoryOverflow || addresses.length > 0;
+    }
+
+    /**
+     * The text protocol's result line: the error, or "OK@version" followed by
+     * " pop=k push=a,b,c mem=addr:value,...", leaving out empty parts.
+     * "stack=*" in place of pop and push means too many values were pushed
+     * to list, "mem=*" that too many cells changed.
+     */
+    @Override
+    public String toString() {
+        if (error != null) return error;
+        StringBuilder sb = new StringBuilder("OK@").append(version);
+        if (stackOverflow) {
+            sb.append(" stack=*");
+        }
+        if (popped > 0) {
+            sb.append(" pop=").append(popped);
+        }
+        if (pushed.length > 0) {
+            sb.append(" push=");
+            for (int i = 0; i < pushed.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(pushed[i]);
+            }
+        }
+        if (memoryOverflow) {
+            sb.append(" mem=*");
+        } else if (addresses.length > 0) {
+            sb.append(" mem=");
+            for (int i = 0; i < addresses.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(addresses[i]).append(':').append(values[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package PlanetVM;
+
+/**
+ * {@link RuntimeMemory} backed by a long[]
+ */
+public final class HeapMemory implements RuntimeMemory {
+    private final long[] cells;
+
+    public HeapMemory(int size) {
+        if (size < 0) throw new IllegalArgumentException("memory size must not be negative");
+        cells = new long[size];
+    }
+
+    @Override
+    public int size() {
+        return cells.length;
+    }
+
+    @Override
+    public long load(int address) {
+        return cells[address];
+    }
+
+    @Override
+    public void store(int address, long value) {
+        cells[address] = value;
+    }
+
+    @Override
+    public long[] toArray() {
+        return cells.clone();
+    }
+}
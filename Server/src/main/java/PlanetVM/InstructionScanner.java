@@ -0,0 +1,231 @@
+package PlanetVM;
+
+/**
+ * Hand-written scanner for PlanetLang source. It walks a {@link CharSequence}
+ * (or raw ASCII bytes through {@link #wrap}) in place: mnemonics are matched
+ * case-insensitively against the instruction table without copying, operands
+ * are parsed digit by digit, and problems are reported as error codes rather
+ * than exceptions. Scanning valid input allocates nothing.
+ * <p>
+ * An instance is reusable but not thread-safe.
+ */
+public final class InstructionScanner {
+    public static final int OK = 0;
+    public static final int UNKNOWN_INSTRUCTION = 1;
+    public static final int MISSING_OPERAND = 2;
+    public static final int INVALID_NUMBER = 3;
+
+    private static final char[][] MNEMONICS = new char[Opcodes.CLEAR + 1][];
+    static {
+        for (int op = 0; op <= Opcodes.CLEAR; op++) {
+            MNEMONICS[op] = Opcodes.name(op).toCharArray();
+        }
+    }
+
+    private CharSequence input;
+    private int pos;
+    private int end;
+    private int line;
+
+    // Result of the last successful next()
+    private int opcode;
+    private long operand;
+    private int error;
+    private int tokenStart;
+    private int tokenEnd;
+
+    public InstructionScanner reset(CharSequence input) {
+        return reset(input, 0, input.length());
+    }
+
+    public InstructionScanner reset(CharSequence input, int start, int end) {
+        this.input = input;
+        this.pos = start;
+        this.end = end;
+        this.line = 0;
+        this.error = OK;
+        return this;
+    }
+
+    /**
+     * Scan the next non-blank line. Returns false once the input is exhausted.
+     * After it returns true, check {@link #error()} before using the opcode.
+     */
+    public boolean next() {
+        while (pos < end) {
+            line++;
+            int lineEnd = pos;
+            while (lineEnd < end && input.charAt(lineEnd) != '\n') lineEnd++;
+            int start = skipSpace(pos, lineEnd);
+            pos = lineEnd + 1;
+            if (start < lineEnd) {
+                scanInstruction(start, lineEnd);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scanInstruction(int start, int lineEnd) {
+        int mnemonicEnd = skipToken(start, lineEnd);
+        tokenStart = start;
+        tokenEnd = mnemonicEnd;
+        operand = 0;
+        opcode = matchMnemonic(start, mnemonicEnd);
+        if (opcode < 0) {
+            error = UNKNOWN_INSTRUCTION;
+            return;
+        }
+        error = OK;
+        if (!Opcodes.hasOperand(opcode)) return;
+
+        int operandStart = skipSpace(mnemonicEnd, lineEnd);
+        if (operandStart == lineEnd) {
+            error = MISSING_OPERAND;
+            return;
+        }
+        tokenStart = operandStart;
+        tokenEnd = skipToken(operandStart, lineEnd);
+        // Push takes any long; addresses follow the int range they always had
+        error = opcode == Opcodes.PUSH
+                ? parseNumber(tokenStart, tokenEnd, Long.MIN_VALUE, Long.MAX_VALUE)
+                : parseNumber(tokenStart, tokenEnd, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private int matchMnemonic(int start, int tokenEnd) {
+        int length = tokenEnd - start;
+        for (int op = 0; op < MNEMONICS.length; op++) {
+            char[] name = MNEMONICS[op];
+            if (name.length != length) continue;
+            int i = 0;
+            while (i < length && toLower(input.charAt(start + i)) == name[i]) i++;
+            if (i == length) return op;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses [start, tokenEnd) as a signed decimal, accumulating negatively
+     * the way Long.parseLong does so the minimum value is reachable
+     */
+    private int parseNumber(int start, int tokenEnd, long min, long max) {
+        int p = start;
+        boolean negative = false;
+        char first = input.charAt(p);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            p++;
+        }
+        if (p == tokenEnd) return INVALID_NUMBER;
+
+        long limit = negative ? min : -max;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (; p < tokenEnd; p++) {
+            int digit = input.charAt(p) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) return INVALID_NUMBER;
+            result *= 10;
+            if (result < limit + digit) return INVALID_NUMBER;
+            result -= digit;
+        }
+        operand = negative ? result : -result;
+        return OK;
+    }
+
+    private int skipSpace(int p, int limit) {
+        while (p < limit && isSpace(input.charAt(p))) p++;
+        return p;
+    }
+
+    private int skipToken(int p, int limit) {
+        while (p < limit && !isSpace(input.charAt(p))) p++;
+        return p;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static char toLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    public int opcode() {
+        return opcode;
+    }
+
+    public long operand() {
+        return operand;
+    }
+
+    /**
+     * Error code for the last scanned line, {@link #OK} if it is valid
+     */
+    public int error() {
+        return error;
+    }
+
+    /**
+     * 1-based line number of the last scanned line
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * Human readable message for the current error. Only this error path allocates.
+     */
+    public String errorMessage() {
+        String token = input.subSequence(tokenStart, tokenEnd).toString();
+        switch (error) {
+            case OK: return null;
+            case UNKNOWN_INSTRUCTION: return "Unknown instruction: " + token;
+            case MISSING_OPERAND: return "Missing operand for " + Opcodes.name(opcode);
+            case INVALID_NUMBER:
+                return opcode == Opcodes.PUSH
+                        ? "Invalid number for push: " + token
+                        : "Invalid address for " + Opcodes.name(opcode) + ": " + token;
+            default: return "Error " + error;
+        }
+    }
+
+    /**
+     * View raw ASCII bytes (for example straight from a network buffer) as
+     * characters without decoding them
+     */
+    public static CharSequence wrap(byte[] bytes, int offset, int length) {
+        return new AsciiView(bytes, offset, length);
+    }
+
+    private static final class AsciiView implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiView(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiView(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, java.nio.charset.StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Growable stack of primitive longs. Values are never boxed, so pushing and
+ * popping doesn't allocate once the backing array has grown to its working size.
+ * A stack can be bounded; pushes beyond the bound are refused.
+ * <p>
+ * The stack also tracks a low-water mark, the smallest size it has shrunk to
+ * since {@link #markLowWater()}, which is enough to describe what a run of
+ * operations changed.
+ */
+public final class LongStack {
+    private static final int DEFAULT_CAPACITY = 16;
+    public static final int UNBOUNDED = Integer.MAX_VALUE - 8;
+
+    private long[] elements;
+    private int size;
+    private int lowWater;
+    private final int maxSize;
+
+    public LongStack() {
+        this(DEFAULT_CAPACITY, UNBOUNDED);
+    }
+
+    public LongStack(int maxSize) {
+        this(DEFAULT_CAPACITY, maxSize);
+    }
+
+    public LongStack(int initialCapacity, int maxSize) {
+        if (maxSize < 1 || maxSize > UNBOUNDED) throw new IllegalArgumentException("max size out of range: " + maxSize);
+        if (initialCapacity < 1) throw new IllegalArgumentException("initial capacity must be positive");
+        this.maxSize = maxSize;
+        this.elements = new long[Math.min(initialCapacity, maxSize)];
+    }
+
+    /**
+     * Push a value, returning false if the stack is at its bound
+     */
+    public boolean push(long value) {
+        if (size == elements.length && !grow(size + 1)) {
+            return false;
+        }
+        elements[size++] = value;
+        return true;
+    }
+
+    public long pop() {
+        if (size == 0) throw new NoSuchElementException();
+        if (--size < lowWater) lowWater = size;
+        return elements[size];
+    }
+
+    public long peek() {
+        if (size == 0) throw new NoSuchElementException();
+        return elements[size - 1];
+    }
+
+    /**
+     * Value {@code depth} slots below the top (0 is the top)
+     */
+    public long peek(int depth) {
+        if (depth < 0 || depth >= size) throw new NoSuchElementException();
+        return elements[size - 1 - depth];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == maxSize;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public void clear() {
+        size = 0;
+        lowWater = 0;
+    }
+
+    /**
+     * Start tracking the low-water mark from the current size
+     */
+    public void markLowWater() {
+        lowWater = size;
+    }
+
+    /**
+     * Smallest size since the last {@link #markLowWater()}. Values below it
+     * are unchanged since then.
+     */
+    public int lowWater() {
+        return lowWater;
+    }
+
+    /**
+     * Move the top {@code count} values onto {@code target}, as {@code count}
+     * pop/push pairs would (so the moved block ends up reversed). Either all
+     * values move or, if this stack has too few or the target too little room,
+     * none do and false is returned.
+     */
+    public boolean transferTo(LongStack target, int count) {
+        if (count < 0 || count > size || target == this) return false;
+        if (target.size + count > target.elements.length && !target.grow(target.size + count)) return false;
+        for (int i = 0; i < count; i++) {
+            target.elements[target.size++] = elements[--size];
+        }
+        if (size < lowWater) lowWater = size;
+        return true;
+    }
+
+    /**
+     * Copy of the values from bottom to top
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    /**
+     * Copy of the values from top to bottom
+     */
+    public long[] toArrayTopFirst() {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = elements[size - 1 - i];
+        }
+        return values;
+    }
+
+    private boolean grow(int minCapacity) {
+        if (minCapacity > maxSize) return false;
+        int newCapacity = elements.length + (elements.length >> 1) + 1;
+        if (newCapacity > maxSize || newCapacity < 0) newCapacity = maxSize;
+        elements = Arrays.copyOf(elements, Math.max(newCapacity, minCapacity));
+        return true;
+    }
+
+    /**
+     * Renders top first, matching the format the Deque-based stack used
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = size - 1; i >= 0; i--) {
+            sb.append(elements[i]);
+            if (i > 0) sb.append(", ");
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,110 @@
+package PlanetVM;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RuntimeMemory} mapped from a file, so stores land in the page cache
+ * at memory speed and survive a server restart. Re-opening the same file
+ * re-attaches to the stored cells without replaying anything. How often
+ * dirty pages are forced to disk is set by the {@link SyncPolicy}.
+ */
+public final class MappedMemory implements RuntimeMemory, Closeable {
+    public enum SyncPolicy {
+        /** Leave writeback to the OS; a crash of the process is safe, a crash of the machine may lose writes */
+        NONE,
+        /** Force the mapping to disk on a fixed interval */
+        PERIODIC,
+        /** Force the written page after every store */
+        ALWAYS
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer cells;
+    private final int size;
+    private final SyncPolicy syncPolicy;
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Map {@code size} cells of {@code file}, creating or growing it as needed.
+     * Cells beyond the previous file length read as zero.
+     */
+    public MappedMemory(Path file, int size, SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
+        if (size < 0 || size > OffHeapMemory.MAX_SIZE) {
+            throw new IllegalArgumentException("mapped memory size must be 0.." + OffHeapMemory.MAX_SIZE);
+        }
+        this.file = file;
+        this.size = size;
+        this.syncPolicy = Objects.requireNonNull(syncPolicy);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Fixed byte order so the file stays readable if the server moves hosts
+        this.cells = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) size * Long.BYTES);
+        this.cells.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (syncPolicy == SyncPolicy.PERIODIC) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "planetvm-memory-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long load(int address) {
+        return cells.getLong(Objects.checkIndex(address, size) * Long.BYTES);
+    }
+
+    @Override
+    public void store(int address, long value) {
+        int offset = Objects.checkIndex(address, size) * Long.BYTES;
+        cells.putLong(offset, value);
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            cells.force(offset, Long.BYTES);
+        }
+    }
+
+    /**
+     * Force every dirty page of the mapping to disk
+     */
+    public void sync() {
+        cells.force();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Stop periodic syncing, force outstanding writes and close the file.
+     * The mapping itself stays valid until it is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) syncer.shutdownNow();
+        sync();
+        channel.close();
+    }
+}
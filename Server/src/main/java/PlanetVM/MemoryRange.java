@@ -0,0 +1,59 @@
+package PlanetVM;
+
+/**
+ * A window of a runtime's memory, copied at one version, or the error that
+ * kept it from being read
+ */
+public final class MemoryRange {
+    /** Cells shown when memory is previewed, as in the text protocol's memory view */
+    public static final int PREVIEW = 10;
+
+    /** "ERROR: ...", null if the range was read */
+    public final String error;
+    /** Address of values[0] */
+    public final int start;
+    public final long[] values;
+    /** Total number of cells in the runtime's memory */
+    public final int memorySize;
+    public final long version;
+
+    public MemoryRange(int start, long[] values, int memorySize, long version) {
+        this.error = null;
+        this.start = start;
+        this.values = values;
+        this.memorySize = memorySize;
+        this.version = version;
+    }
+
+    private MemoryRange(String error) {
+        this.error = error;
+        this.start = 0;
+        this.values = new long[0];
+        this.memorySize = 0;
+        this.version = -1;
+    }
+
+    static MemoryRange failed(String error) {
+        return new MemoryRange(error);
+    }
+
+    public boolean isOk() {
+        return error == null;
+    }
+
+    /**
+     * The text protocol's memory view: the values, then "..." if memory goes
+     * on past them
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(values[i]);
+        }
+        if (start + values.length < memorySize) sb.append(", ...");
+        return sb.append(']').toString();
+    }
+}
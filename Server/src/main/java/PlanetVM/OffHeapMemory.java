@@ -0,0 +1,41 @@
+package PlanetVM;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * {@link RuntimeMemory} outside the Java heap, in a direct buffer of native
+ * byte order. The buffer is freed when the memory becomes unreachable; the
+ * JVM caps the total with -XX:MaxDirectMemorySize.
+ */
+public final class OffHeapMemory implements RuntimeMemory {
+    /** A direct buffer is int-indexed by byte, which bounds the cell count */
+    public static final int MAX_SIZE = Integer.MAX_VALUE / Long.BYTES;
+
+    private final ByteBuffer cells;
+    private final int size;
+
+    public OffHeapMemory(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("off-heap memory size must be 0.." + MAX_SIZE);
+        }
+        this.size = size;
+        this.cells = ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long load(int address) {
+        return cells.getLong(Objects.checkIndex(address, size) * Long.BYTES);
+    }
+
+    @Override
+    public void store(int address, long value) {
+        cells.putLong(Objects.checkIndex(address, size) * Long.BYTES, value);
+    }
+}
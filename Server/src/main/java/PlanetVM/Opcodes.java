@@ -0,0 +1,86 @@
+package PlanetVM;
+
+/**
+ * Opcode numbers for compiled PlanetLang programs
+ */
+public final class Opcodes {
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int DUP = 2;
+    public static final int SWAP = 3;
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int LOAD = 8;
+    public static final int STORE = 9;
+    public static final int PRINT = 10;
+    public static final int CLEAR = 11;
+
+    // Superinstructions produced by the Optimizer
+    public static final int ADD_CONST = 12;       // push N; add
+    public static final int SUB_CONST = 13;       // push N; sub
+    public static final int MUL_CONST = 14;       // push N; mul
+    public static final int SQUARE = 15;          // dup; mul
+    public static final int LOAD_ADD_STORE = 16;  // load A; load B; add; store C
+
+    /** Bits per address in a packed LOAD_ADD_STORE operand */
+    static final int ADDRESS_BITS = 21;
+    static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+
+    private static final String[] NAMES = {
+        "push", "pop", "dup", "swap", "add", "sub", "mul", "div",
+        "load", "store", "print", "clear",
+        "add_const", "sub_const", "mul_const", "square", "load_add_store"
+    };
+
+    private Opcodes() {
+    }
+
+    /**
+     * Mnemonic for an opcode, used when disassembling programs
+     */
+    public static String name(int opcode) {
+        if (opcode >= 0 && opcode < NAMES.length) {
+            return NAMES[opcode];
+        }
+        return "op" + opcode;
+    }
+
+    /**
+     * True when the opcode reads its operand slot
+     */
+    public static boolean hasOperand(int opcode) {
+        return opcode == PUSH || opcode == LOAD || opcode == STORE
+                || opcode == ADD_CONST || opcode == SUB_CONST || opcode == MUL_CONST
+                || opcode == LOAD_ADD_STORE;
+    }
+
+    /**
+     * True when the opcode can stop a program by overflowing the stack
+     */
+    public static boolean canOverflow(int opcode) {
+        switch (opcode) {
+            case PUSH: case DUP: case LOAD:
+            case ADD_CONST: case SUB_CONST: case MUL_CONST: case SQUARE: case LOAD_ADD_STORE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * True when all three addresses fit a packed LOAD_ADD_STORE operand
+     */
+    static boolean canPackAddresses(long a, long b, long c) {
+        return (a & ~ADDRESS_MASK) == 0 && (b & ~ADDRESS_MASK) == 0 && (c & ~ADDRESS_MASK) == 0;
+    }
+
+    static long packAddresses(long a, long b, long c) {
+        return (a << (2 * ADDRESS_BITS)) | (b << ADDRESS_BITS) | c;
+    }
+
+    static int unpackAddress(long packed, int index) {
+        return (int) ((packed >>> ((2 - index) * ADDRESS_BITS)) & ADDRESS_MASK);
+    }
+}
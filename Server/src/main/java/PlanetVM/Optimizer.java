@@ -0,0 +1,105 @@
+package PlanetVM;
+
+/**
+ * Peephole pass run between parsing and execution. Instructions are appended
+ * to an output buffer one at a time and the tail of the buffer is rewritten
+ * whenever it matches a pattern:
+ * <ul>
+ * <li>{@code swap; swap}, {@code dup; pop} and {@code push N; pop} are removed</li>
+ * <li>{@code push A; push B; add|sub|mul|div} folds to a single push</li>
+ * <li>{@code push N; add|sub|mul} becomes add_const/sub_const/mul_const N</li>
+ * <li>{@code dup; mul} becomes square</li>
+ * <li>{@code load A; load B; add; store C} becomes load_add_store A B C</li>
+ * </ul>
+ * Rewrites never produce a tail that ends another pattern, so one pass
+ * reaches the fixpoint. Superinstructions reproduce the unfused sequence
+ * exactly, including stack overflow. Removed and folded pushes can't
+ * overflow, so a program sitting exactly at its stack bound may get
+ * further than the unoptimized one would.
+ */
+public final class Optimizer {
+
+    private Optimizer() {
+    }
+
+    public static Program optimize(Program program) {
+        int n = program.length;
+        int[] ops = new int[n];
+        long[] args = new long[n];
+        int size = 0;
+
+        for (int pc = 0; pc < n; pc++) {
+            ops[size] = program.opcodes[pc];
+            args[size] = program.operands[pc];
+            size++;
+            size = reduceTail(ops, args, size);
+        }
+
+        if (size == n) return program;
+        return new Program(ops, args, size, program.sourceLength(), program.getErrorLine(), program.getError());
+    }
+
+    private static int reduceTail(int[] ops, long[] args, int size) {
+        int last = ops[size - 1];
+
+        if (size >= 2) {
+            int prev = ops[size - 2];
+            if ((prev == Opcodes.SWAP && last == Opcodes.SWAP)
+                    || (prev == Opcodes.DUP && last == Opcodes.POP)
+                    || (prev == Opcodes.PUSH && last == Opcodes.POP)) {
+                return size - 2;
+            }
+        }
+
+        if (size >= 3 && ops[size - 3] == Opcodes.PUSH && ops[size - 2] == Opcodes.PUSH) {
+            long a = args[size - 3];
+            long b = args[size - 2];
+            boolean folded = true;
+            long result = 0;
+            switch (last) {
+                case Opcodes.ADD: result = a + b; break;
+                case Opcodes.SUB: result = a - b; break;
+                case Opcodes.MUL: result = a * b; break;
+                case Opcodes.DIV:
+                    folded = b != 0;
+                    if (folded) result = a / b;
+                    break;
+                default: folded = false;
+            }
+            if (folded) {
+                ops[size - 3] = Opcodes.PUSH;
+                args[size - 3] = result;
+                return size - 2;
+            }
+        }
+
+        if (size >= 2 && ops[size - 2] == Opcodes.PUSH) {
+            int fused = -1;
+            switch (last) {
+                case Opcodes.ADD: fused = Opcodes.ADD_CONST; break;
+                case Opcodes.SUB: fused = Opcodes.SUB_CONST; break;
+                case Opcodes.MUL: fused = Opcodes.MUL_CONST; break;
+                default: break;
+            }
+            if (fused >= 0) {
+                ops[size - 2] = fused;
+                return size - 1;
+            }
+        }
+
+        if (size >= 2 && ops[size - 2] == Opcodes.DUP && last == Opcodes.MUL) {
+            ops[size - 2] = Opcodes.SQUARE;
+            return size - 1;
+        }
+
+        if (size >= 4 && last == Opcodes.STORE && ops[size - 2] == Opcodes.ADD
+                && ops[size - 3] == Opcodes.LOAD && ops[size - 4] == Opcodes.LOAD
+                && Opcodes.canPackAddresses(args[size - 4], args[size - 3], args[size - 1])) {
+            args[size - 4] = Opcodes.packAddresses(args[size - 4], args[size - 3], args[size - 1]);
+            ops[size - 4] = Opcodes.LOAD_ADD_STORE;
+            return size - 3;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,128 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Sparse {@link RuntimeMemory} split into fixed-size pages. A page is
+ * allocated by the first non-zero store into it, reads of untouched pages
+ * return zero, and a page whose cells all go back to zero is released. Pages
+ * hang off a two-level directory whose blocks are also allocated on demand,
+ * so the cost of a runtime follows what it uses rather than its address space.
+ * The last page and the last block are cut to the memory's size, so a memory
+ * smaller than a page costs one array of its own size once written.
+ */
+public final class PagedMemory implements RuntimeMemory {
+    public static final int PAGE_SHIFT = 9;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_PAGES = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_PAGES - 1;
+
+    private final int size;
+    private final int pages;
+    private long[][][] blocks = new long[0][][];
+    /** Non-zero cells per page; a page is released when its count drops to zero */
+    private int[][] liveCells = new int[0][];
+    /** Allocated pages per block; a block is released with its last page */
+    private int[] blockPages = new int[0];
+    private int allocatedPages;
+    private long allocatedCells;
+    private long directorySlots;
+
+    public PagedMemory(int size) {
+        if (size < 0) throw new IllegalArgumentException("memory size must not be negative");
+        this.size = size;
+        this.pages = (int) (((long) size + PAGE_MASK) >>> PAGE_SHIFT);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long load(int address) {
+        Objects.checkIndex(address, size);
+        int pageIndex = address >>> PAGE_SHIFT;
+        int blockIndex = pageIndex >>> BLOCK_SHIFT;
+        if (blockIndex >= blocks.length) return 0;
+        long[][] block = blocks[blockIndex];
+        if (block == null) return 0;
+        long[] page = block[pageIndex & BLOCK_MASK];
+        return page == null ? 0 : page[address & PAGE_MASK];
+    }
+
+    @Override
+    public void store(int address, long value) {
+        Objects.checkIndex(address, size);
+        int pageIndex = address >>> PAGE_SHIFT;
+        int blockIndex = pageIndex >>> BLOCK_SHIFT;
+        int slot = pageIndex & BLOCK_MASK;
+        long[][] block = blockIndex < blocks.length ? blocks[blockIndex] : null;
+        long[] page = block != null ? block[slot] : null;
+        if (page == null) {
+            if (value == 0) return;
+            page = allocatePage(blockIndex, slot);
+        }
+
+        int offset = address & PAGE_MASK;
+        long old = page[offset];
+        page[offset] = value;
+        if (old == 0 && value != 0) {
+            liveCells[blockIndex][slot]++;
+        } else if (old != 0 && value == 0 && --liveCells[blockIndex][slot] == 0) {
+            releasePage(blockIndex, slot);
+        }
+    }
+
+    private long[] allocatePage(int blockIndex, int slot) {
+        if (blockIndex >= blocks.length) {
+            int maxBlocks = (pages + BLOCK_MASK) >>> BLOCK_SHIFT;
+            int length = java.lang.Math.min(maxBlocks, java.lang.Math.max(blockIndex + 1, blocks.length * 2));
+            directorySlots += length - blocks.length;
+            blocks = Arrays.copyOf(blocks, length);
+            liveCells = Arrays.copyOf(liveCells, length);
+            blockPages = Arrays.copyOf(blockPages, length);
+        }
+        if (blocks[blockIndex] == null) {
+            int blockLength = java.lang.Math.min(BLOCK_PAGES, pages - (blockIndex << BLOCK_SHIFT));
+            blocks[blockIndex] = new long[blockLength][];
+            liveCells[blockIndex] = new int[blockLength];
+            directorySlots += blockLength;
+        }
+        int pageIndex = (blockIndex << BLOCK_SHIFT) | slot;
+        long[] page = new long[java.lang.Math.min(PAGE_SIZE, size - (pageIndex << PAGE_SHIFT))];
+        blocks[blockIndex][slot] = page;
+        blockPages[blockIndex]++;
+        allocatedPages++;
+        allocatedCells += page.length;
+        return page;
+    }
+
+    private void releasePage(int blockIndex, int slot) {
+        allocatedCells -= blocks[blockIndex][slot].length;
+        blocks[blockIndex][slot] = null;
+        allocatedPages--;
+        if (--blockPages[blockIndex] == 0) {
+            directorySlots -= blocks[blockIndex].length;
+            blocks[blockIndex] = null;
+            liveCells[blockIndex] = null;
+        }
+    }
+
+    /**
+     * Pages currently holding at least one non-zero cell
+     */
+    public int getAllocatedPages() {
+        return allocatedPages;
+    }
+
+    /**
+     * Approximate heap bytes held by pages and the directory
+     */
+    public long getAllocatedBytes() {
+        return allocatedCells * Long.BYTES + directorySlots * (Long.BYTES + Integer.BYTES);
+    }
+}
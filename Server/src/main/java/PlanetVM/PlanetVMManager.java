@@ -1,102 +1,574 @@
 package PlanetVM;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the global PlanetVM state and user sessions
  */
 public class PlanetVMManager {
-    private static PlanetVMManager instance;
+    /** Run instructions through the old per-line parser instead of compiling them (debugging only) */
+    private static final boolean LINE_INTERPRETER = Boolean.getBoolean("planetlang.vm.lineInterpreter");
+    private static final int GLOBAL_MAX_STACK = Integer.getInteger("planetlang.vm.globalMaxStack", 1 << 20);
+    private static final int USER_MAX_STACK = Integer.getInteger("planetlang.vm.userMaxStack", 1 << 16);
+    private static final int GLOBAL_MEMORY_SIZE = Integer.getInteger("planetlang.vm.globalMemory", 1024);
+    private static final int USER_MEMORY_SIZE = Integer.getInteger("planetlang.vm.userMemory", 256);
+    /** File to map global memory from so it survives restarts; unset keeps it in memory only */
+    private static final String GLOBAL_MEMORY_FILE = System.getProperty("planetlang.vm.globalMemoryFile");
+    private static final String GLOBAL_MEMORY_SYNC = System.getProperty("planetlang.vm.globalMemorySync", "periodic");
+    private static final int GLOBAL_MEMORY_SYNC_MILLIS = Integer.getInteger("planetlang.vm.globalMemorySyncMillis", 1000);
+    private static final long SESSION_TTL_MILLIS = Long.getLong("planetlang.vm.sessionTtlMillis", 30 * 60 * 1000L);
+    /** How long a user's runtime outlives their last session, so a reconnect finds it intact */
+    private static final long RECONNECT_GRACE_MILLIS = Long.getLong("planetlang.vm.reconnectGraceMillis", 60 * 1000L);
+    private static final long REAPER_TICK_MILLIS = Long.getLong("planetlang.vm.reaperTickMillis", 1000L);
+    private static final int CHAT_CAPACITY = Integer.getInteger("planetlang.vm.chatCapacity", 100);
+    private static final int PROGRAM_CACHE_SIZE = Integer.getInteger("planetlang.vm.programCacheSize", 1024);
+    /** Approximate bytes of source and code the program cache may hold */
+    private static final long PROGRAM_CACHE_BYTES = Long.getLong("planetlang.vm.programCacheBytes", 16L << 20);
+    /** Longest source the program cache keeps; longer ones are compiled each time */
+    private static final int PROGRAM_CACHE_MAX_SOURCE = Integer.getInteger("planetlang.vm.programCacheMaxSource", 64 << 10);
+    /** Most cells one ranged memory read returns; longer requests are cut short */
+    public static final int MAX_MEMORY_RANGE = Integer.getInteger("planetlang.vm.maxMemoryRange", 4096);
+    /** Most global memory watches one watcher may hold */
+    private static final int MAX_WATCHES = Integer.getInteger("planetlang.vm.maxWatches", 32);
+    /** Global instructions a session may run per second once its burst is spent; 0 turns the limit off */
+    private static final double GLOBAL_RATE_PER_SESSION = Double.parseDouble(System.getProperty("planetlang.vm.globalRatePerSession", "5000"));
+    private static final long GLOBAL_BURST_PER_SESSION = Long.getLong("planetlang.vm.globalBurstPerSession", 20_000L);
+    /**
+     * The same across all of a user's sessions (users are keyed by address), so
+     * reconnecting doesn't buy a fresh burst; twice the session rate by default
+     */
+    private static final double GLOBAL_RATE_PER_USER = Double.parseDouble(System.getProperty("planetlang.vm.globalRatePerUser", "10000"));
+    private static final long GLOBAL_BURST_PER_USER = Long.getLong("planetlang.vm.globalBurstPerUser", 40_000L);
+
     private Runtime globalRuntime;
+    /** Applies every access to globalRuntime on its own thread */
+    private final RuntimeExecutor globalExecutor;
     private Map<String, Runtime> userRuntimes;
-    private Map<String, String> userSessions;
-    private List<String> chatMessages;
+    private Map<String, Session> userSessions;
+    /** Live sessions per user; a user's runtime is released some time after this reaches zero */
+    private final Map<String, Integer> userSessionCounts = new ConcurrentHashMap<>();
+    private final TimerWheel sessionTimers = new TimerWheel(REAPER_TICK_MILLIS, 512, System.currentTimeMillis());
+    private final AtomicLong sessionsCreated = new AtomicLong();
+    private final AtomicLong sessionsClosed = new AtomicLong();
+    private final AtomicLong sessionsExpired = new AtomicLong();
+    private final AtomicLong runtimesReleased = new AtomicLong();
+    private final Map<String, TokenBucket> userBudgets = new ConcurrentHashMap<>();
+    private final AtomicLong throttledBySession = new AtomicLong();
+    private final AtomicLong throttledByUser = new AtomicLong();
+    private final ChatLog chatLog = new ChatLog(CHAT_CAPACITY);
+    private final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private final ProgramCache programCache = new ProgramCache(PROGRAM_CACHE_SIZE, PROGRAM_CACHE_BYTES, PROGRAM_CACHE_MAX_SOURCE);
+    private final WatchIndex globalWatches = new WatchIndex();
 
     private PlanetVMManager() {
-        globalRuntime = new Runtime(1024); // 1KB global memory
+        globalRuntime = new Runtime(createGlobalMemory(), GLOBAL_MAX_STACK);
+        globalRuntime.watches = globalWatches;
+        globalExecutor = new RuntimeExecutor(globalRuntime, "planetvm-global");
         userRuntimes = new ConcurrentHashMap<>();
         userSessions = new ConcurrentHashMap<>();
-        chatMessages = Collections.synchronizedList(new ArrayList<>());
+
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "planetvm-session-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(() -> sessionTimers.advance(System.currentTimeMillis()),
+                REAPER_TICK_MILLIS, REAPER_TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    public static synchronized PlanetVMManager getInstance() {
-        if (instance == null) {
-            instance = new PlanetVMManager();
+    private static RuntimeMemory createGlobalMemory() {
+        if (GLOBAL_MEMORY_FILE == null) {
+            return RuntimeMemory.allocate(GLOBAL_MEMORY_SIZE);
         }
-        return instance;
+        try {
+            MappedMemory memory = new MappedMemory(Paths.get(GLOBAL_MEMORY_FILE), GLOBAL_MEMORY_SIZE,
+                    MappedMemory.SyncPolicy.valueOf(GLOBAL_MEMORY_SYNC.toUpperCase()), GLOBAL_MEMORY_SYNC_MILLIS);
+            java.lang.Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    memory.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to sync global memory: " + e.getMessage());
+                }
+            }, "planetvm-memory-close"));
+            System.out.println("Global memory mapped from " + GLOBAL_MEMORY_FILE + " (sync " + memory.getSyncPolicy() + ")");
+            return memory;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not map global memory from " + GLOBAL_MEMORY_FILE + ", keeping it in memory: " + e.getMessage());
+            return RuntimeMemory.allocate(GLOBAL_MEMORY_SIZE);
+        }
+    }
+
+    /** Created on first use; the class initialization lock makes it safe without a monitor per call */
+    private static final class Holder {
+        static final PlanetVMManager INSTANCE = new PlanetVMManager();
+    }
+
+    public static PlanetVMManager getInstance() {
+        return Holder.INSTANCE;
     }
 
     /**
      * Create or get a user session
      */
     public String createUserSession(String userId) {
-        if (!userRuntimes.containsKey(userId)) {
-            userRuntimes.put(userId, new Runtime(256)); // 256 bytes per user
+        // Count the session before looking up the runtime, so a release racing
+        // with this sees the user as active and leaves the runtime alone
+        userSessionCounts.merge(userId, 1, Integer::sum);
+        // Paged, so a user only pays for the cells they actually write
+        userRuntimes.computeIfAbsent(userId, id -> {
+            Runtime runtime = new Runtime(new PagedMemory(USER_MEMORY_SIZE), USER_MAX_STACK);
+            runtime.owner = id;
+            return runtime;
+        });
+
+        Session session = new Session(UUID.randomUUID().toString(), userId);
+        userSessions.put(session.id, session);
+        sessionsCreated.incrementAndGet();
+        sessionTimers.schedule(session, session.lastActivity + SESSION_TTL_MILLIS);
+        return session.id;
+    }
+
+    /**
+     * End a session when its client disconnects. The user's runtime is kept
+     * for the reconnect grace period in case they come back.
+     */
+    public void removeUserSession(String sessionId) {
+        if (endSession(sessionId)) {
+            sessionsClosed.incrementAndGet();
+        }
+    }
+
+    private boolean endSession(String sessionId) {
+        Session session = userSessions.remove(sessionId);
+        if (session == null) return false;
+
+        Integer remaining = userSessionCounts.computeIfPresent(session.userId, (id, count) -> count - 1);
+        if (remaining != null && remaining <= 0) {
+            String userId = session.userId;
+            sessionTimers.schedule(now -> {
+                releaseIfUnused(userId);
+                return 0;
+            }, System.currentTimeMillis() + RECONNECT_GRACE_MILLIS);
+        }
+        return true;
+    }
+
+    private void releaseIfUnused(String userId) {
+        userSessionCounts.compute(userId, (id, count) -> {
+            if (count != null && count > 0) return count;
+            if (userRuntimes.remove(id) != null) runtimesReleased.incrementAndGet();
+            userBudgets.remove(id);
+            return null;
+        });
+    }
+
+    /**
+     * Record activity on a session without doing anything else, e.g. for
+     * every line or frame its connection receives, so a client that only
+     * pings or reads global state isn't expired while connected.
+     * Returns false for an unknown session.
+     */
+    public boolean touchSession(String sessionId) {
+        return sessionId != null && touch(sessionId) != null;
+    }
+
+    /**
+     * Resolve a session to its user and record the activity
+     */
+    private String touch(String sessionId) {
+        Session session = userSessions.get(sessionId);
+        if (session == null) return null;
+        session.lastActivity = System.currentTimeMillis();
+        return session.userId;
+    }
+
+    /**
+     * Charge {@code cost} instructions against the session's and the user's
+     * global budgets before anything is queued for the global runtime.
+     * Returns null if admitted, otherwise the rejection to send back.
+     */
+    private String admitGlobal(String sessionId, String userId, int cost) {
+        Session session = userSessions.get(sessionId);
+        TokenBucket sessionBudget = session == null ? null : session.globalBudget;
+        TokenBucket userBudget = GLOBAL_RATE_PER_USER > 0
+                ? userBudgets.computeIfAbsent(userId, id -> new TokenBucket(GLOBAL_RATE_PER_USER, GLOBAL_BURST_PER_USER))
+                : null;
+        if ((sessionBudget != null && cost > GLOBAL_BURST_PER_SESSION) || (userBudget != null && cost > GLOBAL_BURST_PER_USER)) {
+            return "ERROR: Program too long for the global runtime (" + cost + " instructions)";
+        }
+
+        long now = System.nanoTime();
+        if (sessionBudget != null) {
+            long wait = sessionBudget.tryAcquire(cost, now);
+            if (wait > 0) {
+                throttledBySession.incrementAndGet();
+                return throttled(wait);
+            }
+        }
+        if (userBudget != null) {
+            long wait = userBudget.tryAcquire(cost, now);
+            if (wait > 0) {
+                if (sessionBudget != null) sessionBudget.refund(cost);
+                throttledByUser.incrementAndGet();
+                return throttled(wait);
+            }
+        }
+        return null;
+    }
+
+    private static String throttled(long waitNanos) {
+        return "THROTTLED: retry in " + java.lang.Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)) + "ms";
+    }
+
+    /**
+     * A client session. Activity only updates a timestamp; the timer entry
+     * checks it when it comes due and pushes its own deadline back.
+     */
+    private final class Session implements TimerWheel.Timeout {
+        final String id;
+        final String userId;
+        /** Null when sessions aren't rate limited */
+        final TokenBucket globalBudget = GLOBAL_RATE_PER_SESSION > 0
+                ? new TokenBucket(GLOBAL_RATE_PER_SESSION, GLOBAL_BURST_PER_SESSION) : null;
+        volatile long lastActivity = System.currentTimeMillis();
+
+        Session(String id, String userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        @Override
+        public long expire(long now) {
+            if (userSessions.get(id) != this) return 0;
+            long deadline = lastActivity + SESSION_TTL_MILLIS;
+            if (deadline > now) return deadline;
+            if (endSession(id)) sessionsExpired.incrementAndGet();
+            return 0;
         }
-        String sessionId = UUID.randomUUID().toString();
-        userSessions.put(sessionId, userId);
-        return sessionId;
     }
 
     /**
      * Execute instruction in user's local runtime
      */
     public String executeLocalInstruction(String sessionId, String instruction) {
-        String userId = userSessions.get(sessionId);
-        if (userId == null) return "ERROR: Invalid session";
+        return executeLocal(sessionId, instruction, false).toString();
+    }
+
+    /**
+     * Execute instruction in global runtime
+     */
+    public String executeGlobalInstruction(String sessionId, String instruction) {
+        return executeGlobal(sessionId, instruction, false).toString();
+    }
+
+    /**
+     * Compile a whole program once and run it in the user's local runtime.
+     * Nothing runs if any line fails to compile.
+     */
+    public String executeLocalProgram(String sessionId, String source) {
+        return executeLocal(sessionId, source, true).toString();
+    }
+
+    /**
+     * Compile a whole program once and run it in the global runtime.
+     * Nothing runs if any line fails to compile.
+     */
+    public String executeGlobalProgram(String sessionId, String source) {
+        return executeGlobal(sessionId, source, true).toString();
+    }
+
+    /**
+     * Run an instruction, or with {@code program} set a whole program, in the
+     * user's local runtime
+     */
+    public ExecutionResult executeLocal(String sessionId, String source, boolean program) {
+        String userId = touch(sessionId);
+        if (userId == null) return ExecutionResult.failed("ERROR: Invalid session");
 
         Runtime userRuntime = userRuntimes.get(userId);
-        if (userRuntime == null) return "ERROR: User runtime not found";
+        if (userRuntime == null) return ExecutionResult.failed("ERROR: User runtime not found");
 
-        userRuntime.ExecuteInstruction(instruction);
-        return "OK";
+        Program compiled = program ? programCache.get(source) : null;
+        if (compiled != null && compiled.hasError()) return compileError(compiled);
+
+        ExecutionResult result;
+        userRuntime.lock.lock();
+        try {
+            result = published(userRuntime, compiled != null ? execute(userRuntime, compiled) : run(userRuntime, source));
+        } finally {
+            userRuntime.lock.unlock();
+        }
+        notifyChanged(userRuntime, true, changesMemory(result));
+        return result;
     }
 
     /**
-     * Execute instruction in global runtime
+     * Run an instruction, or with {@code program} set a whole program, in the
+     * global runtime
      */
-    public String executeGlobalInstruction(String sessionId, String instruction) {
-        String userId = userSessions.get(sessionId);
-        if (userId == null) return "ERROR: Invalid session";
+    public ExecutionResult executeGlobal(String sessionId, String source, boolean program) {
+        String userId = touch(sessionId);
+        if (userId == null) return ExecutionResult.failed("ERROR: Invalid session");
 
-        globalRuntime.ExecuteInstruction(instruction);
-        return "OK";
+        ExecutionResult result;
+        if (LINE_INTERPRETER && !program) {
+            String rejected = admitGlobal(sessionId, userId, globalCost(source));
+            if (rejected != null) return ExecutionResult.failed(rejected);
+            result = globalExecutor.call(runtime -> published(runtime, run(runtime, source)), true);
+        } else {
+            // Compile on the caller's thread; only execution is serialized
+            Program compiled = programCache.get(source);
+            if (program && compiled.hasError()) return compileError(compiled);
+            String rejected = admitGlobal(sessionId, userId, globalCost(source));
+            if (rejected != null) return ExecutionResult.failed(rejected);
+            result = globalExecutor.call(runtime -> published(runtime, execute(runtime, compiled)), true);
+        }
+        notifyChanged(globalRuntime, true, changesMemory(result));
+        return result;
+    }
+
+    /**
+     * Global budget charged for a source: one token per non-blank line, at
+     * least one, so the cost is the same whichever way the source is run
+     */
+    static int globalCost(CharSequence source) {
+        int lines = 0;
+        boolean blank = true;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                if (!blank) lines++;
+                blank = true;
+            } else if (!Character.isWhitespace(c)) {
+                blank = false;
+            }
+        }
+        if (!blank) lines++;
+        return java.lang.Math.max(1, lines);
+    }
+
+    /**
+     * Whether an execution may have written memory. A failed one carries no
+     * change list, so it counts as a change.
+     */
+    private static boolean changesMemory(ExecutionResult result) {
+        return !result.isOk() || result.changesMemory();
+    }
+
+    /**
+     * Publish what an execution changed for pushes; call with the runtime
+     * locked or on its executor
+     */
+    private ExecutionResult published(Runtime runtime, ExecutionResult result) {
+        publishState(runtime, true, changesMemory(result));
+        return result;
+    }
+
+    private static ExecutionResult compileError(Program program) {
+        return ExecutionResult.failed("ERROR: line " + program.getErrorLine() + ": " + program.getError());
+    }
+
+    private static ExecutionResult execute(Runtime runtime, Program program) {
+        return runtime.execute(program) ? runtime.captureChanges() : ExecutionResult.failed("ERROR: Stack overflow");
+    }
+
+    private ExecutionResult run(Runtime runtime, String source) {
+        if (LINE_INTERPRETER) {
+            runtime.ExecuteInstruction(source);
+            return runtime.captureChanges();
+        }
+        return execute(runtime, programCache.get(source));
     }
 
     /**
      * Share value from user's stack to global stack
      */
     public String shareToGlobal(String sessionId) {
-        String userId = userSessions.get(sessionId);
+        String userId = touch(sessionId);
         if (userId == null) return "ERROR: Invalid session";
 
         Runtime userRuntime = userRuntimes.get(userId);
         if (userRuntime == null || userRuntime.stack.isEmpty()) {
             return "ERROR: No value to share";
         }
+        String rejected = admitGlobal(sessionId, userId, 1);
+        if (rejected != null) return rejected;
 
-        long value = userRuntime.stack.pop();
-        globalRuntime.stack.push(value);
-        return "OK";
+        String result = transferGlobal(userRuntime, globalRuntime, 1, "ERROR: No value to share", "ERROR: Global stack full");
+        if (result.equals("OK")) notifyTransfer(userRuntime, globalRuntime);
+        return result;
     }
 
     /**
      * Take value from global stack to user's stack
      */
     public String takeFromGlobal(String sessionId) {
-        String userId = userSessions.get(sessionId);
+        String userId = touch(sessionId);
         if (userId == null) return "ERROR: Invalid session";
 
-        if (globalRuntime.stack.isEmpty()) {
-            return "ERROR: Global stack empty";
-        }
-
         Runtime userRuntime = userRuntimes.get(userId);
         if (userRuntime == null) return "ERROR: User runtime not found";
+        String rejected = admitGlobal(sessionId, userId, 1);
+        if (rejected != null) return rejected;
+
+        String result = transferGlobal(globalRuntime, userRuntime, 1, "ERROR: Global stack empty", "ERROR: Stack full");
+        if (result.equals("OK")) notifyTransfer(globalRuntime, userRuntime);
+        return result;
+    }
+
+    /**
+     * Atomically move the top {@code count} values of one runtime's stack onto
+     * another's, as that many SHARE-style pop/push steps. All values move or
+     * none do. Transfers touching the global runtime are applied on its
+     * executor so its published views stay current (see {@link #transferGlobal}).
+     */
+    public String transfer(Runtime from, Runtime to, int count) {
+        if (count < 0) return "ERROR: Invalid count";
+        if (from == to) return "ERROR: Cannot transfer to the same runtime";
+        String result;
+        if (from == globalRuntime || to == globalRuntime) {
+            result = transferGlobal(from, to, count, "ERROR: Not enough values", "ERROR: Stack full");
+        } else {
+            result = transfer(from, to, count, "ERROR: Not enough values", "ERROR: Stack full");
+        }
+        if (result.equals("OK")) notifyTransfer(from, to);
+        return result;
+    }
+
+    /**
+     * Transfer between the global runtime and a user's on the global
+     * runtime's thread, which only tries the user's lock. While the user's
+     * runtime is busy the attempt is given up, and the caller waits for the
+     * lock on its own thread before queueing it again, so the global runtime
+     * never waits on a user.
+     */
+    private String transferGlobal(Runtime from, Runtime to, int count, String emptyError, String fullError) {
+        Runtime user = from == globalRuntime ? to : from;
+        while (true) {
+            String result = globalExecutor.call(global -> {
+                if (!user.lock.tryLock()) return null;
+                try {
+                    return move(from, to, count, emptyError, fullError);
+                } finally {
+                    user.lock.unlock();
+                }
+            }, true);
+            if (result != null) return result;
+            user.lock.lock();
+            user.lock.unlock();
+        }
+    }
+
+    private void notifyTransfer(Runtime from, Runtime to) {
+        notifyChanged(from, true, false);
+        notifyChanged(to, true, false);
+    }
+
+    /**
+     * Register to hear about state changes, e.g. to push them to subscribed clients
+     */
+    public void addStateListener(StateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeStateListener(StateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * Publish the runtime's state for the topics anyone listens to. Call with
+     * the runtime locked or on its executor, right after a change and before
+     * {@link #notifyChanged}, so a push never finds an older state than the
+     * change it was told about.
+     */
+    private void publishState(Runtime runtime, boolean stack, boolean memory) {
+        boolean global = runtime == globalRuntime;
+        runtime.publish(stack && isListening(global ? StateTopic.GLOBAL_STACK : StateTopic.USER_STACK, runtime.owner),
+                memory && isListening(global ? StateTopic.GLOBAL_MEMORY : StateTopic.USER_MEMORY, runtime.owner));
+    }
+
+    private boolean isListening(StateTopic topic, String userId) {
+        for (StateListener listener : stateListeners) {
+            if (listener.isListening(topic, userId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Publish the current state of {@code topics}, a {@link StateTopic}
+     * mask, for a session that just subscribed to them: runtimes only
+     * publish while someone listens, so what they last published may be
+     * missing or old. Waits for the runtimes like a read does.
+     */
+    public void publishForSubscriber(String sessionId, int topics) {
+        boolean globalStack = (topics & StateTopic.GLOBAL_STACK.bit()) != 0;
+        boolean globalMemory = (topics & StateTopic.GLOBAL_MEMORY.bit()) != 0;
+        if (globalStack || globalMemory) {
+            globalExecutor.call(runtime -> {
+                runtime.publish(globalStack, globalMemory);
+                return null;
+            }, false);
+        }
+
+        boolean userStack = (topics & StateTopic.USER_STACK.bit()) != 0;
+        boolean userMemory = (topics & StateTopic.USER_MEMORY.bit()) != 0;
+        Runtime userRuntime = peekUserRuntime(sessionId);
+        if ((userStack || userMemory) && userRuntime != null) {
+            userRuntime.lock.lock();
+            try {
+                userRuntime.publish(userStack, userMemory);
+            } finally {
+                userRuntime.lock.unlock();
+            }
+        }
+    }
+
+    private void notifyChanged(Runtime runtime, boolean stack, boolean memory) {
+        boolean global = runtime == globalRuntime;
+        for (StateListener listener : stateListeners) {
+            if (stack) listener.stateChanged(global ? StateTopic.GLOBAL_STACK : StateTopic.USER_STACK, runtime.owner);
+            if (memory) listener.stateChanged(global ? StateTopic.GLOBAL_MEMORY : StateTopic.USER_MEMORY, runtime.owner);
+        }
+    }
+
+    /**
+     * Locks both runtimes in id order, so any two transfers agree on the
+     * order and transfers between unrelated users never contend
+     */
+    private String transfer(Runtime from, Runtime to, int count, String emptyError, String fullError) {
+        Runtime first = from.id < to.id ? from : to;
+        Runtime second = first == from ? to : from;
+        first.lock.lock();
+        try {
+            second.lock.lock();
+            try {
+                return move(from, to, count, emptyError, fullError);
+            } finally {
+                second.lock.unlock();
+            }
+        } finally {
+            first.lock.unlock();
+        }
+    }
 
-        long value = globalRuntime.stack.pop();
-        userRuntime.stack.push(value);
+    /**
+     * The transfer itself; call with both runtimes locked
+     */
+    private String move(Runtime from, Runtime to, int count, String emptyError, String fullError) {
+        if (from.stack.size() < count) return emptyError;
+        if (!from.stack.transferTo(to.stack, count)) return fullError;
+        from.markModified();
+        to.markModified();
+        publishState(from, true, false);
+        publishState(to, true, false);
         return "OK";
     }
 
@@ -104,69 +576,298 @@ public class PlanetVMManager {
      * Get user's stack state
      */
     public String getUserStack(String sessionId) {
-        String userId = userSessions.get(sessionId);
+        String userId = touch(sessionId);
         if (userId == null) return "ERROR: Invalid session";
 
         Runtime userRuntime = userRuntimes.get(userId);
         if (userRuntime == null) return "ERROR: User runtime not found";
 
-        return userRuntime.getStackAsString();
+        userRuntime.lock.lock();
+        try {
+            return userRuntime.getStackAsString();
+        } finally {
+            userRuntime.lock.unlock();
+        }
+    }
+
+    /**
+     * User's stack values, top first, or null for an unknown session
+     */
+    public long[] getUserStackValues(String sessionId) {
+        Runtime userRuntime = getUserRuntime(sessionId);
+        if (userRuntime == null) return null;
+
+        userRuntime.lock.lock();
+        try {
+            return userRuntime.stack.toArrayTopFirst();
+        } finally {
+            userRuntime.lock.unlock();
+        }
+    }
+
+    /**
+     * Global stack values, top first
+     */
+    public long[] getGlobalStackValues() {
+        return globalExecutor.call(runtime -> runtime.stack.toArrayTopFirst(), false);
+    }
+
+    // Published state, read by pushes. These never wait for a runtime and
+    // don't count as session activity, so a subscriber that only receives
+    // pushes still expires when idle.
+
+    /**
+     * Stack of the session's user as last published, null for an unknown
+     * session or if it hasn't been published
+     */
+    public StackSnapshot getPublishedUserStack(String sessionId) {
+        Runtime userRuntime = peekUserRuntime(sessionId);
+        return userRuntime == null ? null : userRuntime.getPublishedStack();
+    }
+
+    /**
+     * Start of the session's user memory as last published, null for an
+     * unknown session or if it hasn't been published
+     */
+    public MemoryRange getPublishedUserMemory(String sessionId) {
+        Runtime userRuntime = peekUserRuntime(sessionId);
+        return userRuntime == null ? null : userRuntime.getPublishedMemory();
+    }
+
+    /**
+     * Global stack as last published, null if it hasn't been
+     */
+    public StackSnapshot getPublishedGlobalStack() {
+        return globalRuntime.getPublishedStack();
+    }
+
+    /**
+     * Start of global memory as last published, null if it hasn't been
+     */
+    public MemoryRange getPublishedGlobalMemory() {
+        return globalRuntime.getPublishedMemory();
+    }
+
+    /**
+     * The session's user runtime, without recording activity
+     */
+    private Runtime peekUserRuntime(String sessionId) {
+        Session session = sessionId == null ? null : userSessions.get(sessionId);
+        return session == null ? null : userRuntimes.get(session.userId);
+    }
+
+    /**
+     * Mutation version of the user's runtime, -1 for an unknown session
+     */
+    public long getUserVersion(String sessionId) {
+        Runtime userRuntime = getUserRuntime(sessionId);
+        return userRuntime == null ? -1 : userRuntime.getVersion();
+    }
+
+    /**
+     * Mutation version of the global runtime
+     */
+    public long getGlobalVersion() {
+        return globalRuntime.getVersion();
     }
 
     /**
      * Get global stack state
      */
     public String getGlobalStack() {
-        return globalRuntime.getStackAsString();
+        return globalExecutor.stackSnapshot();
     }
 
     /**
      * Get global memory state
      */
     public String getGlobalMemory() {
-        return globalRuntime.getMemoryAsString();
+        return globalExecutor.memorySnapshot();
     }
 
     /**
      * Get user memory state
      */
     public String getUserMemory(String sessionId) {
-        String userId = userSessions.get(sessionId);
+        String userId = touch(sessionId);
         if (userId == null) return "ERROR: Invalid session";
 
         Runtime userRuntime = userRuntimes.get(userId);
         if (userRuntime == null) return "ERROR: User runtime not found";
 
-        return userRuntime.getMemoryAsString();
+        userRuntime.lock.lock();
+        try {
+            return userRuntime.getMemoryAsString();
+        } finally {
+            userRuntime.lock.unlock();
+        }
+    }
+
+    /**
+     * Read a window of global memory. The range is cut to
+     * {@link #MAX_MEMORY_RANGE} cells and to the end of memory.
+     */
+    public MemoryRange getGlobalMemoryRange(int start, int count) {
+        checkRange(start, count);
+        return globalExecutor.call(runtime -> runtime.readMemory(start, java.lang.Math.min(count, MAX_MEMORY_RANGE)), false);
+    }
+
+    /**
+     * Read a window of the user's memory, limited like {@link #getGlobalMemoryRange}.
+     * An unknown session gives a failed range rather than an exception.
+     */
+    public MemoryRange getUserMemoryRange(String sessionId, int start, int count) {
+        checkRange(start, count);
+        String userId = touch(sessionId);
+        if (userId == null) return MemoryRange.failed("ERROR: Invalid session");
+
+        Runtime userRuntime = userRuntimes.get(userId);
+        if (userRuntime == null) return MemoryRange.failed("ERROR: User runtime not found");
+
+        userRuntime.lock.lock();
+        try {
+            return userRuntime.readMemory(start, java.lang.Math.min(count, MAX_MEMORY_RANGE));
+        } finally {
+            userRuntime.lock.unlock();
+        }
+    }
+
+    /**
+     * Watch {@code count} cells of global memory from {@code start}. After each
+     * execution that stores to them, the watcher gets the new values.
+     * @return the watch id, for {@link #unwatchGlobalMemory}
+     */
+    public int watchGlobalMemory(WatchIndex.Watcher watcher, int start, int count) {
+        if (start < 0 || count < 1 || count > MAX_MEMORY_RANGE || start > globalRuntime.memory.size() - count) {
+            throw new IllegalArgumentException("Invalid watch range " + start + "," + count);
+        }
+        if (globalWatches.count(watcher) >= MAX_WATCHES) {
+            throw new IllegalStateException("Too many watches (limit " + MAX_WATCHES + ")");
+        }
+        return globalWatches.add(watcher, start, start + count);
+    }
+
+    public boolean unwatchGlobalMemory(WatchIndex.Watcher watcher, int watchId) {
+        return globalWatches.remove(watcher, watchId);
+    }
+
+    /**
+     * Drop every watch held by a watcher, e.g. when its connection closes
+     */
+    public void unwatchAll(WatchIndex.Watcher watcher) {
+        globalWatches.removeAll(watcher);
+    }
+
+    private static void checkRange(int start, int count) {
+        if (start < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid memory range " + start + "," + count);
+        }
+    }
+
+    long getSessionsExpired() {
+        return sessionsExpired.get();
+    }
+
+    long getRuntimesReleased() {
+        return runtimesReleased.get();
+    }
+
+    boolean hasUserRuntime(String userId) {
+        return userRuntimes.containsKey(userId);
+    }
+
+    Runtime getGlobalRuntime() {
+        return globalRuntime;
+    }
+
+    Runtime getUserRuntime(String sessionId) {
+        String userId = touch(sessionId);
+        return userId == null ? null : userRuntimes.get(userId);
+    }
+
+    /**
+     * Compiled program cache, shared by all runtimes
+     */
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
+    /**
+     * Summary of VM counters for monitoring
+     */
+    public String getVmStats() {
+        int pages = 0;
+        long bytes = 0;
+        for (Runtime runtime : userRuntimes.values()) {
+            if (runtime.memory instanceof PagedMemory) {
+                PagedMemory memory = (PagedMemory) runtime.memory;
+                pages += memory.getAllocatedPages();
+                bytes += memory.getAllocatedBytes();
+            }
+        }
+        return "programCache{" + programCache + "} globalExecutor{" + globalExecutor + "} userMemory{runtimes=" + userRuntimes.size()
+                + " pages=" + pages + " bytes=" + bytes + "} sessions{active=" + userSessions.size()
+                + " created=" + sessionsCreated.get() + " closed=" + sessionsClosed.get() + " expired=" + sessionsExpired.get()
+                + " runtimesReleased=" + runtimesReleased.get() + " timers=" + sessionTimers.size() + "}"
+                + " throttle{session=" + throttledBySession.get() + " user=" + throttledByUser.get() + "}";
+    }
+
+    long getThrottledBySession() {
+        return throttledBySession.get();
+    }
+
+    long getThrottledByUser() {
+        return throttledByUser.get();
     }
 
     /**
      * Add a chat message
      */
     public String addChatMessage(String sessionId, String message) {
-        String userId = userSessions.get(sessionId);
-        if (userId == null) return "ERROR: Invalid session";
+        return postChatMessage(sessionId, message) == null ? "ERROR: Invalid session" : "OK";
+    }
+
+    /**
+     * Add a chat message and return it, or null for an unknown session
+     */
+    public ChatLog.Message postChatMessage(String sessionId, String text) {
+        String userId = touch(sessionId);
+        if (userId == null) return null;
 
-        String timestamp = new java.text.SimpleDateFormat("HH:mm:ss").format(new java.util.Date());
-        String formattedMessage = "[" + timestamp + "] " + userId + ": " + message;
-        chatMessages.add(formattedMessage);
-        
-        // Keep only last 100 messages
-        if (chatMessages.size() > 100) {
-            chatMessages.remove(0);
+        ChatLog.Message message = chatLog.add(userId, text);
+        for (StateListener listener : stateListeners) {
+            listener.stateChanged(StateTopic.CHAT, null);
         }
-        
-        return "OK";
+        return message;
     }
 
     /**
      * Get all chat messages
      */
     public String getChatMessages() {
+        return join(chatLog.since(0));
+    }
+
+    /**
+     * Chat messages newer than {@code sinceId}, as the id to poll with next,
+     * a colon, then the messages one per line
+     */
+    public String getChatMessagesSince(long sinceId) {
+        List<ChatLog.Message> messages = chatLog.since(sinceId);
+        long cursor = messages.isEmpty() ? java.lang.Math.max(sinceId, 0) : messages.get(messages.size() - 1).id;
+        return cursor + ":" + join(messages);
+    }
+
+    private static String join(List<ChatLog.Message> messages) {
         StringBuilder sb = new StringBuilder();
-        for (String message : chatMessages) {
-            sb.append(message).append("\n");
+        for (ChatLog.Message message : messages) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(message);
         }
-        return sb.toString().trim();
+        return sb.toString();
+    }
+
+    public ChatLog getChatLog() {
+        return chatLog;
     }
-}
\ No newline at end of file
+}
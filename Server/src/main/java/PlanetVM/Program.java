@@ -0,0 +1,107 @@
+package PlanetVM;
+
+/**
+ * A compiled PlanetLang program: one opcode and one operand slot per instruction.
+ * Programs are immutable once compiled, so the same instance can be executed
+ * by any number of runtimes.
+ */
+public final class Program {
+    final int[] opcodes;
+    final long[] operands;
+    final int length;
+    private final int sourceLength;
+    private final int errorLine;
+    private final String error;
+
+    // Tiering state. Only a cache of derived code: a racy execution count just
+    // moves the point where the program gets compiled.
+    int executions;
+    volatile CompiledCode compiled;
+
+    Program(int[] opcodes, long[] operands, int length, int errorLine, String error) {
+        this(opcodes, operands, length, length, errorLine, error);
+    }
+
+    Program(int[] opcodes, long[] operands, int length, int sourceLength, int errorLine, String error) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.length = length;
+        this.sourceLength = sourceLength;
+        this.errorLine = errorLine;
+        this.error = error;
+    }
+
+    /**
+     * Number of instructions in the program
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Number of instructions before optimization
+     */
+    public int sourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * Instruction dispatches the optimizer removed from every run of this program
+     */
+    public int getEliminatedDispatches() {
+        return sourceLength - length;
+    }
+
+    public int opcodeAt(int pc) {
+        return opcodes[pc];
+    }
+
+    public long operandAt(int pc) {
+        return operands[pc];
+    }
+
+    /**
+     * True if a source line was rejected while compiling
+     */
+    public boolean hasError() {
+        return error != null;
+    }
+
+    /**
+     * Message for the first rejected source line, or null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * 1-based source line of the first rejected line, or 0
+     */
+    public int getErrorLine() {
+        return errorLine;
+    }
+
+    /**
+     * True once the program runs as generated JVM bytecode
+     */
+    public boolean isJitCompiled() {
+        return compiled != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < length; pc++) {
+            if (pc > 0) sb.append('\n');
+            sb.append(Opcodes.name(opcodes[pc]));
+            if (opcodes[pc] == Opcodes.LOAD_ADD_STORE) {
+                for (int i = 0; i < 3; i++) {
+                    sb.append(' ').append(Opcodes.unpackAddress(operands[pc], i));
+                }
+            } else if (Opcodes.hasOperand(opcodes[pc])) {
+                sb.append(' ').append(operands[pc]);
+            }
+        }
+        return sb.toString();
+    }
+}
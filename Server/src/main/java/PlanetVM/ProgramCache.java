@@ -0,0 +1,185 @@
+package PlanetVM;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of compiled programs, keyed by source text (looked up by
+ * its String hash, confirmed by equality). A hit skips tokenizing and
+ * validation entirely.
+ * <p>
+ * Lookups take no lock: a hit is a map read plus setting the entry's
+ * referenced bit if it isn't set already. Compilation on a miss happens
+ * outside the lock too; only inserting and evicting take it. Eviction is
+ * CLOCK, an approximate LRU: the hand walks entries in insertion order and
+ * gives each one referenced since its last visit a second chance.
+ * <p>
+ * Bounded by entry count and by weight, roughly the bytes an entry holds:
+ * its source plus its code. Single instructions are cheap to compile and
+ * sources over {@code maxSourceLength} too big to keep around, so both are
+ * compiled without being cached.
+ */
+public final class ProgramCache {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final int maxSourceLength;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Entries in the order the clock hand visits them; guarded by lock */
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    /** Summed weight of the entries; written with the lock held */
+    private volatile long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder uncached = new LongAdder();
+    private final LongAdder eliminatedDispatches = new LongAdder();
+
+    private static final class Entry {
+        final String source;
+        final Program program;
+        final long weight;
+        /** Set by hits, cleared by the clock hand as it passes */
+        volatile boolean referenced;
+
+        Entry(String source, Program program) {
+            this.source = source;
+            this.program = program;
+            this.weight = weight(source, program);
+        }
+    }
+
+    public ProgramCache(int maxEntries, long maxWeight, int maxSourceLength) {
+        if (maxEntries < 1 || maxWeight < 1) throw new IllegalArgumentException("cache size must be positive");
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.maxSourceLength = maxSourceLength;
+    }
+
+    /**
+     * Get the compiled form of {@code source}, compiling and caching it on a miss
+     */
+    public Program get(String source) {
+        if (source.length() > maxSourceLength || source.indexOf('\n') < 0) {
+            uncached.increment();
+            Program program = Compiler.compile(source);
+            eliminatedDispatches.add(program.getEliminatedDispatches());
+            return program;
+        }
+
+        Entry entry = entries.get(source);
+        if (entry != null) {
+            // Read before writing, so hot entries don't bounce between caches
+            if (!entry.referenced) entry.referenced = true;
+            hits.increment();
+            return entry.program;
+        }
+
+        misses.increment();
+        Program program = Compiler.compile(source);
+        eliminatedDispatches.add(program.getEliminatedDispatches());
+        Entry added = new Entry(source, program);
+        lock.lock();
+        try {
+            Entry raced = entries.putIfAbsent(source, added);
+            if (raced != null) return raced.program;
+            weight += added.weight;
+            evict();
+            // Joins the clock after evicting, so the newest entry stays even
+            // if it alone is over the weight
+            clock.addLast(added);
+            return program;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move the clock hand until both bounds hold; call with the lock held
+     */
+    private void evict() {
+        while ((entries.size() > maxEntries || weight > maxWeight) && !clock.isEmpty()) {
+            Entry entry = clock.pollFirst();
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.addLast(entry);
+            } else {
+                entries.remove(entry.source, entry);
+                weight -= entry.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Approximate bytes held for an entry: a byte per source character and
+     * an opcode and operand per compiled instruction
+     */
+    private static long weight(String source, Program program) {
+        return source.length() + 12L * program.opcodes.length;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            clock.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sources compiled without being cached: single instructions and ones
+     * over the size limit
+     */
+    public long getUncached() {
+        return uncached.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Dispatches the optimizer removed, summed over every program compiled
+     */
+    public long getEliminatedDispatches() {
+        return eliminatedDispatches.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maxEntries + " weight=" + getWeight() + "/" + maxWeight + " hits=" + getHits()
+                + " misses=" + getMisses() + " evictions=" + getEvictions() + " uncached=" + getUncached()
+                + " eliminatedDispatches=" + getEliminatedDispatches();
+    }
+}
@@ -0,0 +1,293 @@
+package PlanetVM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Second execution tier: translates a hot {@link Program} into a hidden class
+ * whose run method is the instruction sequence as straight-line JVM code.
+ * Each instruction becomes a direct call to the matching Runtime op method,
+ * so HotSpot can inline the whole program and keep stack values in registers.
+ * Semantics are exactly the interpreter's, since both share those op methods.
+ */
+final class ProgramJit {
+    /** Executions after which a program is compiled; 0 or less disables the tier */
+    static final int THRESHOLD = Integer.getInteger("planetlang.vm.jitThreshold", 1000);
+
+    /** Longest program translated; keeps the generated method under the 64KB code limit */
+    static final int MAX_LENGTH = 4096;
+
+    private static final String CLASS_NAME = "PlanetVM/JitProgram";
+    private static final String RUNTIME = "PlanetVM/Runtime";
+
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "planetvm-jit");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ProgramJit() {
+    }
+
+    /**
+     * Compile in the background; the program keeps being interpreted until the
+     * generated class is installed
+     */
+    static void compileAsync(Program program) {
+        if (THRESHOLD <= 0 || program.length > MAX_LENGTH) return;
+        compiler.execute(() -> {
+            try {
+                program.compiled = compile(program);
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                System.err.println("JIT compilation failed, staying interpreted: " + e);
+            }
+        });
+    }
+
+    /**
+     * Translate and load a program
+     */
+    static CompiledCode compile(Program program) throws ReflectiveOperationException {
+        byte[] bytes = new ClassWriter(program).toByteArray();
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        try {
+            return (CompiledCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (ReflectiveOperationException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Minimal class file writer for the one shape of class the JIT emits
+     */
+    private static final class ClassWriter {
+        private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b;
+        private static final int LCONST_0 = 0x09, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11, I2L = 0x85, LDC2_W = 0x14;
+        private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, IFNE = 0x9a;
+        private static final int IRETURN = 0xac, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+
+        private final Program program;
+        private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+
+        ClassWriter(Program program) {
+            this.program = program;
+        }
+
+        byte[] toByteArray() {
+            try {
+                int thisClass = classRef(CLASS_NAME);
+                int superClass = classRef("java/lang/Object");
+                int iface = classRef("PlanetVM/CompiledCode");
+                int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+                int codeName = utf8("Code");
+
+                List<Integer> branchTargets = new ArrayList<>();
+                byte[] runCode = emitRun(branchTargets);
+                byte[] initCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN };
+                int initName = utf8("<init>");
+                int initDesc = utf8("()V");
+                int runName = utf8("run");
+                int runDesc = utf8("(L" + RUNTIME + ";)Z");
+                int stackMapName = branchTargets.isEmpty() ? 0 : utf8("StackMapTable");
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(52); // Java 8 format: StackMapTable verification, no newer features needed
+                out.writeShort(poolCount);
+                pool.flush();
+                poolBytes.writeTo(out);
+                out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(iface);
+                out.writeShort(0); // fields
+                out.writeShort(2); // methods
+
+                out.writeShort(0x0001);
+                out.writeShort(initName);
+                out.writeShort(initDesc);
+                out.writeShort(1);
+                writeCode(out, codeName, 1, 1, initCode, 0, null);
+
+                out.writeShort(0x0001 | 0x0010);
+                out.writeShort(runName);
+                out.writeShort(runDesc);
+                out.writeShort(1);
+                writeCode(out, codeName, 3, 2, runCode, stackMapName, branchTargets);
+
+                out.writeShort(0); // class attributes
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] emitRun(List<Integer> branchTargets) throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream(program.length * 8 + 2);
+            for (int pc = 0; pc < program.length; pc++) {
+                int opcode = program.opcodes[pc];
+                code.write(ALOAD_1);
+                if (Opcodes.hasOperand(opcode)) {
+                    pushLong(code, program.operands[pc]);
+                }
+                String descriptor = Opcodes.hasOperand(opcode) ? "(J)" : "()";
+                boolean canOverflow = Opcodes.canOverflow(opcode);
+                descriptor += canOverflow ? "Z" : "V";
+                int method = methodRef(RUNTIME, helperName(opcode), descriptor);
+                code.write(INVOKEVIRTUAL);
+                code.write(method >> 8);
+                code.write(method);
+                if (canOverflow) {
+                    // ifne over the early "return false"
+                    code.write(IFNE);
+                    code.write(0);
+                    code.write(5);
+                    code.write(ICONST_0);
+                    code.write(IRETURN);
+                    branchTargets.add(code.size());
+                }
+            }
+            code.write(ICONST_1);
+            code.write(IRETURN);
+            return code.toByteArray();
+        }
+
+        private void pushLong(ByteArrayOutputStream code, long value) throws IOException {
+            if (value == 0) {
+                code.write(LCONST_0);
+            } else if (value == 1) {
+                code.write(LCONST_1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write((int) value);
+                code.write(I2L);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                code.write((int) value >> 8);
+                code.write((int) value);
+                code.write(I2L);
+            } else {
+                int index = longConstant(value);
+                code.write(LDC2_W);
+                code.write(index >> 8);
+                code.write(index);
+            }
+        }
+
+        private static String helperName(int opcode) {
+            switch (opcode) {
+                case Opcodes.PUSH: return "opPush";
+                case Opcodes.POP: return "opPop";
+                case Opcodes.DUP: return "opDup";
+                case Opcodes.SWAP: return "opSwap";
+                case Opcodes.ADD: return "opAdd";
+                case Opcodes.SUB: return "opSub";
+                case Opcodes.MUL: return "opMul";
+                case Opcodes.DIV: return "opDiv";
+                case Opcodes.LOAD: return "opLoad";
+                case Opcodes.STORE: return "opStore";
+                case Opcodes.PRINT: return "opPrint";
+                case Opcodes.CLEAR: return "opClear";
+                case Opcodes.ADD_CONST: return "opAddConst";
+                case Opcodes.SUB_CONST: return "opSubConst";
+                case Opcodes.MUL_CONST: return "opMulConst";
+                case Opcodes.SQUARE: return "opSquare";
+                case Opcodes.LOAD_ADD_STORE: return "opLoadAddStore";
+                default: throw new IllegalArgumentException("Bad opcode " + opcode);
+            }
+        }
+
+        private void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] code,
+                               int stackMapName, List<Integer> branchTargets) throws IOException {
+            boolean hasStackMap = branchTargets != null && !branchTargets.isEmpty();
+            // Every branch target has the entry frame (this, runtime) and an empty operand stack
+            int stackMapLength = hasStackMap ? 2 + branchTargets.size() * 3 : 0;
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length + (hasStackMap ? 6 + stackMapLength : 0));
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(hasStackMap ? 1 : 0);
+            if (hasStackMap) {
+                out.writeShort(stackMapName);
+                out.writeInt(stackMapLength);
+                out.writeShort(branchTargets.size());
+                int previous = -1;
+                for (int target : branchTargets) {
+                    out.writeByte(251); // same_frame_extended
+                    out.writeShort(target - previous - 1);
+                    previous = target;
+                }
+            }
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = poolIndex.get("U" + value);
+            if (index != null) return index;
+            pool.writeByte(1);
+            pool.writeUTF(value);
+            return register("U" + value, 1);
+        }
+
+        private int classRef(String name) throws IOException {
+            Integer index = poolIndex.get("C" + name);
+            if (index != null) return index;
+            int nameIndex = utf8(name);
+            pool.writeByte(7);
+            pool.writeShort(nameIndex);
+            return register("C" + name, 1);
+        }
+
+        private int methodRef(String owner, String name, String descriptor) throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = poolIndex.get(key);
+            if (index != null) return index;
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+            int nameAndType = register("N" + name + descriptor, 1);
+            pool.writeByte(10);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+            return register(key, 1);
+        }
+
+        private int longConstant(long value) throws IOException {
+            String key = "J" + value;
+            Integer index = poolIndex.get(key);
+            if (index != null) return index;
+            pool.writeByte(5);
+            pool.writeLong(value);
+            return register(key, 2);
+        }
+
+        private int register(String key, int slots) {
+            int index = poolCount;
+            poolCount += slots;
+            poolIndex.put(key, index);
+            return index;
+        }
+    }
+}
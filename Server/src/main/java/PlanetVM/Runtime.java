@@ -5,6 +5,8 @@
 package PlanetVM;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import PlanetVM.Functions.*;
 
 /**
@@ -12,121 +14,419 @@ import PlanetVM.Functions.*;
  * @author GAMER
  */
 public class Runtime {
-    public long[] Memory;
-    public Deque<Long> stack = new ArrayDeque<Long>();
+    public final RuntimeMemory memory;
+    private final int memorySize;
+    public final LongStack stack;
+
+    /** Guards this runtime; when two are needed, lock the lower id first */
+    final ReentrantLock lock = new ReentrantLock();
+    final long id = nextId.getAndIncrement();
+    private static final AtomicLong nextId = new AtomicLong();
+
+    /** User this runtime belongs to, null for the global runtime */
+    String owner;
+
+    /** Bumped once per execution or transfer, so readers can tell whether anything changed */
+    private volatile long version;
     public Map<String, Long> registers = new HashMap<>();
+    private final InstructionScanner scanner = new InstructionScanner();
+    private final ChangeLog changes = new ChangeLog();
+    /** Watched addresses of this runtime's memory, null if it can't be watched */
+    WatchIndex watches;
+    /** State as of the last {@link #publish}, for pushes to read without the lock */
+    private volatile StackSnapshot publishedStack;
+    private volatile MemoryRange publishedMemory;
 
     public Runtime(int Memory_size)
     {
-        Memory = new long[Memory_size];
-    }
-
-    public void ExecuteInstruction(String instruction)
-    {
-        // split on the spaces and trim
-        String[] Line = instruction.trim().split("\\s+");
-        if (Line.length == 0) return;
-
-        switch (Line[0].toLowerCase())
-        {
-            case "push":
-                if (Line.length > 1) {
-                    try {
-                        long value = Long.parseLong(Line[1]);
-                        stack.push(value);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid number for push: " + Line[1]);
-                    }
-                }
-                break;
-            case "pop":
-                if (!stack.isEmpty()) {
-                    stack.pop();
-                }
-                break;
-            case "dup":
-                if (!stack.isEmpty()) {
-                    stack.push(stack.peek());
-                }
-                break;
-            case "swap":
-                if (stack.size() >= 2) {
-                    long a = stack.pop();
-                    long b = stack.pop();
-                    stack.push(a);
-                    stack.push(b);
-                }
-                break;
-            case "add":
-                if (stack.size() >= 2) {
-                    long a = stack.pop();
-                    long b = stack.pop();
-                    stack.push(a + b);
-                }
-                break;
-            case "sub":
-                if (stack.size() >= 2) {
-                    long a = stack.pop();
-                    long b = stack.pop();
-                    stack.push(b - a);
-                }
-                break;
-            case "mul":
-                if (stack.size() >= 2) {
-                    long a = stack.pop();
-                    long b = stack.pop();
-                    stack.push(a * b);
-                }
-                break;
-            case "div":
-                if (stack.size() >= 2) {
-                    long a = stack.pop();
-                    long b = stack.pop();
-                    if (a != 0) {
-                        stack.push(b / a);
-                    } else {
-                        System.err.println("Division by zero");
-                        stack.push(b); // restore stack
-                        stack.push(a);
-                    }
-                }
-                break;
-            case "load":
-                if (Line.length > 1) {
-                    try {
-                        int addr = Integer.parseInt(Line[1]);
-                        if (addr >= 0 && addr < Memory.length) {
-                            stack.push(Memory[addr]);
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid address for load: " + Line[1]);
-                    }
-                }
-                break;
-            case "store":
-                if (Line.length > 1 && !stack.isEmpty()) {
-                    try {
-                        int addr = Integer.parseInt(Line[1]);
-                        if (addr >= 0 && addr < Memory.length) {
-                            Memory[addr] = stack.pop();
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid address for store: " + Line[1]);
-                    }
-                }
-                break;
-            case "print":
-                if (!stack.isEmpty()) {
-                    System.out.println(stack.peek());
-                }
-                break;
-            case "clear":
-                stack.clear();
-                break;
-            default:
-                System.err.println("Unknown instruction: " + Line[0]);
-                break;
+        this(Memory_size, LongStack.UNBOUNDED);
+    }
+
+    public Runtime(int Memory_size, int Max_stack)
+    {
+        this(RuntimeMemory.allocate(Memory_size), Max_stack);
+    }
+
+    public Runtime(RuntimeMemory memory, int Max_stack)
+    {
+        this.memory = memory;
+        this.memorySize = memory.size();
+        stack = new LongStack(Max_stack);
+    }
+
+    /**
+     * Parses and runs a single instruction line. Kept as a debugging fallback;
+     * normal execution compiles with {@link Compiler} and calls {@link #execute(Program)}.
+     * Scanning reuses this runtime's {@link InstructionScanner}, so valid lines
+     * allocate nothing and malformed ones never throw.
+     */
+    public void ExecuteInstruction(CharSequence instruction)
+    {
+        boolean ok = true;
+        beginExecution();
+        try {
+            InstructionScanner scanner = this.scanner.reset(instruction);
+            if (!scanner.next()) return;
+
+            switch (scanner.error())
+            {
+                case InstructionScanner.OK:
+                    break;
+                case InstructionScanner.MISSING_OPERAND:
+                    return;
+                default:
+                    System.err.println(scanner.errorMessage());
+                    return;
+            }
+
+            long operand = scanner.operand();
+            switch (scanner.opcode())
+            {
+                case Opcodes.PUSH: ok = opPush(operand); break;
+                case Opcodes.POP: opPop(); break;
+                case Opcodes.DUP: ok = opDup(); break;
+                case Opcodes.SWAP: opSwap(); break;
+                case Opcodes.ADD: opAdd(); break;
+                case Opcodes.SUB: opSub(); break;
+                case Opcodes.MUL: opMul(); break;
+                case Opcodes.DIV: opDiv(); break;
+                case Opcodes.LOAD: ok = opLoad(operand); break;
+                case Opcodes.STORE: opStore(operand); break;
+                case Opcodes.PRINT: opPrint(); break;
+                case Opcodes.CLEAR: opClear(); break;
+                default: break;
+            }
+        } finally {
+            // Every begin needs its end, blank and rejected lines included
+            endExecution();
+        }
+        if (!ok) System.err.println("Stack overflow");
+    }
+
+    /**
+     * Runs a compiled program. Semantics match {@link #ExecuteInstruction(CharSequence)}
+     * line for line, without re-parsing any text. Once a program has run
+     * {@link ProgramJit#THRESHOLD} times it is translated to JVM bytecode and
+     * later runs go through the generated class instead of this loop.
+     * @return false if the program was stopped by a stack overflow
+     */
+    public boolean execute(Program program)
+    {
+        beginExecution();
+        try {
+            CompiledCode compiled = program.compiled;
+            if (compiled != null) {
+                return compiled.run(this);
+            }
+            if (++program.executions == ProgramJit.THRESHOLD) {
+                ProgramJit.compileAsync(program);
+            }
+            return interpret(program);
+        } finally {
+            // Watchers still hear about stores made before a throw
+            endExecution();
+        }
+    }
+
+    /**
+     * The interpreter loop, without tiering. The JIT differential test calls
+     * this directly to compare both tiers.
+     */
+    boolean interpret(Program program)
+    {
+        final int[] opcodes = program.opcodes;
+        final long[] operands = program.operands;
+        final int length = program.length;
+
+        for (int pc = 0; pc < length; pc++) {
+            switch (opcodes[pc]) {
+                case Opcodes.PUSH:
+                    if (!opPush(operands[pc])) return false;
+                    break;
+                case Opcodes.POP:
+                    opPop();
+                    break;
+                case Opcodes.DUP:
+                    if (!opDup()) return false;
+                    break;
+                case Opcodes.SWAP:
+                    opSwap();
+                    break;
+                case Opcodes.ADD:
+                    opAdd();
+                    break;
+                case Opcodes.SUB:
+                    opSub();
+                    break;
+                case Opcodes.MUL:
+                    opMul();
+                    break;
+                case Opcodes.DIV:
+                    opDiv();
+                    break;
+                case Opcodes.LOAD:
+                    if (!opLoad(operands[pc])) return false;
+                    break;
+                case Opcodes.STORE:
+                    opStore(operands[pc]);
+                    break;
+                case Opcodes.PRINT:
+                    opPrint();
+                    break;
+                case Opcodes.CLEAR:
+                    opClear();
+                    break;
+                case Opcodes.ADD_CONST:
+                    if (!opAddConst(operands[pc])) return false;
+                    break;
+                case Opcodes.SUB_CONST:
+                    if (!opSubConst(operands[pc])) return false;
+                    break;
+                case Opcodes.MUL_CONST:
+                    if (!opMulConst(operands[pc])) return false;
+                    break;
+                case Opcodes.SQUARE:
+                    if (!opSquare()) return false;
+                    break;
+                case Opcodes.LOAD_ADD_STORE:
+                    if (!opLoadAddStore(operands[pc])) return false;
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + opcodes[pc] + " at " + pc);
+            }
         }
+        return true;
+    }
+
+    // Instruction bodies, shared by the interpreter loop and JIT-generated code.
+    // Ops that can push return false on stack overflow.
+
+    final boolean opPush(long value)
+    {
+        return stack.push(value);
+    }
+
+    final void opPop()
+    {
+        if (!stack.isEmpty()) {
+            stack.pop();
+        }
+    }
+
+    final boolean opDup()
+    {
+        return stack.isEmpty() || stack.push(stack.peek());
+    }
+
+    final void opSwap()
+    {
+        if (stack.size() >= 2) {
+            long a = stack.pop();
+            long b = stack.pop();
+            stack.push(a);
+            stack.push(b);
+        }
+    }
+
+    final void opAdd()
+    {
+        if (stack.size() >= 2) {
+            long a = stack.pop();
+            long b = stack.pop();
+            stack.push(a + b);
+        }
+    }
+
+    final void opSub()
+    {
+        if (stack.size() >= 2) {
+            long a = stack.pop();
+            long b = stack.pop();
+            stack.push(b - a);
+        }
+    }
+
+    final void opMul()
+    {
+        if (stack.size() >= 2) {
+            long a = stack.pop();
+            long b = stack.pop();
+            stack.push(a * b);
+        }
+    }
+
+    final void opDiv()
+    {
+        if (stack.size() >= 2) {
+            long a = stack.pop();
+            long b = stack.pop();
+            if (a != 0) {
+                stack.push(b / a);
+            } else {
+                System.err.println("Division by zero");
+                stack.push(b); // restore stack
+                stack.push(a);
+            }
+        }
+    }
+
+    final boolean opLoad(long addr)
+    {
+        return addr < 0 || addr >= memorySize || stack.push(memory.load((int) addr));
+    }
+
+    final void opStore(long addr)
+    {
+        if (addr >= 0 && addr < memorySize && !stack.isEmpty()) {
+            memory.store((int) addr, stack.pop());
+            stored((int) addr);
+        }
+    }
+
+    final void opPrint()
+    {
+        if (!stack.isEmpty()) {
+            System.out.println(stack.peek());
+        }
+    }
+
+    final void opClear()
+    {
+        stack.clear();
+    }
+
+    // Superinstructions. Each behaves exactly like the sequence it replaces,
+    // including stopping when that sequence's push would overflow.
+
+    final boolean opAddConst(long value)
+    {
+        if (stack.isFull()) return false;
+        if (stack.isEmpty()) return stack.push(value);
+        stack.push(stack.pop() + value);
+        return true;
+    }
+
+    final boolean opSubConst(long value)
+    {
+        if (stack.isFull()) return false;
+        if (stack.isEmpty()) return stack.push(value);
+        stack.push(stack.pop() - value);
+        return true;
+    }
+
+    final boolean opMulConst(long value)
+    {
+        if (stack.isFull()) return false;
+        if (stack.isEmpty()) return stack.push(value);
+        stack.push(stack.pop() * value);
+        return true;
+    }
+
+    final boolean opSquare()
+    {
+        if (stack.isEmpty()) return true;
+        if (stack.isFull()) return false;
+        long a = stack.pop();
+        stack.push(a * a);
+        return true;
+    }
+
+    final boolean opLoadAddStore(long packed)
+    {
+        int a = Opcodes.unpackAddress(packed, 0);
+        int b = Opcodes.unpackAddress(packed, 1);
+        int c = Opcodes.unpackAddress(packed, 2);
+        if (a < memorySize && b < memorySize && c < memorySize
+                && stack.size() + 2 <= stack.maxSize()) {
+            memory.store(c, memory.load(a) + memory.load(b));
+            stored(c);
+            return true;
+        }
+        // Out-of-range address or no room for the two loads: run the long way
+        if (!opLoad(a) || !opLoad(b)) return false;
+        opAdd();
+        opStore(c);
+        return true;
+    }
+
+    /**
+     * Mutation version of this runtime's stack and memory. Only ever grows.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Called with the runtime's lock held (or on its executor), so there is
+     * only ever one writer
+     */
+    void markModified() {
+        version++;
+    }
+
+    private void beginExecution() {
+        markModified();
+        changes.begin(stack);
+    }
+
+    private void stored(int address) {
+        changes.recordWrite(address);
+        if (watches != null) watches.written(address);
+    }
+
+    private void endExecution() {
+        if (watches != null) watches.dispatch(memory, version);
+    }
+
+    /**
+     * The version and changes of the last execution (see {@link ChangeLog})
+     */
+    ExecutionResult captureChanges() {
+        return changes.capture(version, stack, memory);
+    }
+
+    /**
+     * Result line for the last execution, in its text form
+     */
+    String describeChanges() {
+        return captureChanges().toString();
+    }
+
+    /**
+     * Copy up to {@code count} cells from {@code start}, stopping at the end
+     * of memory. Call with the lock held so the version matches the values.
+     */
+    MemoryRange readMemory(int start, int count) {
+        int end = (int) java.lang.Math.min((long) start + count, memorySize);
+        long[] values = new long[java.lang.Math.max(0, end - start)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = memory.load(start + i);
+        }
+        return new MemoryRange(start, values, memorySize, version);
+    }
+
+    /**
+     * Copy the stack and/or the start of memory for pushes to read without
+     * the lock. Call with the lock held (or on the executor) right after a
+     * change, so the copies match the version they carry.
+     */
+    void publish(boolean stack, boolean memory) {
+        if (stack) publishedStack = new StackSnapshot(version, this.stack.toArrayTopFirst());
+        if (memory) publishedMemory = readMemory(0, MemoryRange.PREVIEW);
+    }
+
+    /**
+     * Stack as of the last publish, null if it was never published
+     */
+    StackSnapshot getPublishedStack() {
+        return publishedStack;
+    }
+
+    /**
+     * Start of memory as of the last publish, null if it was never published
+     */
+    MemoryRange getPublishedMemory() {
+        return publishedMemory;
     }
 
     public String getStackAsString() {
@@ -134,14 +434,6 @@ public class Runtime {
     }
 
     public String getMemoryAsString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < java.lang.Math.min(Memory.length, 10); i++) {
-            if (i > 0) sb.append(", ");
-            sb.append(Memory[i]);
-        }
-        if (Memory.length > 10) sb.append(", ...");
-        sb.append("]");
-        return sb.toString();
+        return readMemory(0, MemoryRange.PREVIEW).toString();
     }
 }
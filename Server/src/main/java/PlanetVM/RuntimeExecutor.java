@@ -0,0 +1,171 @@
+package PlanetVM;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Single-writer executor for a shared {@link Runtime}. Every task touching
+ * the runtime is queued on a lock-free multi-producer queue and applied by
+ * one dedicated thread in arrival order, a batch per drain, so client threads
+ * never contend on the runtime itself.
+ * <p>
+ * Stack and memory views are rendered on the writer thread and cached until
+ * the next task that mutates, so readers always see a consistent state and
+ * repeated reads of an unchanged runtime don't queue at all.
+ */
+public final class RuntimeExecutor {
+    /** Most tasks applied before the writer publishes and re-checks for shutdown */
+    private static final int MAX_BATCH = Integer.getInteger("planetlang.vm.executorBatch", 256);
+
+    private final Runtime runtime;
+    private final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private volatile String stackView;
+    private volatile String memoryView;
+
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile int largestBatch;
+
+    public RuntimeExecutor(Runtime runtime, String name) {
+        this.runtime = runtime;
+        this.writer = new Thread(this::drainLoop, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Run {@code body} against the runtime on the writer thread and wait for
+     * its result. Tasks that may change the runtime must pass {@code mutates}
+     * so cached views are refreshed.
+     */
+    public <T> T call(Function<Runtime, T> body, boolean mutates) {
+        if (Thread.currentThread() == writer) {
+            // Already inside a task; queueing would wait on ourselves
+            if (mutates) invalidateViews();
+            return body.apply(runtime);
+        }
+        try {
+            return submit(body, mutates).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Queue {@code body} without waiting for it
+     */
+    public <T> CompletableFuture<T> submit(Function<Runtime, T> body, boolean mutates) {
+        Task<T> task = new Task<>(body, mutates);
+        if (!running) {
+            task.completeExceptionally(new IllegalStateException("executor is shut down"));
+            return task;
+        }
+        queue.offer(task);
+        LockSupport.unpark(writer);
+        return task;
+    }
+
+    /**
+     * Stack as shown to clients, consistent with some point between batches
+     */
+    public String stackSnapshot() {
+        String view = stackView;
+        return view != null ? view : call(r -> stackView = r.getStackAsString(), false);
+    }
+
+    /**
+     * Memory as shown to clients, consistent with some point between batches
+     */
+    public String memorySnapshot() {
+        String view = memoryView;
+        return view != null ? view : call(r -> memoryView = r.getMemoryAsString(), false);
+    }
+
+    private void drainLoop() {
+        while (running || !queue.isEmpty()) {
+            Task<?> task = queue.poll();
+            if (task == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            int applied = 0;
+            // Held per batch so transfers that lock this runtime from other
+            // threads see it between batches only
+            runtime.lock.lock();
+            try {
+                do {
+                    // Drop views before the change, so a caller that sees its
+                    // task complete can never read the state from before it
+                    if (task.mutates) invalidateViews();
+                    task.run(runtime);
+                    applied++;
+                } while (applied < MAX_BATCH && (task = queue.poll()) != null);
+            } finally {
+                runtime.lock.unlock();
+            }
+
+            tasks.addAndGet(applied);
+            batches.incrementAndGet();
+            if (applied > largestBatch) largestBatch = applied;
+        }
+    }
+
+    private void invalidateViews() {
+        stackView = null;
+        memoryView = null;
+    }
+
+    /**
+     * Stop accepting tasks; tasks already queued are still applied
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writer);
+    }
+
+    public Runtime getRuntime() {
+        return runtime;
+    }
+
+    public long getTasks() {
+        return tasks.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public String toString() {
+        return "tasks=" + tasks.get() + " batches=" + batches.get() + " largestBatch=" + largestBatch
+                + " queued=" + queue.size();
+    }
+
+    private static final class Task<T> extends CompletableFuture<T> {
+        private final Function<Runtime, T> body;
+        private final boolean mutates;
+
+        Task(Function<Runtime, T> body, boolean mutates) {
+            this.body = body;
+            this.mutates = mutates;
+        }
+
+        void run(Runtime runtime) {
+            try {
+                complete(body.apply(runtime));
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            }
+        }
+    }
+}
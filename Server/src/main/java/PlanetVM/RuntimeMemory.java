@@ -0,0 +1,37 @@
+package PlanetVM;
+
+/**
+ * Addressable cell memory of a {@link Runtime}. Cells are longs addressed
+ * 0..size()-1; {@link #load} and {@link #store} throw
+ * IndexOutOfBoundsException outside that range. The op methods in Runtime
+ * check the range first, so a bad address in a program stays a no-op.
+ */
+public interface RuntimeMemory {
+    /** Cells at or above this size are allocated off-heap by {@link #allocate} */
+    int OFF_HEAP_THRESHOLD = Integer.getInteger("planetlang.vm.offHeapThreshold", 1 << 16);
+
+    int size();
+
+    long load(int address);
+
+    void store(int address, long value);
+
+    /**
+     * Copy of every cell, for tests and debugging
+     */
+    default long[] toArray() {
+        long[] cells = new long[size()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = load(i);
+        }
+        return cells;
+    }
+
+    /**
+     * Heap memory for small runtimes, off-heap once the size reaches
+     * {@link #OFF_HEAP_THRESHOLD} so large planets don't grow the Java heap
+     */
+    static RuntimeMemory allocate(int size) {
+        return size >= OFF_HEAP_THRESHOLD ? new OffHeapMemory(size) : new HeapMemory(size);
+    }
+}
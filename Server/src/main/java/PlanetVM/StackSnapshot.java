@@ -0,0 +1,29 @@
+package PlanetVM;
+
+/**
+ * A runtime's stack copied at one version
+ */
+public final class StackSnapshot {
+    public final long version;
+    /** Top first */
+    public final long[] values;
+
+    StackSnapshot(long version, long[] values) {
+        this.version = version;
+        this.values = values;
+    }
+
+    /**
+     * Rendered like {@link LongStack#toString}, top first
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(values[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,22 @@
+package PlanetVM;
+
+/**
+ * Told about every state change, right after it is applied. Called on the
+ * thread that made the change, so implementations must be quick and must
+ * not call back into the VM.
+ */
+public interface StateListener {
+    /**
+     * @param userId owner of the changed runtime for the user topics, null otherwise
+     */
+    void stateChanged(StateTopic topic, String userId);
+
+    /**
+     * Whether changes to {@code topic} are wanted at all, so the VM can skip
+     * publishing state that nobody will push. Called with the runtime locked.
+     * @param userId owner of the runtime for the user topics, null otherwise
+     */
+    default boolean isListening(StateTopic topic, String userId) {
+        return true;
+    }
+}
@@ -0,0 +1,18 @@
+package PlanetVM;
+
+/**
+ * Parts of the VM state clients can subscribe to. The user topics refer to
+ * the subscriber's own runtime.
+ */
+public enum StateTopic {
+    GLOBAL_STACK,
+    GLOBAL_MEMORY,
+    USER_STACK,
+    USER_MEMORY,
+    CHAT;
+
+    /** Bit for this topic in a topic mask */
+    public int bit() {
+        return 1 << ordinal();
+    }
+}
@@ -0,0 +1,111 @@
+package PlanetVM;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashed timer wheel. Timeouts are filed into the slot for their deadline
+ * tick, and each {@link #advance} only visits the slots for the ticks that
+ * passed, so the cost follows the number of timeouts due rather than the
+ * number scheduled. Deadlines further out than one revolution simply wait in
+ * their slot for later revolutions.
+ */
+final class TimerWheel {
+    /**
+     * Something that can expire. Returning a later deadline reschedules it,
+     * which lets owners push deadlines back lazily instead of on every touch.
+     */
+    interface Timeout {
+        /** @return the next deadline in millis, or 0 if it is done */
+        long expire(long now);
+    }
+
+    private static final class Entry {
+        final Timeout timeout;
+        final long tick;
+
+        Entry(Timeout timeout, long tick) {
+            this.timeout = timeout;
+            this.tick = tick;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<Entry>[] slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickMillis, int slotCount, long now) {
+        if (tickMillis < 1 || slotCount < 1) throw new IllegalArgumentException("tick and slot count must be positive");
+        this.tickMillis = tickMillis;
+        this.slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.currentTick = now / tickMillis;
+    }
+
+    void schedule(Timeout timeout, long deadline) {
+        lock.lock();
+        try {
+            // Round up so nothing fires early; anything already due goes in the next tick
+            long tick = java.lang.Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+            slots[(int) (tick % slots.length)].add(new Entry(timeout, tick));
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Expire everything due up to {@code now}. Timeouts run outside the lock,
+     * so they may schedule again.
+     * @return how many timeouts finished
+     */
+    int advance(long now) {
+        List<Entry> due = new ArrayList<>();
+        lock.lock();
+        try {
+            long target = now / tickMillis;
+            // Past one revolution every slot has been visited; the rest is a repeat
+            long from = java.lang.Math.max(currentTick + 1, target - slots.length + 1);
+            for (long tick = from; tick <= target; tick++) {
+                List<Entry> slot = slots[(int) (tick % slots.length)];
+                for (int i = slot.size() - 1; i >= 0; i--) {
+                    if (slot.get(i).tick <= target) {
+                        due.add(slot.get(i));
+                        slot.set(i, slot.get(slot.size() - 1));
+                        slot.remove(slot.size() - 1);
+                    }
+                }
+            }
+            currentTick = java.lang.Math.max(currentTick, target);
+            size -= due.size();
+        } finally {
+            lock.unlock();
+        }
+
+        int finished = 0;
+        for (Entry entry : due) {
+            long next = entry.timeout.expire(now);
+            if (next > 0) {
+                schedule(entry.timeout, next);
+            } else {
+                finished++;
+            }
+        }
+        return finished;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
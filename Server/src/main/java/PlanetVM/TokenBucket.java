@@ -0,0 +1,51 @@
+package PlanetVM;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single theoretical arrival time (the GCRA form):
+ * each token advances the time by one refill interval, and a request is
+ * admitted while that time stays within the burst window of now. One CAS per
+ * admission, no lock, no refill timer.
+ */
+final class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE / 2);
+
+    /**
+     * @param tokensPerSecond steady refill rate
+     * @param burst tokens that can be spent at once from a full bucket
+     */
+    TokenBucket(double tokensPerSecond, long burst) {
+        if (tokensPerSecond <= 0 || burst < 1) throw new IllegalArgumentException("rate and burst must be positive");
+        this.nanosPerToken = java.lang.Math.max(1, (long) (1_000_000_000L / tokensPerSecond));
+        this.burstNanos = burst * nanosPerToken;
+    }
+
+    /**
+     * Take {@code cost} tokens if they are available
+     * @return 0 if admitted, otherwise roughly how many nanos until they would be
+     */
+    long tryAcquire(int cost, long now) {
+        long costNanos = cost * nanosPerToken;
+        while (true) {
+            long current = arrival.get();
+            long next = java.lang.Math.max(current, now - burstNanos) + costNanos;
+            if (next - now > 0) {
+                return next - now;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back tokens taken by {@link #tryAcquire} for a request that was
+     * rejected elsewhere
+     */
+    void refund(int cost) {
+        arrival.addAndGet(-cost * nanosPerToken);
+    }
+}
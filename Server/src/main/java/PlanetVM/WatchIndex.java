@@ -0,0 +1,208 @@
+package PlanetVM;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Index from memory addresses to the watches covering them. Addresses are
+ * grouped into buckets of 64; each bucket holds a bitmask of its watched
+ * addresses and the watches that overlap it, and buckets live in a small
+ * open-addressed table keyed by bucket number. A store checks one table slot
+ * and one bit, without allocating, and nothing else is looked at unless the
+ * address is watched.
+ * <p>
+ * Watches are added and removed from any thread; the table is rebuilt and
+ * republished on each change. {@link #written} and {@link #dispatch} are only
+ * called by the runtime's single writer.
+ */
+public final class WatchIndex {
+    /**
+     * Told about writes to watched addresses, once per execution with the
+     * value the cell ended up with. Called on the runtime's writer thread, so
+     * implementations should only queue the change.
+     */
+    public interface Watcher {
+        void memoryChanged(int watchId, int address, long value, long version);
+    }
+
+    private static final int BUCKET_SHIFT = 6;
+
+    private static final class Watch {
+        final int id;
+        final int start;
+        final int end;
+        final Watcher watcher;
+
+        Watch(int id, int start, int end, Watcher watcher) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.watcher = watcher;
+        }
+    }
+
+    private static final class Bucket {
+        long mask;
+        Watch[] watches = new Watch[0];
+    }
+
+    /** Immutable once published */
+    private static final class Table {
+        final int[] keys;
+        final Bucket[] buckets;
+        final int slotMask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            buckets = new Bucket[capacity];
+            slotMask = capacity - 1;
+        }
+
+        Bucket get(int key) {
+            int slot = mix(key) & slotMask;
+            Bucket bucket;
+            while ((bucket = buckets[slot]) != null) {
+                if (keys[slot] == key) return bucket;
+                slot = (slot + 1) & slotMask;
+            }
+            return null;
+        }
+
+        Bucket getOrCreate(int key) {
+            int slot = mix(key) & slotMask;
+            while (buckets[slot] != null) {
+                if (keys[slot] == key) return buckets[slot];
+                slot = (slot + 1) & slotMask;
+            }
+            keys[slot] = key;
+            return buckets[slot] = new Bucket();
+        }
+
+        private static int mix(int key) {
+            return key * 0x9E3779B9 >>> 7 ^ key;
+        }
+    }
+
+    private static final Table EMPTY = new Table(1);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Watch> watches = new ArrayList<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private volatile Table table = EMPTY;
+
+    // Writer-owned: watched addresses written since the last dispatch
+    private int[] dirty = new int[16];
+    private int dirtyCount;
+
+    /**
+     * Watch addresses [start, end). Returns the watch id.
+     */
+    public int add(Watcher watcher, int start, int end) {
+        if (start < 0 || end <= start) throw new IllegalArgumentException("Invalid watch range " + start + "-" + end);
+        lock.lock();
+        try {
+            Watch watch = new Watch(nextId.getAndIncrement(), start, end, watcher);
+            watches.add(watch);
+            rebuild();
+            return watch.id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Watcher watcher, int id) {
+        lock.lock();
+        try {
+            boolean removed = watches.removeIf(w -> w.id == id && w.watcher == watcher);
+            if (removed) rebuild();
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void removeAll(Watcher watcher) {
+        lock.lock();
+        try {
+            if (watches.removeIf(w -> w.watcher == watcher)) rebuild();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int count(Watcher watcher) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Watch watch : watches) {
+                if (watch.watcher == watcher) count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rebuild() {
+        if (watches.isEmpty()) {
+            table = EMPTY;
+            return;
+        }
+        long bucketCount = 0;
+        for (Watch watch : watches) {
+            bucketCount += ((watch.end - 1) >>> BUCKET_SHIFT) - (watch.start >>> BUCKET_SHIFT) + 1;
+        }
+        // At most half full, so probes stay short
+        Table rebuilt = new Table(Integer.highestOneBit((int) java.lang.Math.min(bucketCount * 2, 1 << 29)) << 1);
+        for (Watch watch : watches) {
+            for (int key = watch.start >>> BUCKET_SHIFT; key <= (watch.end - 1) >>> BUCKET_SHIFT; key++) {
+                Bucket bucket = rebuilt.getOrCreate(key);
+                int from = java.lang.Math.max(watch.start, key << BUCKET_SHIFT) & 63;
+                int to = java.lang.Math.min(watch.end - 1, (key << BUCKET_SHIFT) + 63) & 63;
+                bucket.mask |= (-1L >>> (63 - to)) & (-1L << from);
+                bucket.watches = Arrays.copyOf(bucket.watches, bucket.watches.length + 1);
+                bucket.watches[bucket.watches.length - 1] = watch;
+            }
+        }
+        table = rebuilt;
+    }
+
+    /**
+     * Note a store to {@code address}. Cheap when the address isn't watched.
+     */
+    void written(int address) {
+        Bucket bucket = table.get(address >>> BUCKET_SHIFT);
+        if (bucket == null || (bucket.mask & (1L << address)) == 0) return;
+        if (dirtyCount > 0 && dirty[dirtyCount - 1] == address) return;
+        if (dirtyCount == dirty.length) dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+        dirty[dirtyCount++] = address;
+    }
+
+    /**
+     * Tell the watchers of each address written since the last dispatch
+     * about its current value
+     */
+    void dispatch(RuntimeMemory memory, long version) {
+        if (dirtyCount == 0) return;
+        Arrays.sort(dirty, 0, dirtyCount);
+        Table current = table;
+        int previous = -1;
+        for (int i = 0; i < dirtyCount; i++) {
+            int address = dirty[i];
+            if (address == previous) continue;
+            previous = address;
+            Bucket bucket = current.get(address >>> BUCKET_SHIFT);
+            if (bucket == null) continue;
+            long value = memory.load(address);
+            for (Watch watch : bucket.watches) {
+                if (address >= watch.start && address < watch.end) {
+                    watch.watcher.memoryChanged(watch.id, address, value, version);
+                }
+            }
+        }
+        dirtyCount = 0;
+    }
+}
@@ -0,0 +1,386 @@
+package org.finite.planetlangserver.Networking;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import PlanetVM.MemoryRange;
+import PlanetVM.PlanetVMManager;
+import PlanetVM.StackSnapshot;
+import PlanetVM.StateTopic;
+import PlanetVM.WatchIndex;
+import com.google.protobuf.TextFormat;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+
+/**
+ * One client's session and the protocol spoken over it, independent of how
+ * the bytes move. Subclasses own the socket: they call {@link #open} once
+ * connected, pass each received line to {@link #respond} in order, and
+ * {@link #release} when the connection ends. Once {@link #respond} has
+ * accepted {@link Protocol#PROTOBUF}, {@link #isBinary} is set and they pass
+ * frames to {@link #respond(Message)} instead.
+ */
+abstract class Connection implements EventPublisher.Subscriber, WatchIndex.Watcher {
+    /** Pending bit for memory watch hits, above the StateTopic bits */
+    private static final int WATCH_BIT = 1 << StateTopic.values().length;
+    /** Unsent output a client may fall behind by before it is dropped */
+    static final long MAX_QUEUED_BYTES = Long.getLong("planetlang.server.maxQueuedBytes", 4L << 20);
+    /** Print every received frame (debugging only; formats each whole message) */
+    private static final boolean LOG_FRAMES = Boolean.getBoolean("planetlang.server.logFrames");
+
+    protected final PlanetVMManager vmManager;
+    protected final EventPublisher publisher;
+    protected final AtomicBoolean running = new AtomicBoolean(true);
+    protected volatile String sessionId;
+    private volatile String userId;
+    private volatile boolean binary;
+    private final ProtobufHandler protobuf;
+
+    // Push subscriptions: topic masks, and the last version pushed per topic
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long[] pushedVersions = new long[StateTopic.values().length];
+    private final ReentrantLock pushLock = new ReentrantLock();
+    // Watch hits not yet pushed, keyed by watch id and address, holding the newest value
+    private final Map<Long, Long> watchHits = new ConcurrentHashMap<>();
+    private final AtomicLong watchVersion = new AtomicLong();
+
+    Connection(PlanetVMManager vmManager, EventPublisher publisher) {
+        this.vmManager = vmManager;
+        this.publisher = publisher;
+        this.protobuf = new ProtobufHandler(this);
+    }
+
+    /**
+     * Send one line to the client. Called from the command thread and the
+     * publisher's threads; lines must not interleave, and the publisher's
+     * threads must not wait on the socket.
+     */
+    abstract void send(String line);
+
+    /**
+     * Send one frame to the client, under the same rules as {@link #send}
+     */
+    abstract void sendFrame(Message message);
+
+    /**
+     * Create the session for a newly connected user and return the greeting
+     */
+    String open(String userId) {
+        this.userId = userId;
+        sessionId = vmManager.createUserSession(userId);
+        publisher.register(this);
+        if (!running.get()) {
+            // Closed while opening, so release() may have missed the session
+            publisher.unregister(this);
+            vmManager.removeUserSession(sessionId);
+        }
+        return "SESSION:" + sessionId;
+    }
+
+    /**
+     * Handle one received line and return the response to send, or null if
+     * it has been sent already
+     */
+    String respond(String line) {
+        System.out.println("Received from " + sessionId + ": " + line);
+        // Any line counts as activity, PING and global reads included
+        vmManager.touchSession(sessionId);
+        if (line.equals(Protocol.PROTOBUF) && !binary) {
+            // The answer is the last line; pushes must not slip in before it as text
+            pushLock.lock();
+            try {
+                send(Protocol.PROTOBUF);
+                binary = true;
+            } finally {
+                pushLock.unlock();
+            }
+            return null;
+        }
+        return processCommand(line);
+    }
+
+    /**
+     * Handle one received frame and return the reply to send
+     */
+    Message respond(Message message) {
+        if (LOG_FRAMES) {
+            System.out.println("Received from " + sessionId + ": " + TextFormat.shortDebugString(message));
+        }
+        vmManager.touchSession(sessionId);
+        return protobuf.handle(message);
+    }
+
+    /**
+     * Whether the connection has switched to protobuf frames
+     */
+    boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Stop pushes and end the session. Returns false if already released.
+     */
+    boolean release() {
+        if (!running.getAndSet(false)) return false;
+        publisher.unregister(this);
+        vmManager.unwatchAll(this);
+        if (sessionId != null) {
+            vmManager.removeUserSession(sessionId);
+        }
+        return true;
+    }
+
+    String processCommand(String command) {
+        try {
+            if (command.startsWith("LOCAL:")) {
+                String instruction = command.substring(6);
+                return vmManager.executeLocalInstruction(sessionId, instruction);
+            } else if (command.startsWith("GLOBAL:")) {
+                String instruction = command.substring(7);
+                return vmManager.executeGlobalInstruction(sessionId, instruction);
+            } else if (command.startsWith("LOCAL_PROGRAM:")) {
+                String source = ProgramFrame.decode(command.substring(14));
+                return vmManager.executeLocalProgram(sessionId, source);
+            } else if (command.startsWith("GLOBAL_PROGRAM:")) {
+                String source = ProgramFrame.decode(command.substring(15));
+                return vmManager.executeGlobalProgram(sessionId, source);
+            } else if (command.equals("SHARE")) {
+                return vmManager.shareToGlobal(sessionId);
+            } else if (command.equals("TAKE")) {
+                return vmManager.takeFromGlobal(sessionId);
+            } else if (command.startsWith("GET_GLOBAL_MEMORY_RANGE:")) {
+                int[] range = parseRange(command.substring(24));
+                return memoryRange(vmManager.getGlobalMemoryRange(range[0], range[1]));
+            } else if (command.startsWith("GET_USER_MEMORY_RANGE:")) {
+                int[] range = parseRange(command.substring(22));
+                return memoryRange(vmManager.getUserMemoryRange(sessionId, range[0], range[1]));
+            } else if (command.startsWith("GET_USER_STACK@")) {
+                return conditional("USER_STACK", command, vmManager.getUserVersion(sessionId), () -> vmManager.getUserStack(sessionId));
+            } else if (command.startsWith("GET_GLOBAL_STACK@")) {
+                return conditional("GLOBAL_STACK", command, vmManager.getGlobalVersion(), vmManager::getGlobalStack);
+            } else if (command.startsWith("GET_GLOBAL_MEMORY@")) {
+                return conditional("GLOBAL_MEMORY", command, vmManager.getGlobalVersion(), vmManager::getGlobalMemory);
+            } else if (command.startsWith("GET_USER_MEMORY@")) {
+                return conditional("USER_MEMORY", command, vmManager.getUserVersion(sessionId), () -> vmManager.getUserMemory(sessionId));
+            } else if (command.equals("GET_USER_STACK")) {
+                return "USER_STACK:" + vmManager.getUserStack(sessionId);
+            } else if (command.equals("GET_GLOBAL_STACK")) {
+                return "GLOBAL_STACK:" + vmManager.getGlobalStack();
+            } else if (command.equals("GET_GLOBAL_MEMORY")) {
+                return "GLOBAL_MEMORY:" + vmManager.getGlobalMemory();
+            } else if (command.equals("GET_USER_MEMORY")) {
+                return "USER_MEMORY:" + vmManager.getUserMemory(sessionId);
+            } else if (command.startsWith("CHAT:")) {
+                String message = command.substring(5);
+                return vmManager.addChatMessage(sessionId, message);
+            } else if (command.equals("GET_CHAT_MESSAGES")) {
+                return "CHAT_MESSAGES:" + vmManager.getChatMessages();
+            } else if (command.startsWith("GET_CHAT_SINCE:")) {
+                long sinceId = Long.parseLong(command.substring(15).trim());
+                return "CHAT_SINCE:" + ProgramFrame.encode(vmManager.getChatMessagesSince(sinceId));
+            } else if (command.equals("GET_VM_STATS")) {
+                return "VM_STATS:" + vmManager.getVmStats();
+            } else if (command.startsWith("WATCH:")) {
+                int[] range = parseRange(command.substring(6));
+                return "WATCH:" + vmManager.watchGlobalMemory(this, range[0], range[1]);
+            } else if (command.startsWith("UNWATCH:")) {
+                int watchId = Integer.parseInt(command.substring(8).trim());
+                return vmManager.unwatchGlobalMemory(this, watchId) ? "OK" : "ERROR: Unknown watch " + watchId;
+            } else if (command.startsWith("SUBSCRIBE:")) {
+                subscribe(parseTopics(command.substring(10)));
+                return "OK";
+            } else if (command.startsWith("UNSUBSCRIBE:")) {
+                unsubscribe(parseTopics(command.substring(12)));
+                return "OK";
+            } else if (command.equals("PING")) {
+                // Keep-alive response
+                return "PONG";
+            } else {
+                return "ERROR: Unknown command: " + command;
+            }
+        } catch (Exception e) {
+            return "ERROR: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Answer a GET_x@version read: a short NOT_MODIFIED when the runtime
+     * is still at that version, otherwise the rendered state tagged with
+     * the version read before rendering (so a tag never claims more than
+     * the data holds)
+     */
+    private String conditional(String prefix, String command, long version, Supplier<String> render) {
+        long since = Long.parseLong(command.substring(command.indexOf('@') + 1).trim());
+        // Checked first, or an unknown session asking @-1 would be told nothing changed
+        if (version < 0) return "ERROR: Invalid session";
+        if (version == since) return "NOT_MODIFIED@" + version;
+        String body = render.get();
+        if (body.startsWith("ERROR:")) return body;
+        return prefix + "@" + version + ":" + body;
+    }
+
+    private int[] parseRange(String range) {
+        int comma = range.indexOf(',');
+        if (comma < 0) throw new IllegalArgumentException("Expected start,count");
+        return new int[] {
+            Integer.parseInt(range.substring(0, comma).trim()),
+            Integer.parseInt(range.substring(comma + 1).trim())
+        };
+    }
+
+    /**
+     * MEMORY_RANGE:start,count,memorySize@version:cells, with the cells
+     * in {@link MemoryCodec} form. count may be less than asked for.
+     */
+    private String memoryRange(MemoryRange range) {
+        if (!range.isOk()) return range.error;
+        return "MEMORY_RANGE:" + range.start + "," + range.values.length + "," + range.memorySize
+                + "@" + range.version + ":" + MemoryCodec.encode(range.values);
+    }
+
+    void subscribe(int topics) {
+        int added = topics & ~subscriptions.getAndUpdate(mask -> mask | topics);
+        pushLock.lock();
+        try {
+            for (StateTopic topic : StateTopic.values()) {
+                if ((added & topic.bit()) != 0) pushedVersions[topic.ordinal()] = -1;
+            }
+        } finally {
+            pushLock.unlock();
+        }
+        reindex();
+        // Push the current state of new topics so the client starts in sync
+        vmManager.publishForSubscriber(sessionId, added);
+        publisher.publish(this, added);
+    }
+
+    void unsubscribe(int topics) {
+        subscriptions.getAndUpdate(mask -> mask & ~topics);
+        reindex();
+    }
+
+    private void reindex() {
+        publisher.update(this);
+        // Closed meanwhile, so release() may have unregistered before the update
+        if (!running.get()) publisher.unregister(this);
+    }
+
+    int parseTopics(String topicList) {
+        int topics = 0;
+        for (String name : topicList.split(",")) {
+            try {
+                topics |= StateTopic.valueOf(name.trim().toUpperCase()).bit();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown topic: " + name.trim());
+            }
+        }
+        return topics;
+    }
+
+    @Override
+    public String getUserId() {
+        return userId;
+    }
+
+    @Override
+    public int getSubscriptions() {
+        return subscriptions.get();
+    }
+
+    /**
+     * Runs on the global runtime's thread: only record the hit and let
+     * the publisher push it with anything else pending
+     */
+    @Override
+    public void memoryChanged(int watchId, int address, long value, long version) {
+        watchHits.put(((long) watchId << 32) | address, value);
+        watchVersion.accumulateAndGet(version, Math::max);
+        publisher.publish(this, WATCH_BIT);
+    }
+
+    @Override
+    public boolean markPending(int topics) {
+        return pending.getAndUpdate(mask -> mask | topics) == 0;
+    }
+
+    /**
+     * Push one event per pending topic whose version moved past the last
+     * one pushed, as an EVENT line or an Event frame. Runs on the publisher's
+     * threads, so it only reads the state the runtimes published and never
+     * waits for one; the lock keeps pushes for this connection in version order.
+     */
+    @Override
+    public void flush() {
+        pushLock.lock();
+        try {
+            int pendingTopics = pending.getAndSet(0);
+            int topics = pendingTopics & subscriptions.get();
+            if (!running.get()) return;
+            if ((pendingTopics & WATCH_BIT) != 0) {
+                flushWatchHits();
+            }
+            for (StateTopic topic : StateTopic.values()) {
+                if ((topics & topic.bit()) == 0) continue;
+                StackSnapshot stack = null;
+                MemoryRange memory = null;
+                long version;
+                switch (topic) {
+                    case GLOBAL_STACK: stack = vmManager.getPublishedGlobalStack(); break;
+                    case USER_STACK: stack = vmManager.getPublishedUserStack(sessionId); break;
+                    case GLOBAL_MEMORY: memory = vmManager.getPublishedGlobalMemory(); break;
+                    case USER_MEMORY: memory = vmManager.getPublishedUserMemory(sessionId); break;
+                    default: break;
+                }
+                if (stack != null) {
+                    version = stack.version;
+                } else if (memory != null) {
+                    version = memory.version;
+                } else if (topic == StateTopic.CHAT) {
+                    version = vmManager.getChatLog().lastId();
+                } else {
+                    // Session gone, or nothing published yet
+                    continue;
+                }
+                if (version < 0 || version <= pushedVersions[topic.ordinal()]) continue;
+                pushedVersions[topic.ordinal()] = version;
+                if (binary) {
+                    sendFrame(protobuf.event(topic, version, stack, memory));
+                    continue;
+                }
+                String event = "EVENT:" + topic + "@" + version;
+                if (topic != StateTopic.CHAT) {
+                    // Chat events only announce the newest id; clients fetch with GET_CHAT_SINCE
+                    event += ":" + (stack != null ? stack : memory);
+                }
+                send(event);
+            }
+        } finally {
+            pushLock.unlock();
+        }
+    }
+
+    /**
+     * EVENT:WATCH@version:id:address=value,... with the newest value of
+     * every watched cell written since the last push
+     */
+    private void flushWatchHits() {
+        if (binary) {
+            Message event = protobuf.watchEvent(watchVersion.get(), watchHits);
+            if (event != null) sendFrame(event);
+            return;
+        }
+        StringBuilder event = new StringBuilder("EVENT:WATCH@").append(watchVersion.get()).append(':');
+        int entries = 0;
+        for (Long key : watchHits.keySet()) {
+            Long value = watchHits.remove(key);
+            if (value == null) continue;
+            if (entries++ > 0) event.append(',');
+            event.append(key >>> 32).append(':').append(key.intValue()).append('=').append(value);
+        }
+        if (entries > 0) send(event.toString());
+    }
+}
@@ -0,0 +1,138 @@
+package org.finite.planetlangserver.Networking;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import PlanetVM.StateListener;
+import PlanetVM.StateTopic;
+
+/**
+ * Pushes state changes to subscribed connections. A change only marks the
+ * topic pending on each interested subscriber; the first mark schedules a
+ * flush after a short window, so a burst of mutations turns into one push
+ * per topic. Subscribers are indexed by topic, and for the user topics by
+ * user, so a change only visits the subscribers it concerns. Flushes run on
+ * a couple of shared threads and must not block; connections queue their
+ * output rather than write to the socket there.
+ */
+public final class EventPublisher implements StateListener {
+    /** How long changes are collected before a push */
+    private static final int COALESCE_MILLIS = Integer.getInteger("planetlang.server.pushCoalesceMillis", 20);
+    private static final int USER_TOPICS = StateTopic.USER_STACK.bit() | StateTopic.USER_MEMORY.bit();
+
+    /**
+     * A connection that can receive pushed events
+     */
+    public interface Subscriber {
+        /** User whose runtime the USER_* topics refer to */
+        String getUserId();
+
+        /** Topic mask this subscriber wants; call {@link #update} when it changes */
+        int getSubscriptions();
+
+        /**
+         * Mark topics pending, returning true if nothing was pending before
+         * (so the caller should schedule a flush)
+         */
+        boolean markPending(int topics);
+
+        /** Send everything pending */
+        void flush();
+    }
+
+    /** Subscribers of each topic; only the global ones and CHAT are used */
+    private final Map<StateTopic, Set<Subscriber>> byTopic = new EnumMap<>(StateTopic.class);
+    /** Subscribers of any user topic, by user */
+    private final Map<String, Set<Subscriber>> byUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "planetlang-push");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EventPublisher() {
+        for (StateTopic topic : StateTopic.values()) {
+            byTopic.put(topic, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Index a subscriber under the topics it currently wants
+     */
+    public void register(Subscriber subscriber) {
+        update(subscriber);
+    }
+
+    /**
+     * Index a subscriber again after its subscriptions changed. Calls for
+     * one subscriber must not run concurrently.
+     */
+    public void update(Subscriber subscriber) {
+        int subscriptions = subscriber.getSubscriptions();
+        for (StateTopic topic : StateTopic.values()) {
+            if (isUserTopic(topic)) continue;
+            if ((subscriptions & topic.bit()) != 0) {
+                byTopic.get(topic).add(subscriber);
+            } else {
+                byTopic.get(topic).remove(subscriber);
+            }
+        }
+        if ((subscriptions & USER_TOPICS) != 0) {
+            byUser.computeIfAbsent(subscriber.getUserId(), id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        } else {
+            removeFromUser(subscriber);
+        }
+    }
+
+    public void unregister(Subscriber subscriber) {
+        for (Set<Subscriber> subscribers : byTopic.values()) {
+            subscribers.remove(subscriber);
+        }
+        removeFromUser(subscriber);
+    }
+
+    private void removeFromUser(Subscriber subscriber) {
+        byUser.computeIfPresent(subscriber.getUserId(), (id, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    @Override
+    public void stateChanged(StateTopic topic, String userId) {
+        Set<Subscriber> subscribers = !isUserTopic(topic) ? byTopic.get(topic) : userId == null ? null : byUser.get(userId);
+        if (subscribers == null) return;
+        for (Subscriber subscriber : subscribers) {
+            // The index can trail a mask that just changed
+            if ((subscriber.getSubscriptions() & topic.bit()) == 0) continue;
+            publish(subscriber, topic.bit());
+        }
+    }
+
+    @Override
+    public boolean isListening(StateTopic topic, String userId) {
+        if (!isUserTopic(topic)) return !byTopic.get(topic).isEmpty();
+        return userId != null && byUser.containsKey(userId);
+    }
+
+    private static boolean isUserTopic(StateTopic topic) {
+        return (topic.bit() & USER_TOPICS) != 0;
+    }
+
+    /**
+     * Queue topics for one subscriber, e.g. its initial state after subscribing
+     */
+    public void publish(Subscriber subscriber, int topics) {
+        if (subscriber.markPending(topics)) {
+            scheduler.schedule(subscriber::flush, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
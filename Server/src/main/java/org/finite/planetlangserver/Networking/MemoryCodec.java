@@ -0,0 +1,59 @@
+package org.finite.planetlangserver.Networking;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Compact text encoding for runs of memory cells. Each cell is stored as the
+ * zigzag varint of its difference from the previous cell, and the bytes are
+ * Base64 encoded so they fit on one protocol line. Memory is mostly zeros and
+ * small counters, so a typical cell costs one or two characters instead of
+ * a decimal number and a separator.
+ */
+public final class MemoryCodec {
+
+    private MemoryCodec() {
+    }
+
+    public static String encode(long[] values) {
+        byte[] bytes = new byte[values.length * 10];
+        int length = 0;
+        long previous = 0;
+        for (long value : values) {
+            long delta = value - previous;
+            previous = value;
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes[length++] = (byte) zigzag;
+        }
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, length));
+    }
+
+    /**
+     * Decode {@code count} cells
+     * @throws IllegalArgumentException if the text holds fewer cells or isn't valid
+     */
+    public static long[] decode(String text, int count) {
+        byte[] bytes = Base64.getDecoder().decode(text);
+        long[] values = new long[count];
+        int p = 0;
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (p == bytes.length || shift > 63) throw new IllegalArgumentException("Truncated memory range");
+                b = bytes[p++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+}
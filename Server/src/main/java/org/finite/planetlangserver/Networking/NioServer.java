@@ -0,0 +1,458 @@
+package org.finite.planetlangserver.Networking;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import PlanetVM.PlanetVMManager;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+
+/**
+ * Non-blocking server speaking the same protocols as the thread per
+ * connection server. A few selector loops own the sockets and only move
+ * bytes through reusable per-connection buffers; commands run on a shared
+ * worker pool. Each connection's lines are handled one at a time in arrival
+ * order, so responses still come back in request order.
+ */
+final class NioServer {
+    private static final int SELECTORS = Integer.getInteger("planetlang.server.selectors",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int WORKERS = Integer.getInteger("planetlang.server.workers",
+            Runtime.getRuntime().availableProcessors() * 2);
+    private static final int BUFFER_BYTES = Integer.getInteger("planetlang.server.bufferBytes", 8192);
+    /** Lines or frames read ahead of the worker before a connection stops being read */
+    private static final int MAX_QUEUED_LINES = Integer.getInteger("planetlang.server.maxQueuedLines", 256);
+    private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("planetlang.server.idleTimeoutMillis", 60_000L);
+    /** Lines one connection handles before giving its worker to another */
+    private static final int DRAIN_BATCH = 64;
+
+    private final PlanetVMManager vmManager;
+    private final EventPublisher publisher;
+    private final Loop[] loops = new Loop[SELECTORS];
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    NioServer(PlanetVMManager vmManager, EventPublisher publisher) {
+        this.vmManager = vmManager;
+        this.publisher = publisher;
+        AtomicInteger workerNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "planetlang-worker-" + workerNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Listen on {@code port} and start the selector loops. Returns the port
+     * actually bound.
+     */
+    int bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), Server.BACKLOG);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop(Selector.open());
+            Thread t = new Thread(loops[i], "planetlang-selector-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accept connections on the calling thread until stopped, spreading them
+     * over the loops
+     */
+    void acceptLoop() throws IOException {
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                if (!running) return;
+                throw e;
+            }
+            System.out.println("New client connected: " + channel.socket().getInetAddress());
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            Loop loop = loops[next];
+            next = (next + 1) % loops.length;
+            NioConnection connection = new NioConnection(channel, loop);
+            connections.add(connection);
+            loop.execute(connection::register);
+        }
+    }
+
+    void stop() throws IOException {
+        running = false;
+        if (serverChannel != null) serverChannel.close();
+        for (NioConnection connection : connections) {
+            connection.close();
+        }
+        for (Loop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+        workers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "nio, " + SELECTORS + " selectors, " + WORKERS + " workers";
+    }
+
+    /**
+     * One selector and the connections registered with it. Everything that
+     * touches a key or a connection's buffers runs on this loop's thread;
+     * other threads hand it work through {@link #execute}.
+     */
+    private final class Loop implements Runnable {
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        Loop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long nextIdleCheck = System.currentTimeMillis() + 1000;
+            while (running) {
+                try {
+                    selector.select(1000);
+                } catch (IOException e) {
+                    System.err.println("Selector failed: " + e.getMessage());
+                    break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    } catch (IOException | java.nio.channels.CancelledKeyException e) {
+                        connection.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                if (now >= nextIdleCheck) {
+                    nextIdleCheck = now + 1000;
+                    for (SelectionKey key : selector.keys()) {
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (now - connection.lastActivity > IDLE_TIMEOUT_MILLIS) {
+                            System.out.println("Client " + connection.sessionId + " timed out");
+                            connection.close();
+                        }
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down anyway
+            }
+        }
+    }
+
+    private final class NioConnection extends Connection {
+        private final SocketChannel channel;
+        private final Loop loop;
+        private SelectionKey key;
+        volatile long lastActivity = System.currentTimeMillis();
+
+        // Loop thread only: socket buffers and the line or frame being assembled
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private byte[] line = new byte[256];
+        private int lineLength;
+        // Set once the client asked for protobuf; everything after that line is frames
+        private boolean frames;
+        private int frameSize = -1;
+        private int sizeShift;
+        private byte[] sending;
+        private int sendingOffset;
+
+        // Output from any thread, written out by the loop
+        private final Queue<byte[]> outgoing = new ConcurrentLinkedQueue<>();
+        private final AtomicLong outgoingBytes = new AtomicLong();
+        private final AtomicBoolean writeQueued = new AtomicBoolean();
+
+        // Lines and frames waiting for a worker; draining is true while one is scheduled or running
+        private final ReentrantLock inboundLock = new ReentrantLock();
+        private final ArrayDeque<Object> inbound = new ArrayDeque<>();
+        private boolean draining;
+        private boolean readPaused;
+
+        NioConnection(SocketChannel channel, Loop loop) {
+            super(NioServer.this.vmManager, NioServer.this.publisher);
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /**
+         * Runs on the loop. The session is opened on a worker, and lines that
+         * arrive first wait behind it.
+         */
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            draining = true;
+            workers.execute(this::drain);
+        }
+
+        void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (frames) {
+                    if (!readFrame()) return;
+                    continue;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    String text = new String(line, 0, length, StandardCharsets.UTF_8);
+                    // Switch now: the bytes right behind this line may already be a frame
+                    if (text.equals(Protocol.PROTOBUF)) frames = true;
+                    received(text);
+                    lineLength = 0;
+                    continue;
+                }
+                if (lineLength == line.length) {
+                    if (line.length >= Protocol.MAX_MESSAGE_BYTES) {
+                        send("ERROR: Line too long");
+                        close();
+                        return;
+                    }
+                    line = Arrays.copyOf(line, Math.min(line.length * 2, Protocol.MAX_MESSAGE_BYTES));
+                }
+                line[lineLength++] = b;
+            }
+            readBuffer.clear();
+        }
+
+        /**
+         * Consume frame bytes from the read buffer: the varint size a byte at
+         * a time, then as much of the body as is there. Returns false if the
+         * connection was closed over a bad frame.
+         */
+        private boolean readFrame() {
+            if (frameSize < 0) {
+                byte b = readBuffer.get();
+                lineLength |= (b & 0x7f) << sizeShift;
+                sizeShift += 7;
+                if ((b & 0x80) != 0) {
+                    if (sizeShift < 35) return true;
+                    lineLength = Integer.MAX_VALUE;
+                }
+                if (lineLength < 0 || lineLength > Protocol.MAX_MESSAGE_BYTES) {
+                    System.out.println("Client " + sessionId + " sent a frame of " + lineLength + " bytes, disconnecting");
+                    close();
+                    return false;
+                }
+                frameSize = lineLength;
+                lineLength = 0;
+                sizeShift = 0;
+                if (line.length < frameSize) line = new byte[frameSize];
+            } else {
+                int length = Math.min(readBuffer.remaining(), frameSize - lineLength);
+                readBuffer.get(line, lineLength, length);
+                lineLength += length;
+            }
+            if (lineLength < frameSize) return true;
+            try {
+                received(Message.parseFrom(ByteBuffer.wrap(line, 0, frameSize)));
+            } catch (InvalidProtocolBufferException e) {
+                System.out.println("Client " + sessionId + " sent a bad frame: " + e.getMessage());
+                close();
+                return false;
+            }
+            frameSize = -1;
+            lineLength = 0;
+            return true;
+        }
+
+        /**
+         * Queue a line or frame for the worker
+         */
+        private void received(Object item) {
+            boolean schedule;
+            inboundLock.lock();
+            try {
+                inbound.add(item);
+                schedule = !draining;
+                draining = true;
+                // Stop reading a client that is far ahead of its worker
+                if (inbound.size() >= MAX_QUEUED_LINES && !readPaused) {
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            } finally {
+                inboundLock.unlock();
+            }
+            if (schedule) workers.execute(this::drain);
+        }
+
+        /**
+         * Runs on a worker: handle queued lines and frames in order, a batch at a time
+         */
+        private void drain() {
+            if (sessionId == null && running.get()) {
+                send(open(channel.socket().getInetAddress().toString()));
+            }
+            for (int handled = 0; ; handled++) {
+                if (handled == DRAIN_BATCH) {
+                    workers.execute(this::drain);
+                    return;
+                }
+                Object item;
+                boolean resume = false;
+                inboundLock.lock();
+                try {
+                    item = inbound.poll();
+                    if (item == null) {
+                        draining = false;
+                        resume = readPaused;
+                        readPaused = false;
+                    }
+                } finally {
+                    inboundLock.unlock();
+                }
+                if (item == null) {
+                    if (resume) loop.execute(this::resumeReading);
+                    return;
+                }
+                if (!running.get()) continue;
+                if (item instanceof Message) {
+                    sendFrame(respond((Message) item));
+                } else {
+                    String response = respond((String) item);
+                    if (response != null) send(response);
+                }
+            }
+        }
+
+        private void resumeReading() {
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        @Override
+        void send(String text) {
+            enqueue((text + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        void sendFrame(Message message) {
+            enqueue(Protocol.frame(message));
+        }
+
+        private void enqueue(byte[] bytes) {
+            if (outgoingBytes.addAndGet(bytes.length) > MAX_QUEUED_BYTES) {
+                System.out.println("Client " + sessionId + " is not reading, disconnecting");
+                close();
+                return;
+            }
+            outgoing.add(bytes);
+            if (writeQueued.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    try {
+                        write();
+                    } catch (IOException | java.nio.channels.CancelledKeyException e) {
+                        close();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Runs on the loop: copy queued output through the write buffer until
+         * the queue is empty or the socket is full, in which case the loop
+         * calls again once it is writable
+         */
+        void write() throws IOException {
+            writeQueued.set(false);
+            if (!channel.isOpen()) return;
+            while (true) {
+                while (writeBuffer.hasRemaining()) {
+                    if (sending == null) {
+                        sending = outgoing.poll();
+                        sendingOffset = 0;
+                        if (sending == null) break;
+                    }
+                    int length = Math.min(writeBuffer.remaining(), sending.length - sendingOffset);
+                    writeBuffer.put(sending, sendingOffset, length);
+                    sendingOffset += length;
+                    if (sendingOffset == sending.length) {
+                        outgoingBytes.addAndGet(-sending.length);
+                        sending = null;
+                    }
+                }
+                writeBuffer.flip();
+                if (!writeBuffer.hasRemaining()) {
+                    writeBuffer.clear();
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                channel.write(writeBuffer);
+                boolean full = writeBuffer.hasRemaining();
+                writeBuffer.compact();
+                if (full) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        }
+
+        void close() {
+            if (!release()) return;
+            connections.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.out.println("Client handler stopped for session: " + sessionId);
+        }
+    }
+}
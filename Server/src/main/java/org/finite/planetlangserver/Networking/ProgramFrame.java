@@ -0,0 +1,41 @@
+package org.finite.planetlangserver.Networking;
+
+/**
+ * Frames multi-line text (a program, a batch of chat messages) so it travels
+ * as a single protocol line. Newlines become {@code \n} and backslashes are
+ * doubled; {@link #decode} reverses this on the receiving side.
+ */
+public final class ProgramFrame {
+
+    private ProgramFrame() {
+    }
+
+    public static String encode(String source) {
+        StringBuilder sb = new StringBuilder(source.length() + 16);
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String decode(String frame) {
+        if (frame.indexOf('\\') < 0) return frame;
+        StringBuilder sb = new StringBuilder(frame.length());
+        for (int i = 0; i < frame.length(); i++) {
+            char c = frame.charAt(i);
+            if (c == '\\' && i + 1 < frame.length()) {
+                char next = frame.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
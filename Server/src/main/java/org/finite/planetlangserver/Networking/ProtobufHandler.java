@@ -0,0 +1,260 @@
+package org.finite.planetlangserver.Networking;
+
+import java.util.List;
+import java.util.Map;
+import PlanetVM.ChatLog;
+import PlanetVM.ExecutionResult;
+import PlanetVM.MemoryRange;
+import PlanetVM.PlanetVMManager;
+import PlanetVM.StackSnapshot;
+import PlanetVM.StateTopic;
+import org.finite.planetlang.proto.PlanetLangProto.ChatMessage;
+import org.finite.planetlang.proto.PlanetLangProto.ChatRequest;
+import org.finite.planetlang.proto.PlanetLangProto.ChatResponse;
+import org.finite.planetlang.proto.PlanetLangProto.Event;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionRequest;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionResponse;
+import org.finite.planetlang.proto.PlanetLangProto.GetChatMessages;
+import org.finite.planetlang.proto.PlanetLangProto.GetChatMessagesResponse;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateRequest;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateResponse;
+import org.finite.planetlang.proto.PlanetLangProto.KeepAlive;
+import org.finite.planetlang.proto.PlanetLangProto.MemoryCell;
+import org.finite.planetlang.proto.PlanetLangProto.MemoryState;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+import org.finite.planetlang.proto.PlanetLangProto.Request;
+import org.finite.planetlang.proto.PlanetLangProto.Response;
+import org.finite.planetlang.proto.PlanetLangProto.SendChatResponse;
+import org.finite.planetlang.proto.PlanetLangProto.StackOperationRequest;
+import org.finite.planetlang.proto.PlanetLangProto.StackOperationResponse;
+import org.finite.planetlang.proto.PlanetLangProto.StackState;
+import org.finite.planetlang.proto.PlanetLangProto.StatsResponse;
+import org.finite.planetlang.proto.PlanetLangProto.SubscribeRequest;
+import org.finite.planetlang.proto.PlanetLangProto.WatchHit;
+import org.finite.planetlang.proto.PlanetLangProto.WatchRequest;
+import org.finite.planetlang.proto.PlanetLangProto.WatchResponse;
+
+/**
+ * The protobuf side of a {@link Connection}: answers request frames and builds
+ * event frames from the same manager calls the text commands use, but with
+ * the state as numbers instead of rendered strings. Failures are answered
+ * with success=false and the text protocol's "ERROR:"/"THROTTLED:" string.
+ */
+final class ProtobufHandler {
+    /** Cells in a memory read or event without a range, as in the text GET_x_MEMORY */
+    private static final int MEMORY_PREVIEW = MemoryRange.PREVIEW;
+
+    private final Connection connection;
+    private final PlanetVMManager vmManager;
+
+    ProtobufHandler(Connection connection) {
+        this.connection = connection;
+        this.vmManager = connection.vmManager;
+    }
+
+    /**
+     * The reply to one received frame, carrying its message_id
+     */
+    Message handle(Message message) {
+        Message.Builder reply = Message.newBuilder()
+                .setSessionId(connection.sessionId)
+                .setMessageId(message.getMessageId());
+        switch (message.getPayloadCase()) {
+            case KEEP_ALIVE:
+                return reply.setKeepAlive(KeepAlive.newBuilder().setTimestamp(System.currentTimeMillis())).build();
+            case REQUEST:
+                Response response;
+                try {
+                    response = handle(message.getRequest());
+                } catch (Exception e) {
+                    response = error("ERROR: " + e.getMessage());
+                }
+                return reply.setResponse(response).build();
+            default:
+                return reply.setResponse(error("ERROR: Expected a request")).build();
+        }
+    }
+
+    private Response handle(Request request) {
+        switch (request.getRequestTypeCase()) {
+            case EXECUTE_INSTRUCTION: return execute(request.getExecuteInstruction());
+            case STACK_OPERATION: return stackOperation(request.getStackOperation());
+            case GET_STATE: return getState(request.getGetState());
+            case CHAT: return chat(request.getChat());
+            case SUBSCRIBE: return subscribe(request.getSubscribe());
+            case WATCH: return watch(request.getWatch());
+            case STATS:
+                return ok().setStats(StatsResponse.newBuilder().setStats(vmManager.getVmStats())).build();
+            default:
+                return error("ERROR: Unsupported request: " + request.getRequestTypeCase());
+        }
+    }
+
+    private Response execute(ExecuteInstructionRequest request) {
+        String sessionId = connection.sessionId;
+        ExecutionResult result = request.getScope() == ExecuteInstructionRequest.ExecutionScope.GLOBAL
+                ? vmManager.executeGlobal(sessionId, request.getInstruction(), request.getProgram())
+                : vmManager.executeLocal(sessionId, request.getInstruction(), request.getProgram());
+        if (!result.isOk()) return error(result.error);
+
+        ExecuteInstructionResponse.Builder changes = ExecuteInstructionResponse.newBuilder()
+                .setResult("OK")
+                .setVersion(result.version)
+                .setPopped(result.popped)
+                .setStackOverflow(result.stackOverflow)
+                .setMemoryOverflow(result.memoryOverflow);
+        for (long value : result.pushed) {
+            changes.addPushed(value);
+        }
+        for (int i = 0; i < result.addresses.length; i++) {
+            changes.addMemoryWrites(MemoryCell.newBuilder().setAddress(result.addresses[i]).setValue(result.values[i]));
+        }
+        return ok().setExecuteInstruction(changes).build();
+    }
+
+    private Response stackOperation(StackOperationRequest request) {
+        String result = request.getOperation() == StackOperationRequest.OperationType.TAKE_FROM_GLOBAL
+                ? vmManager.takeFromGlobal(connection.sessionId)
+                : vmManager.shareToGlobal(connection.sessionId);
+        if (!result.equals("OK")) return error(result);
+        return ok().setStackOperation(StackOperationResponse.newBuilder().setResult(result)).build();
+    }
+
+    /**
+     * Like the text GET_x@version reads: not_modified when the runtime is
+     * still at if_changed_since, otherwise the state tagged with a version
+     * read before it, so the tag never claims more than the data holds
+     */
+    private Response getState(GetStateRequest request) {
+        String sessionId = connection.sessionId;
+        GetStateRequest.StateType type = request.getStateType();
+        boolean user = type == GetStateRequest.StateType.USER_STACK || type == GetStateRequest.StateType.USER_MEMORY;
+        long version = user ? vmManager.getUserVersion(sessionId) : vmManager.getGlobalVersion();
+        if (version < 0) return error("ERROR: Invalid session");
+        GetStateResponse.Builder state = GetStateResponse.newBuilder().setVersion(version);
+        if (request.hasIfChangedSince() && request.getIfChangedSince() == version) {
+            return ok().setGetState(state.setNotModified(true)).build();
+        }
+
+        switch (type) {
+            case USER_STACK:
+                long[] values = vmManager.getUserStackValues(sessionId);
+                if (values == null) return error("ERROR: Invalid session");
+                state.setStackState(stack(values));
+                break;
+            case GLOBAL_STACK:
+                state.setStackState(stack(vmManager.getGlobalStackValues()));
+                break;
+            default:
+                int count = request.getCount() > 0 ? request.getCount() : MEMORY_PREVIEW;
+                MemoryRange range = user
+                        ? vmManager.getUserMemoryRange(sessionId, request.getStart(), count)
+                        : vmManager.getGlobalMemoryRange(request.getStart(), count);
+                if (!range.isOk()) return error(range.error);
+                // A range is copied at one version, so tag it with that one
+                state.setMemoryState(memory(range)).setVersion(range.version);
+        }
+        return ok().setGetState(state).build();
+    }
+
+    private Response chat(ChatRequest request) {
+        if (request.hasSendMessage()) {
+            ChatLog.Message message = vmManager.postChatMessage(connection.sessionId, request.getSendMessage().getMessage());
+            if (message == null) return error("ERROR: Invalid session");
+            return ok().setChat(ChatResponse.newBuilder().setSendResponse(SendChatResponse.newBuilder()
+                    .setMessageId(message.id)
+                    .setTimestamp(message.timestamp))).build();
+        }
+
+        GetChatMessages get = request.getGetMessages();
+        ChatLog chatLog = vmManager.getChatLog();
+        List<ChatLog.Message> messages = get.getSinceId() > 0 || get.getSinceTimestamp() == 0
+                ? chatLog.since(get.getSinceId())
+                : chatLog.sinceTimestamp(get.getSinceTimestamp());
+        GetChatMessagesResponse.Builder list = GetChatMessagesResponse.newBuilder();
+        for (ChatLog.Message message : messages) {
+            list.addMessages(ChatMessage.newBuilder()
+                    .setMessageId(message.id)
+                    .setUserId(message.userId)
+                    .setMessage(message.text)
+                    .setTimestamp(message.timestamp));
+        }
+        return ok().setChat(ChatResponse.newBuilder().setGetResponse(list)).build();
+    }
+
+    private Response subscribe(SubscribeRequest request) {
+        int topics = connection.parseTopics(String.join(",", request.getTopicsList()));
+        if (request.getUnsubscribe()) {
+            connection.unsubscribe(topics);
+        } else {
+            connection.subscribe(topics);
+        }
+        return ok().build();
+    }
+
+    private Response watch(WatchRequest request) {
+        if (request.getUnwatch() != 0) {
+            int watchId = request.getUnwatch();
+            if (!vmManager.unwatchGlobalMemory(connection, watchId)) return error("ERROR: Unknown watch " + watchId);
+            return ok().build();
+        }
+        int watchId = vmManager.watchGlobalMemory(connection, request.getStart(), request.getCount());
+        return ok().setWatch(WatchResponse.newBuilder().setWatchId(watchId)).build();
+    }
+
+    /**
+     * Event for a topic at {@code version} carrying the published stack or
+     * memory, whichever is given; neither for CHAT, whose version is the
+     * newest message id
+     */
+    Message event(StateTopic topic, long version, StackSnapshot stack, MemoryRange memory) {
+        Event.Builder event = Event.newBuilder().setTopic(topic.name()).setVersion(version);
+        if (stack != null) event.setStackState(stack(stack.values));
+        if (memory != null) event.setMemoryState(memory(memory));
+        return Message.newBuilder().setSessionId(connection.sessionId).setEvent(event).build();
+    }
+
+    /**
+     * WATCH event with the newest value of every watched cell written since
+     * the last push, keyed as in {@link Connection}; null if there are none
+     */
+    Message watchEvent(long version, Map<Long, Long> hits) {
+        Event.Builder event = Event.newBuilder().setTopic("WATCH").setVersion(version);
+        for (Long key : hits.keySet()) {
+            Long value = hits.remove(key);
+            if (value == null) continue;
+            event.addWatchHits(WatchHit.newBuilder()
+                    .setWatchId((int) (key >>> 32))
+                    .setAddress(key.intValue())
+                    .setValue(value));
+        }
+        if (event.getWatchHitsCount() == 0) return null;
+        return Message.newBuilder().setSessionId(connection.sessionId).setEvent(event).build();
+    }
+
+    private static StackState stack(long[] topFirst) {
+        StackState.Builder stack = StackState.newBuilder();
+        for (long value : topFirst) {
+            stack.addValues(value);
+        }
+        return stack.build();
+    }
+
+    private static MemoryState memory(MemoryRange range) {
+        MemoryState.Builder memory = MemoryState.newBuilder()
+                .setStart(range.start)
+                .setMemorySize(range.memorySize);
+        for (long value : range.values) {
+            memory.addCells(value);
+        }
+        return memory.build();
+    }
+
+    private static Response.Builder ok() {
+        return Response.newBuilder().setSuccess(true);
+    }
+
+    private static Response error(String message) {
+        return Response.newBuilder().setSuccess(false).setErrorMessage(message).build();
+    }
+}
@@ -0,0 +1,77 @@
+package org.finite.planetlangserver.Networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+
+/**
+ * Wire details shared by server and client. A connection starts with text
+ * lines; after the SESSION: greeting the client may send {@link #PROTOBUF},
+ * and a server that answers with the same line switches both directions to
+ * length-delimited {@link Message} frames from the next byte on. Servers that
+ * don't know the line answer with an error and the connection stays text.
+ */
+public final class Protocol {
+    public static final String PROTOBUF = "PROTOCOL:protobuf";
+    /** Longest line or frame either side accepts */
+    public static final int MAX_MESSAGE_BYTES = Integer.getInteger("planetlang.server.maxLineBytes", 1 << 20);
+
+    private Protocol() {
+    }
+
+    /**
+     * Read one UTF-8 line, without its "\n" or "\r\n". Reads a byte at a time,
+     * so give it a buffered stream; nothing past the line is consumed, which
+     * lets frames follow on the same stream. Returns null at end of stream.
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            if (line.size() >= MAX_MESSAGE_BYTES) throw new IOException("Line too long");
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read one length-delimited frame, or null at end of stream
+     */
+    public static Message readFrame(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+        int size = CodedInputStream.readRawVarint32(first, in);
+        if (size < 0 || size > MAX_MESSAGE_BYTES) throw new IOException("Frame of " + size + " bytes refused");
+        byte[] bytes = in.readNBytes(size);
+        if (bytes.length < size) throw new EOFException("Connection closed inside a frame");
+        return Message.parseFrom(bytes);
+    }
+
+    /**
+     * A message with its length prefix, to be written in one call
+     */
+    public static byte[] frame(Message message) {
+        int size = message.getSerializedSize();
+        byte[] bytes = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeUInt32NoTag(size);
+            message.writeTo(out);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // Only thrown when the array is the wrong size
+            throw new IllegalStateException(e);
+        }
+        return bytes;
+    }
+}
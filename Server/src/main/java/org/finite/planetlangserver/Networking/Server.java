@@ -1,30 +1,92 @@
 package org.finite.planetlangserver.Networking;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.json.*;
 import PlanetVM.PlanetVMManager;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
 
 /**
  *
  * @author GAMER
  */
 public class Server {
+    /**
+     * How connections are served: a platform thread each, a virtual thread
+     * each, or a few selector loops handing commands to a worker pool
+     */
+    public enum Mode { THREADS, VIRTUAL, NIO }
+
+    private static final Mode DEFAULT_MODE = Mode.valueOf(System.getProperty("planetlang.server.mode", "threads").toUpperCase());
+    /** Connections the OS may queue before they are accepted */
+    static final int BACKLOG = Integer.getInteger("planetlang.server.backlog", 1024);
+
+    private final Mode mode;
+    /** Runs one ClientHandler per connection; unused in NIO mode */
+    private final ExecutorService connectionExecutor;
+    private volatile int port = -1;
     private ServerSocket serverSocket;
-    private List<ClientHandler> clients = new ArrayList<>();
+    private NioServer nioServer;
+    private Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
     private PlanetVMManager vmManager;
+    private final EventPublisher publisher = new EventPublisher();
+
+    public Server() {
+        this(DEFAULT_MODE);
+    }
+
+    public Server(Mode mode) {
+        this(mode, connectionExecutor(mode));
+    }
+
+    /**
+     * Serve each connection as a blocking handler task on the given executor,
+     * which should not queue tasks behind each other: a handler only returns
+     * when its client disconnects
+     */
+    public Server(ExecutorService connectionExecutor) {
+        this(Mode.THREADS, connectionExecutor);
+    }
+
+    private Server(Mode mode, ExecutorService connectionExecutor) {
+        this.mode = mode;
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    private static ExecutorService connectionExecutor(Mode mode) {
+        switch (mode) {
+            case VIRTUAL:
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("planetlang-client-", 1).factory());
+            case THREADS:
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("planetlang-client-", 1).factory());
+            default:
+                return null;
+        }
+    }
 
     public void start(int port) throws IOException {
         vmManager = PlanetVMManager.getInstance();
-        serverSocket = new ServerSocket(port);
-        System.out.println("PlanetLang Server started on port " + port);
+        vmManager.addStateListener(publisher);
+        if (mode == Mode.NIO) {
+            nioServer = new NioServer(vmManager, publisher);
+            this.port = nioServer.bind(port);
+            System.out.println("PlanetLang Server started on port " + this.port + " (" + nioServer + ")");
+            nioServer.acceptLoop();
+            return;
+        }
+
+        serverSocket = new ServerSocket(port, BACKLOG);
+        this.port = serverSocket.getLocalPort();
+        System.out.println("PlanetLang Server started on port " + this.port + " (" + mode.toString().toLowerCase() + ")");
 
         while(true) {
             Socket clientSocket = serverSocket.accept();
@@ -32,10 +94,17 @@ public class Server {
 
             ClientHandler clientHandler = new ClientHandler(clientSocket);
             clients.add(clientHandler);
-            new Thread(clientHandler).start();
+            connectionExecutor.execute(clientHandler);
         }
     }
 
+    /**
+     * The port being listened on once started, e.g. after starting on port 0
+     */
+    public int getPort() {
+        return port;
+    }
+
     public void stop() throws IOException {
         for (ClientHandler client : clients) {
             client.stop();
@@ -43,19 +112,26 @@ public class Server {
         if (serverSocket != null && !serverSocket.isClosed()) {
             serverSocket.close();
         }
+        if (nioServer != null) nioServer.stop();
+        if (connectionExecutor != null) connectionExecutor.shutdown();
+        if (vmManager != null) vmManager.removeStateListener(publisher);
+        publisher.shutdown();
     }
 
-    private class ClientHandler implements Runnable {
+    private class ClientHandler extends Connection implements Runnable {
         private static final int DEFAULT_READ_TIMEOUT = 60000; // 60 seconds
         
         private Socket clientSocket;
-        private PrintWriter out;
-        private BufferedReader in;
-        private final AtomicBoolean running = new AtomicBoolean(true);
-        private String sessionId;
+        private InputStream in;
+        private OutputStream output;
+        /** Lines and frames waiting for the writer, in send order */
+        private final BlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+        private final AtomicLong outgoingBytes = new AtomicLong();
+        private Thread writer;
         private long lastActivity = System.currentTimeMillis();
 
         public ClientHandler(Socket socket) {
+            super(Server.this.vmManager, Server.this.publisher);
             this.clientSocket = socket;
         }
 
@@ -67,19 +143,26 @@ public class Server {
                 clientSocket.setKeepAlive(true);
                 clientSocket.setTcpNoDelay(true);
                 
-                out = new PrintWriter(clientSocket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                // Only the writer touches the socket's output, so neither this
+                // thread nor the publisher's wait on a client that reads slowly
+                output = new BufferedOutputStream(clientSocket.getOutputStream());
+                writer = Thread.ofVirtual().name("planetlang-writer-" + clientSocket.getPort()).start(this::writeLoop);
+                // Read bytes, not chars, so frames can follow the lines on the same stream
+                in = new BufferedInputStream(clientSocket.getInputStream());
 
                 // Create user session
-                sessionId = vmManager.createUserSession(clientSocket.getInetAddress().toString());
-                out.println("SESSION:" + sessionId);
+                send(open(clientSocket.getInetAddress().toString()));
                 updateActivity();
 
                 String inputLine;
-                while (running.get() && (inputLine = readLineWithTimeout()) != null) {
-                    System.out.println("Received from " + sessionId + ": " + inputLine);
-                    String response = processCommand(inputLine);
-                    out.println(response);
+                while (running.get() && !isBinary() && (inputLine = readLineWithTimeout()) != null) {
+                    String response = respond(inputLine);
+                    if (response != null) send(response);
+                    updateActivity();
+                }
+                Message message;
+                while (running.get() && isBinary() && (message = readFrameWithTimeout()) != null) {
+                    sendFrame(respond(message));
                     updateActivity();
                 }
             } catch (SocketTimeoutException e) {
@@ -95,7 +178,7 @@ public class Server {
         
         private String readLineWithTimeout() throws IOException {
             try {
-                return in.readLine();
+                return Protocol.readLine(in);
             } catch (SocketTimeoutException e) {
                 // Check if client has been inactive for too long
                 long inactiveTime = System.currentTimeMillis() - lastActivity;
@@ -106,55 +189,65 @@ public class Server {
             }
         }
         
+        private Message readFrameWithTimeout() throws IOException {
+            try {
+                return Protocol.readFrame(in);
+            } catch (SocketTimeoutException e) {
+                if (System.currentTimeMillis() - lastActivity > DEFAULT_READ_TIMEOUT) {
+                    throw e;
+                }
+                return null;
+            }
+        }
+
         private void updateActivity() {
             lastActivity = System.currentTimeMillis();
         }
 
-        private String processCommand(String command) {
+        @Override
+        void send(String line) {
+            enqueue((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        void sendFrame(Message message) {
+            enqueue(Protocol.frame(message));
+        }
+
+        private void enqueue(byte[] bytes) {
+            if (outgoingBytes.addAndGet(bytes.length) > MAX_QUEUED_BYTES) {
+                System.out.println("Client " + sessionId + " is not reading, disconnecting");
+                stop();
+                return;
+            }
+            outgoing.add(bytes);
+        }
+
+        /**
+         * Runs on the writer: write queued output in order, flushing once
+         * nothing more is waiting, so a client that pipelines gets its
+         * replies back to back
+         */
+        private void writeLoop() {
             try {
-                if (command.startsWith("LOCAL:")) {
-                    String instruction = command.substring(6);
-                    return vmManager.executeLocalInstruction(sessionId, instruction);
-                } else if (command.startsWith("GLOBAL:")) {
-                    String instruction = command.substring(7);
-                    return vmManager.executeGlobalInstruction(sessionId, instruction);
-                } else if (command.equals("SHARE")) {
-                    return vmManager.shareToGlobal(sessionId);
-                } else if (command.equals("TAKE")) {
-                    return vmManager.takeFromGlobal(sessionId);
-                } else if (command.equals("GET_USER_STACK")) {
-                    return "USER_STACK:" + vmManager.getUserStack(sessionId);
-                } else if (command.equals("GET_GLOBAL_STACK")) {
-                    return "GLOBAL_STACK:" + vmManager.getGlobalStack();
-                } else if (command.equals("GET_GLOBAL_MEMORY")) {
-                    return "GLOBAL_MEMORY:" + vmManager.getGlobalMemory();
-                } else if (command.equals("GET_USER_MEMORY")) {
-                    return "USER_MEMORY:" + vmManager.getUserMemory(sessionId);
-                } else if (command.startsWith("CHAT:")) {
-                    String message = command.substring(5);
-                    return vmManager.addChatMessage(sessionId, message);
-                } else if (command.equals("GET_CHAT_MESSAGES")) {
-                    return "CHAT_MESSAGES:" + vmManager.getChatMessages();
-                } else if (command.equals("PING")) {
-                    // Keep-alive response
-                    return "PONG";
-                } else {
-                    return "ERROR: Unknown command: " + command;
+                while (true) {
+                    byte[] bytes = outgoing.take();
+                    output.write(bytes);
+                    outgoingBytes.addAndGet(-bytes.length);
+                    if (outgoing.isEmpty()) output.flush();
                 }
-            } catch (Exception e) {
-                return "ERROR: " + e.getMessage();
+            } catch (IOException e) {
+                // The read loop sees the broken connection and stops
+            } catch (InterruptedException e) {
+                // Stopped
             }
         }
 
         public void stop() {
-            running.set(false);
+            if (!release()) return;
+            if (writer != null) writer.interrupt();
             try {
-                // Note: Add session cleanup if PlanetVMManager supports it
-                // if (sessionId != null) {
-                //     vmManager.removeUserSession(sessionId);
-                // }
                 if (in != null) in.close();
-                if (out != null) out.close();
                 if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
                 }
@@ -0,0 +1,139 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks execution change lists: applying the listed pops, pushes and memory
+ * writes to the state before a run must give the state after it, and runs
+ * that write or push too much report an overflow instead of a long list
+ */
+public class ChangeLogTest {
+    private static final int PROGRAMS = 2_000;
+    private static final String[] MNEMONICS = {
+        "push", "pop", "dup", "swap", "add", "sub", "mul", "div", "load", "store", "clear"
+    };
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testChangesReplayState(seed);
+        testManyWritesOverflow();
+        testManyPushesOverflow();
+    }
+
+    public static void testChangesReplayState(long seed) {
+        System.out.println("=== Testing Change Replay (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        Runtime runtime = new Runtime(8, 64);
+        int mismatches = 0;
+        for (int i = 0; i < PROGRAMS; i++) {
+            String source = randomProgram(random, 1 + random.nextInt(30));
+            Program program = Compiler.compile(source);
+            long[] stack = runtime.stack.toArray();
+            long[] memory = runtime.memory.toArray();
+
+            if (!runtime.execute(program)) {
+                // Overflow results carry no changes; start the next program clean
+                runtime.stack.clear();
+                continue;
+            }
+            String changes = runtime.describeChanges();
+            long[][] replayed = replay(changes, stack, memory);
+            if (!Arrays.equals(replayed[0], runtime.stack.toArray()) || !Arrays.equals(replayed[1], runtime.memory.toArray())) {
+                mismatches++;
+                if (mismatches <= 3) {
+                    System.out.println("✗ " + changes + " after:\n" + source);
+                }
+            }
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + PROGRAMS + " change lists replayed to the same state");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + PROGRAMS + " change lists were wrong");
+        }
+        System.out.println();
+    }
+
+    public static void testManyWritesOverflow() {
+        System.out.println("=== Testing Write Log Overflow ===");
+
+        Runtime runtime = new Runtime(ChangeLog.MAX_WRITES * 2, 64);
+        StringBuilder source = new StringBuilder();
+        for (int address = 0; address <= ChangeLog.MAX_WRITES; address++) {
+            source.append("push 1\nstore ").append(address).append('\n');
+        }
+        runtime.execute(Compiler.compile(source.toString()));
+        String changes = runtime.describeChanges();
+
+        if (changes.endsWith(" mem=*") && !changes.contains("push=")) {
+            System.out.println("✓ " + (ChangeLog.MAX_WRITES + 1) + " written cells reported as mem=*");
+        } else {
+            System.out.println("✗ Got " + changes);
+        }
+        System.out.println();
+    }
+
+    public static void testManyPushesOverflow() {
+        System.out.println("=== Testing Push Log Overflow ===");
+
+        // Fill a user-sized stack, the largest result a single program could produce
+        int depth = 1 << 16;
+        Runtime runtime = new Runtime(8, depth);
+        runtime.execute(Compiler.compile("push 1"));
+        StringBuilder source = new StringBuilder("pop\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("push ").append(Long.MIN_VALUE + i).append('\n');
+        }
+        boolean ran = runtime.execute(Compiler.compile(source.toString()));
+        String changes = runtime.describeChanges();
+
+        if (ran && changes.contains(" stack=*") && !changes.contains("push=") && !changes.contains("pop=")
+                && changes.length() < 100) {
+            System.out.println("✓ " + depth + " pushed values reported as stack=*");
+        } else {
+            System.out.println("✗ ran=" + ran + ", got " + changes.substring(0, java.lang.Math.min(200, changes.length())));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Apply "OK@v pop=k push=a,b mem=addr:value" to a bottom-first stack and memory
+     */
+    private static long[][] replay(String changes, long[] stack, long[] memory) {
+        long[] newMemory = memory.clone();
+        int size = stack.length;
+        long[] pushes = new long[0];
+        for (String part : changes.split(" ")) {
+            if (part.startsWith("pop=")) {
+                size -= Integer.parseInt(part.substring(4));
+            } else if (part.startsWith("push=")) {
+                pushes = Arrays.stream(part.substring(5).split(",")).mapToLong(Long::parseLong).toArray();
+            } else if (part.startsWith("mem=")) {
+                for (String cell : part.substring(4).split(",")) {
+                    int colon = cell.indexOf(':');
+                    newMemory[Integer.parseInt(cell.substring(0, colon))] = Long.parseLong(cell.substring(colon + 1));
+                }
+            }
+        }
+        long[] newStack = Arrays.copyOf(stack, size + pushes.length);
+        System.arraycopy(pushes, 0, newStack, size, pushes.length);
+        return new long[][] { newStack, newMemory };
+    }
+
+    private static String randomProgram(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            String mnemonic = MNEMONICS[random.nextInt(MNEMONICS.length)];
+            sb.append(mnemonic);
+            if (mnemonic.equals("push")) {
+                sb.append(' ').append(random.nextInt(200) - 100);
+            } else if (mnemonic.equals("load") || mnemonic.equals("store")) {
+                sb.append(' ').append(random.nextInt(10) - 1);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
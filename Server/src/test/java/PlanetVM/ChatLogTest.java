@@ -0,0 +1,185 @@
+package PlanetVM;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks the chat ring buffer: incremental reads, wrap-around, that
+ * concurrent writers never lose or reorder ids for a polling reader, and
+ * that writers lapping each other in a small ring leave it holding the
+ * newest messages, and that a stalled writer holds up no other writer
+ */
+public class ChatLogTest {
+    private static final int WRITERS = 8;
+    private static final int MESSAGES = 10_000;
+    private static final int SMALL_RING = WRITERS / 2;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        testIncrementalFetch();
+        testConcurrentWritersWithPollingReader();
+        testWritersLappingSmallRing();
+        testStalledWriterDoesNotBlock();
+    }
+
+    public static void testIncrementalFetch() {
+        System.out.println("=== Testing Incremental Fetch ===");
+
+        ChatLog log = new ChatLog(4);
+        for (int i = 1; i <= 3; i++) {
+            log.add("user", "hello " + i);
+        }
+        List<ChatLog.Message> newer = log.since(1);
+        boolean incremental = newer.size() == 2 && newer.get(0).id == 2 && newer.get(1).text.equals("hello 3");
+
+        for (int i = 4; i <= 10; i++) {
+            log.add("user", "hello " + i);
+        }
+        List<ChatLog.Message> wrapped = log.since(0);
+        boolean keptNewest = wrapped.size() == 4 && wrapped.get(0).id == 7 && wrapped.get(3).id == 10;
+        boolean formatted = wrapped.get(3).toString().matches("\\[\\d\\d:\\d\\d:\\d\\d\\] user: hello 10");
+
+        if (incremental && keptNewest && formatted && log.since(10).isEmpty()) {
+            System.out.println("✓ Reads return only newer messages and the ring keeps the newest 4");
+        } else {
+            System.out.println("✗ incremental=" + incremental + " keptNewest=" + keptNewest + " formatted=" + formatted);
+        }
+        System.out.println();
+    }
+
+    /**
+     * A reader polling with the last id it got sees every id exactly once, in
+     * order, as long as it keeps up with the ring
+     */
+    public static void testConcurrentWritersWithPollingReader() throws InterruptedException {
+        System.out.println("=== Testing Concurrent Writers ===");
+
+        ChatLog log = new ChatLog(WRITERS * MESSAGES);
+        CountDownLatch done = new CountDownLatch(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            String user = "writer-" + w;
+            new Thread(() -> {
+                for (int i = 0; i < MESSAGES; i++) {
+                    log.add(user, "message " + i);
+                }
+                done.countDown();
+            }).start();
+        }
+
+        long cursor = 0;
+        long received = 0;
+        boolean ordered = true;
+        while (done.getCount() > 0 || cursor < log.lastId()) {
+            for (ChatLog.Message message : log.since(cursor)) {
+                ordered &= message.id == cursor + 1;
+                cursor = message.id;
+                received++;
+            }
+        }
+
+        long expected = (long) WRITERS * MESSAGES;
+        if (ordered && received == expected) {
+            System.out.println("✓ Polling reader saw all " + expected + " messages once, in id order");
+        } else {
+            System.out.println("✗ ordered=" + ordered + " received=" + received + " of " + expected);
+        }
+        System.out.println();
+    }
+
+    /**
+     * With more writers than slots, writers a lap apart race for the same
+     * slot. Once a writer's add returns, its slot must never hold an older
+     * message again, and once all writers stop the ring must hold exactly
+     * the newest ids.
+     */
+    public static void testWritersLappingSmallRing() throws InterruptedException {
+        System.out.println("=== Testing Writers Lapping a Small Ring ===");
+
+        AtomicInteger stale = new AtomicInteger();
+        int incomplete = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            ChatLog log = new ChatLog(SMALL_RING);
+            // Newest id per slot whose add has returned
+            AtomicLongArray added = new AtomicLongArray(SMALL_RING);
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(WRITERS);
+            for (int w = 0; w < WRITERS; w++) {
+                String user = "lapper-" + w;
+                new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < MESSAGES / 10; i++) {
+                        for (int slot = 0; slot < SMALL_RING; slot++) {
+                            long expected = added.get(slot);
+                            if (log.idAt(slot) < expected) stale.incrementAndGet();
+                        }
+                        long id = log.add(user, "message " + i).id;
+                        added.accumulateAndGet((int) (id % SMALL_RING), id, Math::max);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            start.countDown();
+            done.await();
+
+            List<ChatLog.Message> newest = log.since(0);
+            long last = log.lastId();
+            boolean complete = newest.size() == SMALL_RING;
+            for (int i = 0; complete && i < SMALL_RING; i++) {
+                complete = newest.get(i).id == last - SMALL_RING + 1 + i;
+            }
+            if (!complete) incomplete++;
+        }
+
+        if (stale.get() == 0 && incomplete == 0) {
+            System.out.println("✓ " + ROUNDS + " rounds of " + WRITERS + " writers never left an older message in a "
+                    + SMALL_RING + "-slot ring");
+        } else {
+            System.out.println("✗ Slots went back to an older message " + stale.get() + " times, "
+                    + incomplete + " of " + ROUNDS + " rounds ended without the newest messages");
+        }
+        System.out.println();
+    }
+
+    /**
+     * A writer that took its id but hasn't stored its message yet must not
+     * hold up writers lapping it, and must not store over them when it
+     * finally gets to run
+     */
+    public static void testStalledWriterDoesNotBlock() throws InterruptedException {
+        System.out.println("=== Testing a Stalled Writer ===");
+
+        ChatLog log = new ChatLog(SMALL_RING);
+        ChatLog.Message stalled = log.claim("stalled", "late");
+        Thread lapper = new Thread(() -> {
+            for (int i = 0; i < 3 * SMALL_RING; i++) {
+                log.add("lapper", "message " + i);
+            }
+        });
+        lapper.setDaemon(true);
+        lapper.start();
+        lapper.join(1000);
+        if (lapper.isAlive()) {
+            System.out.println("✗ Writers lapping a stalled one never finished");
+            System.out.println();
+            return;
+        }
+
+        log.publish(stalled);
+        int slot = (int) (stalled.id % SMALL_RING);
+        List<ChatLog.Message> newest = log.since(0);
+        long last = log.lastId();
+        boolean complete = newest.size() == SMALL_RING && newest.get(0).id == last - SMALL_RING + 1;
+        if (log.idAt(slot) > stalled.id && complete) {
+            System.out.println("✓ " + 3 * SMALL_RING + " writes lapped a stalled writer, whose late message was dropped");
+        } else {
+            System.out.println("✗ slot holds " + log.idAt(slot) + " after the stalled " + stalled.id + ", complete=" + complete);
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,175 @@
+package PlanetVM;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Compares the server modes under many mostly idle connections: opens the
+ * idle connections, then has the active ones send PINGs back to back and
+ * reports round trips per second, latency percentiles, platform threads and
+ * resident memory. Clients run in the same JVM on virtual threads, so the
+ * numbers are for comparing modes rather than absolute.
+ * <p>
+ * Usage: ConnectionBenchmark [idle] [active] [seconds] [modes]. The defaults
+ * are 10000 idle, 1000 active, 5 s, all modes. Every connection needs two
+ * file descriptors here, so raise {@code ulimit -n} accordingly.
+ */
+public class ConnectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        List<Server.Mode> modes = new ArrayList<>();
+        if (args.length > 3) {
+            for (String name : args[3].split(",")) modes.add(Server.Mode.valueOf(name.trim().toUpperCase()));
+        } else {
+            modes.addAll(Arrays.asList(Server.Mode.values()));
+        }
+
+        System.out.println("=== Connection Benchmark: " + idle + " idle + " + active + " active, " + seconds + " s ===");
+        for (Server.Mode mode : modes) {
+            run(mode, idle, active, seconds);
+            System.gc();
+            Thread.sleep(1000);
+        }
+    }
+
+    private static void run(Server.Mode mode, int idle, int active, int seconds) throws Exception {
+        PrintStream console = System.out;
+        // The server logs every command
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        List<Socket> sockets = new ArrayList<>();
+        AtomicBoolean measuring = new AtomicBoolean();
+        AtomicBoolean stopping = new AtomicBoolean();
+        long[][] latencies = new long[active][];
+        int[] counts = new int[active];
+        String result;
+        try {
+            long openStart = System.nanoTime();
+            for (int i = 0; i < idle; i++) {
+                Socket socket = new Socket("localhost", server.getPort());
+                sockets.add(socket);
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            }
+            long openMillis = (System.nanoTime() - openStart) / 1_000_000;
+
+            CountDownLatch ready = new CountDownLatch(active);
+            CountDownLatch done = new CountDownLatch(active);
+            for (int c = 0; c < active; c++) {
+                Socket socket = new Socket("localhost", server.getPort());
+                sockets.add(socket);
+                int client = c;
+                Thread.ofVirtual().start(() -> {
+                    long[] samples = new long[1 << 16];
+                    try {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                        in.readLine();
+                        ready.countDown();
+                        while (!stopping.get()) {
+                            long start = System.nanoTime();
+                            out.println("PING");
+                            if (in.readLine() == null) break;
+                            if (measuring.get() && counts[client] < samples.length) {
+                                samples[counts[client]++] = System.nanoTime() - start;
+                            }
+                        }
+                    } catch (IOException e) {
+                        ready.countDown();
+                    } finally {
+                        latencies[client] = samples;
+                        done.countDown();
+                    }
+                });
+            }
+            ready.await();
+            Thread.sleep(1000); // warm up
+            measuring.set(true);
+            Thread.sleep(seconds * 1000L);
+            measuring.set(false);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long rss = residentKilobytes();
+            stopping.set(true);
+            done.await();
+            result = report(mode, openMillis, latencies, counts, seconds, threads, rss);
+        } catch (IOException e) {
+            result = "✗ " + mode + " failed after " + sockets.size() + " connections: " + e + "\n";
+        } finally {
+            stopping.set(true);
+            for (Socket socket : sockets) socket.close();
+            server.stop();
+        }
+        // Let the handlers finish logging their disconnects
+        Thread.sleep(1000);
+        System.setOut(console);
+        System.out.println(result);
+    }
+
+    private static String report(Server.Mode mode, long openMillis, long[][] latencies, int[] counts,
+                               int seconds, int threads, long rss) {
+        int total = 0;
+        for (int count : counts) total += count;
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < counts.length; c++) {
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+
+        return mode + ":\n"
+                + "  idle connections opened in " + openMillis + " ms\n"
+                + "  " + (total / seconds) + " round trips/s, latency p50=" + micros(all, 0.50)
+                + " p99=" + micros(all, 0.99) + " p99.9=" + micros(all, 0.999) + "\n"
+                + "  " + threads + " platform threads, " + (rss < 0 ? "RSS unknown" : (rss / 1024) + " MB resident") + "\n";
+    }
+
+    private static String micros(long[] sorted, double quantile) {
+        if (sorted.length == 0) return "-";
+        return (sorted[(int) java.lang.Math.min(sorted.length - 1, sorted.length * quantile)] / 1000) + "us";
+    }
+
+    /**
+     * Resident set size from /proc, or -1 where that isn't available
+     */
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+package PlanetVM;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks the instruction scanner against the String.split/parseLong rules it
+ * replaced, and that scanning valid lines does not allocate
+ */
+public class InstructionScannerTest {
+    private static final int CASES = 50_000;
+    private static final int MEASURED_RUNS = 100_000;
+    private static final String[] MNEMONICS = {
+        "push", "PUSH", "Push", "pop", "dup", "swap", "add", "sub", "mul", "div",
+        "load", "Load", "store", "STORE", "print", "clear", "jmp", "pushx", "", "pu"
+    };
+    private static final String[] OPERANDS = {
+        "0", "1", "-1", "+7", "42", "-", "+", "12a", "0x10", "007",
+        "2147483647", "2147483648", "-2147483648", "-2147483649",
+        "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+        "99999999999999999999", "1_000"
+    };
+    private static final String[] SPACES = { " ", "  ", "\t", " \t ", "\r" };
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testMatchesReferenceParser(seed);
+        testScanningDoesNotAllocate();
+    }
+
+    /**
+     * Random lines scan to the same opcode, operand and error message as the
+     * old split-based parser produced
+     */
+    public static void testMatchesReferenceParser(long seed) {
+        System.out.println("=== Testing Scanner vs Reference Parser (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        InstructionScanner scanner = new InstructionScanner();
+        int mismatches = 0;
+        for (int i = 0; i < CASES; i++) {
+            StringBuilder line = new StringBuilder();
+            if (random.nextBoolean()) line.append(SPACES[random.nextInt(SPACES.length)]);
+            line.append(MNEMONICS[random.nextInt(MNEMONICS.length)]);
+            if (random.nextInt(4) > 0) {
+                line.append(SPACES[random.nextInt(SPACES.length)]).append(OPERANDS[random.nextInt(OPERANDS.length)]);
+            }
+            if (random.nextInt(8) == 0) line.append(" trailing");
+            String text = line.toString();
+
+            String expected = reference(text);
+            String actual = scanner.reset(text).next() ? describe(scanner) : "blank";
+            if (!expected.equals(actual)) {
+                mismatches++;
+                if (mismatches <= 5) {
+                    System.out.println("✗ '" + text + "': expected " + expected + ", got " + actual);
+                }
+            }
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + CASES + " lines matched the reference parser");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + CASES + " lines differed");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Feeds valid lines through the legacy single-line path and compares the
+     * thread's allocated byte counter before and after
+     */
+    public static void testScanningDoesNotAllocate() {
+        System.out.println("=== Testing Scanner Allocation ===");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("- Thread allocation counters not supported on this JVM, skipping");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Runtime runtime = new Runtime(16, 64);
+        String[] lines = { "PUSH -9223372036854775808", "push 12", "Mul", "  store\t3 ", "load 3", "pop", "clear" };
+        for (int i = 0; i < 20_000; i++) {
+            runtime.ExecuteInstruction(lines[i % lines.length]);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            runtime.ExecuteInstruction(lines[i % lines.length]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // Same noise allowance as RuntimeAllocationTest: under a byte per line
+        if (allocated < MEASURED_RUNS) {
+            System.out.println("✓ " + MEASURED_RUNS + " lines scanned without allocating (" + allocated + " bytes of noise)");
+        } else {
+            System.out.println("✗ " + MEASURED_RUNS + " lines allocated " + allocated + " bytes");
+        }
+        System.out.println();
+    }
+
+    private static String describe(InstructionScanner scanner) {
+        if (scanner.error() != InstructionScanner.OK) return "error " + scanner.errorMessage();
+        return Opcodes.name(scanner.opcode()) + " " + scanner.operand();
+    }
+
+    /**
+     * The tokenizing rules of the old Compiler.parse
+     */
+    private static String reference(String line) {
+        line = line.trim();
+        if (line.isEmpty()) return "blank";
+        String[] tokens = line.split("\\s+");
+        int opcode = -1;
+        for (int op = 0; op <= Opcodes.CLEAR; op++) {
+            if (Opcodes.name(op).equals(tokens[0].toLowerCase())) opcode = op;
+        }
+        if (opcode < 0) return "error Unknown instruction: " + tokens[0];
+        if (!Opcodes.hasOperand(opcode)) return Opcodes.name(opcode) + " 0";
+        if (tokens.length < 2) return "error Missing operand for " + Opcodes.name(opcode);
+        try {
+            long operand = opcode == Opcodes.PUSH ? Long.parseLong(tokens[1]) : Integer.parseInt(tokens[1]);
+            return Opcodes.name(opcode) + " " + operand;
+        } catch (NumberFormatException e) {
+            return "error " + (opcode == Opcodes.PUSH ? "Invalid number for push: " : "Invalid address for " + Opcodes.name(opcode) + ": ") + tokens[1];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Differential test: random programs must leave identical state whether they
+ * are interpreted or run as JIT-generated bytecode
+ */
+public class JitDifferentialTest {
+    private static final int PROGRAMS = 2_000;
+    private static final String[] MNEMONICS = {
+        "push", "pop", "dup", "swap", "add", "sub", "mul", "div", "load", "store", "clear"
+    };
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testRandomPrograms(seed);
+        testStackOverflowStopsBothTiers();
+        testTieringInstallsCompiledCode();
+    }
+
+    /**
+     * Generates random programs, including out-of-range addresses, division by
+     * zero and stack underflow, and compares both tiers after every run
+     */
+    public static void testRandomPrograms(long seed) throws Exception {
+        System.out.println("=== Testing Interpreter vs JIT (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        int mismatches = 0;
+        for (int i = 0; i < PROGRAMS; i++) {
+            String source = randomProgram(random, 1 + random.nextInt(60));
+            Program program = Compiler.compile(source);
+            CompiledCode compiled = ProgramJit.compile(program);
+
+            Runtime interpreted = new Runtime(8, 32);
+            // Off-heap on one side also checks both memory implementations agree
+            Runtime jitted = new Runtime(new OffHeapMemory(8), 32);
+            for (int run = 0; run < 3; run++) {
+                boolean a = interpreted.interpret(program);
+                boolean b = compiled.run(jitted);
+                if (a != b || !sameState(interpreted, jitted)) {
+                    mismatches++;
+                    System.out.println("✗ Mismatch on run " + run + " of:\n" + source);
+                    System.out.println("  interpreter: " + a + " " + interpreted.getStackAsString() + " " + Arrays.toString(interpreted.memory.toArray()));
+                    System.out.println("  jit:         " + b + " " + jitted.getStackAsString() + " " + Arrays.toString(jitted.memory.toArray()));
+                    break;
+                }
+            }
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + PROGRAMS + " random programs matched across tiers");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + PROGRAMS + " programs differed");
+        }
+        System.out.println();
+    }
+
+    /**
+     * A push past the stack bound must stop at the same instruction in both tiers
+     */
+    public static void testStackOverflowStopsBothTiers() throws Exception {
+        System.out.println("=== Testing Overflow Across Tiers ===");
+
+        Program program = Compiler.compile("push 1\ndup\ndup\nload 0\npush 9\nstore 1");
+        Runtime interpreted = new Runtime(4, 3);
+        Runtime jitted = new Runtime(4, 3);
+        boolean a = interpreted.interpret(program);
+        boolean b = ProgramJit.compile(program).run(jitted);
+
+        if (!a && !b && sameState(interpreted, jitted)) {
+            System.out.println("✓ Both tiers stopped with " + jitted.getStackAsString());
+        } else {
+            System.out.println("✗ interpreter=" + a + " " + interpreted.getStackAsString() + ", jit=" + b + " " + jitted.getStackAsString());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Running a program past the threshold swaps in the generated class
+     */
+    public static void testTieringInstallsCompiledCode() throws InterruptedException {
+        System.out.println("=== Testing Tier-Up ===");
+
+        if (ProgramJit.THRESHOLD <= 0) {
+            System.out.println("- JIT disabled, skipping");
+            return;
+        }
+        Program program = Compiler.compile("push 2\npush 3\nmul\nstore 0");
+        Runtime runtime = new Runtime(4);
+        for (int i = 0; i < ProgramJit.THRESHOLD; i++) {
+            runtime.execute(program);
+        }
+        for (int i = 0; i < 50 && !program.isJitCompiled(); i++) {
+            Thread.sleep(10);
+        }
+        runtime.execute(program);
+
+        if (program.isJitCompiled() && runtime.memory.load(0) == 6 && runtime.stack.isEmpty()) {
+            System.out.println("✓ Program tiered up after " + ProgramJit.THRESHOLD + " runs");
+        } else {
+            System.out.println("✗ Program was not compiled (jit=" + program.isJitCompiled() + ")");
+        }
+        System.out.println();
+    }
+
+    private static String randomProgram(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            String mnemonic = MNEMONICS[random.nextInt(MNEMONICS.length)];
+            sb.append(mnemonic);
+            switch (mnemonic) {
+                case "push":
+                    sb.append(' ').append(randomValue(random));
+                    break;
+                case "load":
+                case "store":
+                    sb.append(' ').append(random.nextInt(12) - 2);
+                    break;
+                case "div":
+                    // Keep division by zero rare so the log stays readable
+                    if (random.nextInt(4) > 0) sb.insert(sb.length() - 3, "push " + (1 + random.nextInt(9)) + "\n");
+                    break;
+                default:
+                    break;
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static long randomValue(Random random) {
+        switch (random.nextInt(4)) {
+            case 0: return random.nextInt(3);
+            case 1: return random.nextInt(256) - 128;
+            case 2: return random.nextInt(65536) - 32768;
+            default: return random.nextLong();
+        }
+    }
+
+    private static boolean sameState(Runtime a, Runtime b) {
+        return Arrays.equals(a.stack.toArray(), b.stack.toArray()) && Arrays.equals(a.memory.toArray(), b.memory.toArray());
+    }
+}
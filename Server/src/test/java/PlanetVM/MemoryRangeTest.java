@@ -0,0 +1,126 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.finite.planetlangserver.Networking.MemoryCodec;
+
+/**
+ * Checks ranged memory reads: the varint-delta encoding round-trips any
+ * values and stays small for typical memory, reads are clipped to the
+ * server's limit and the end of memory, and a read for an unknown session
+ * fails with an error instead of throwing
+ */
+public class MemoryRangeTest {
+    private static final int CASES = 2_000;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testCodecRoundTrip(seed);
+        testCodecIsCompact();
+        testRangeLimits();
+        testUnknownSession();
+    }
+
+    public static void testCodecRoundTrip(long seed) {
+        System.out.println("=== Testing Codec Round Trip (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        long[] specials = { 0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        int mismatches = 0;
+        for (int i = 0; i < CASES; i++) {
+            long[] values = new long[random.nextInt(200)];
+            for (int j = 0; j < values.length; j++) {
+                switch (random.nextInt(3)) {
+                    case 0: values[j] = specials[random.nextInt(specials.length)]; break;
+                    case 1: values[j] = random.nextInt(1000) - 500; break;
+                    default: values[j] = random.nextLong(); break;
+                }
+            }
+            if (!Arrays.equals(values, MemoryCodec.decode(MemoryCodec.encode(values), values.length))) {
+                mismatches++;
+            }
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + CASES + " random ranges decoded to the same values");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + CASES + " ranges differed");
+        }
+        System.out.println();
+    }
+
+    public static void testCodecIsCompact() {
+        System.out.println("=== Testing Codec Size ===");
+
+        long[] zeros = new long[4096];
+        long[] counter = new long[4096];
+        for (int i = 0; i < counter.length; i++) counter[i] = 1000 + i;
+        int zeroChars = MemoryCodec.encode(zeros).length();
+        int counterChars = MemoryCodec.encode(counter).length();
+        int decimalChars = Arrays.toString(counter).length();
+
+        // One varint byte per small delta, 4/3 characters after Base64
+        if (zeroChars <= 4096 * 4 / 3 + 4 && counterChars < decimalChars / 3) {
+            System.out.println("✓ 4096 cells: zeros in " + zeroChars + " chars, a counter in " + counterChars
+                    + " (decimal list: " + decimalChars + ")");
+        } else {
+            System.out.println("✗ zeros=" + zeroChars + " counter=" + counterChars + " decimal=" + decimalChars);
+        }
+        System.out.println();
+    }
+
+    public static void testRangeLimits() {
+        System.out.println("=== Testing Range Limits ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String session = manager.createUserSession("ranger");
+        manager.executeLocalProgram(session, "push 42\nstore 3");
+
+        MemoryRange window = manager.getUserMemoryRange(session, 2, 3);
+        MemoryRange huge = manager.getGlobalMemoryRange(0, Integer.MAX_VALUE);
+        MemoryRange tail = manager.getUserMemoryRange(session, window.memorySize - 2, 10);
+        MemoryRange past = manager.getUserMemoryRange(session, window.memorySize + 5, 10);
+        boolean rejected;
+        try {
+            manager.getGlobalMemoryRange(-1, 4);
+            rejected = false;
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        manager.removeUserSession(session);
+
+        boolean windowOk = window.start == 2 && Arrays.equals(window.values, new long[] { 0, 42, 0 });
+        boolean hugeOk = huge.values.length == Math.min(PlanetVMManager.MAX_MEMORY_RANGE, huge.memorySize);
+        boolean tailOk = tail.values.length == 2 && past.values.length == 0;
+        if (windowOk && hugeOk && tailOk && rejected) {
+            System.out.println("✓ Reads return the asked window, clipped to " + PlanetVMManager.MAX_MEMORY_RANGE
+                    + " cells and the end of memory");
+        } else {
+            System.out.println("✗ window=" + windowOk + " limit=" + hugeOk + " tail=" + tailOk + " negative rejected=" + rejected);
+        }
+        System.out.println();
+    }
+
+    public static void testUnknownSession() {
+        System.out.println("=== Testing Unknown Session ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String session = manager.createUserSession("expired");
+        manager.removeUserSession(session);
+        MemoryRange range;
+        try {
+            range = manager.getUserMemoryRange(session, 0, 4);
+        } catch (RuntimeException e) {
+            System.out.println("✗ Read for a removed session threw " + e);
+            System.out.println();
+            return;
+        }
+
+        if (!range.isOk() && range.error.equals("ERROR: Invalid session") && range.values.length == 0) {
+            System.out.println("✓ Read for a removed session failed with " + range.error);
+        } else {
+            System.out.println("✗ Read for a removed session gave error=" + range.error);
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,202 @@
+package PlanetVM;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Runs the same clients against every server mode: every client gets its
+ * session, pipelined commands are answered in order, lines split across
+ * packets (even inside a character) arrive whole, the selector server
+ * doesn't start a thread per connection, and subscribers that stop reading
+ * don't hold up pushes to the others
+ */
+public class NioServerTest {
+    private static final int CLIENTS = 100;
+    private static final int COMMANDS = 20;
+    /** Subscribers that never read; more than the publisher has threads */
+    private static final int SLOW_READERS = 3;
+    /** Values on the global stack, so every push is a few hundred KB */
+    private static final int STACK_DEPTH = 15_000;
+    private static final int TOGGLES = 60;
+    private static final Map<Socket, BufferedReader> readers = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        for (Server.Mode mode : Server.Mode.values()) {
+            testMode(mode);
+            testSlowReaders(mode);
+        }
+    }
+
+    public static void testMode(Server.Mode mode) throws Exception {
+        System.out.println("=== Testing " + mode + " Server ===");
+
+        PrintStream console = System.out;
+        // The server logs every command; keep the results readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        int threadsBefore = Thread.activeCount();
+        List<Socket> sockets = new ArrayList<>();
+        int sessions = 0;
+        int outOfOrder = 0;
+        int threadsDuring;
+        String split;
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+                Socket socket = new Socket("localhost", server.getPort());
+                sockets.add(socket);
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+                for (int i = 0; i < COMMANDS; i++) {
+                    out.println(i % 2 == 0 ? "NOPE " + c + "/" + i : "PING");
+                }
+                out.flush();
+            }
+            threadsDuring = Thread.activeCount();
+
+            for (int c = 0; c < CLIENTS; c++) {
+                BufferedReader in = reader(sockets.get(c));
+                if (in.readLine().startsWith("SESSION:")) sessions++;
+                for (int i = 0; i < COMMANDS; i++) {
+                    String expected = i % 2 == 0 ? "ERROR: Unknown command: NOPE " + c + "/" + i : "PONG";
+                    if (!expected.equals(in.readLine())) outOfOrder++;
+                }
+            }
+
+            // One byte per write, so the two-byte character is cut in half
+            Socket socket = sockets.get(0);
+            OutputStream raw = socket.getOutputStream();
+            for (byte b : "NOPE ü\r\n".getBytes(StandardCharsets.UTF_8)) {
+                raw.write(b);
+                raw.flush();
+                Thread.sleep(2);
+            }
+            split = reader(socket).readLine();
+        } finally {
+            for (Socket socket : sockets) socket.close();
+            server.stop();
+            System.setOut(console);
+        }
+
+        boolean splitOk = "ERROR: Unknown command: NOPE ü".equals(split);
+        int extraThreads = threadsDuring - threadsBefore;
+        // Virtual threads aren't counted, so only platform threads per connection show up
+        boolean threadsOk = mode == Server.Mode.THREADS || extraThreads < CLIENTS / 2;
+        if (sessions == CLIENTS && outOfOrder == 0 && splitOk && threadsOk) {
+            System.out.println("✓ " + CLIENTS + " clients x " + COMMANDS + " pipelined commands answered in order, "
+                    + "split line reassembled, " + extraThreads + " extra threads");
+        } else {
+            System.out.println("✗ sessions=" + sessions + " outOfOrder=" + outOfOrder + " split=" + split
+                    + " extraThreads=" + extraThreads);
+        }
+        System.out.println();
+    }
+
+    public static void testSlowReaders(Server.Mode mode) throws Exception {
+        System.out.println("=== Testing Slow Readers on " + mode + " Server ===");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        List<Socket> sockets = new ArrayList<>();
+        int answered = 0;
+        try {
+            Socket socket = new Socket("localhost", server.getPort());
+            sockets.add(socket);
+            socket.setSoTimeout(5000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+            in.readLine();
+            for (int i = 0; i < STACK_DEPTH; i++) {
+                out.println("GLOBAL:push " + (Long.MAX_VALUE - i));
+            }
+            out.println("SUBSCRIBE:GLOBAL_STACK");
+            out.flush();
+            for (int i = 0; i <= STACK_DEPTH; i++) in.readLine();
+
+            for (int s = 0; s < SLOW_READERS; s++) {
+                Socket slow = new Socket();
+                // A small window, so the kernel soon stops taking data for it
+                slow.setReceiveBufferSize(4096);
+                slow.connect(new java.net.InetSocketAddress("localhost", server.getPort()));
+                sockets.add(slow);
+                slow.getOutputStream().write("SUBSCRIBE:GLOBAL_STACK\n".getBytes(StandardCharsets.UTF_8));
+                slow.getOutputStream().flush();
+            }
+
+            // Each change is pushed to everyone; the reader must see every one of them
+            for (int i = 0; i < TOGGLES; i++) {
+                out.println(i % 2 == 0 ? "GLOBAL:pop" : "GLOBAL:push 7");
+                out.flush();
+                long version = -1;
+                long pushed = -1;
+                while (version < 0 || pushed < version) {
+                    String line = in.readLine();
+                    if (line.startsWith("OK@")) {
+                        version = Long.parseLong(line.substring(3).split(" ")[0]);
+                    } else if (line.startsWith("EVENT:GLOBAL_STACK@")) {
+                        pushed = Long.parseLong(line.substring(19, line.indexOf(':', 19)));
+                    }
+                }
+                answered++;
+            }
+            out.println("GLOBAL:clear");
+            out.flush();
+        } catch (IOException e) {
+            // A read timed out: pushes stalled
+        } finally {
+            for (Socket socket : sockets) socket.close();
+            server.stop();
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+
+        if (answered == TOGGLES) {
+            System.out.println("✓ " + TOGGLES + " pushes reached the reader past " + SLOW_READERS + " stalled subscribers");
+        } else {
+            System.out.println("✗ Pushes stalled after " + answered + " of " + TOGGLES);
+        }
+        System.out.println();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        BufferedReader reader = readers.get(socket);
+        if (reader == null) {
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            readers.put(socket, reader);
+        }
+        return reader;
+    }
+}
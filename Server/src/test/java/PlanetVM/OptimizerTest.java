@@ -0,0 +1,97 @@
+package PlanetVM;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the peephole optimizer: the common workload patterns shrink, and
+ * optimized programs leave the same state as unoptimized ones
+ */
+public class OptimizerTest {
+    private static final int PROGRAMS = 2_000;
+    private static final String[] FRAGMENTS = {
+        "push 3\nadd", "push 2\nsub", "push 5\nmul", "dup\nmul", "swap\nswap",
+        "load 1\nload 2\nadd\nstore 3", "push 7\npush 0\ndiv", "push 9\npop", "dup\npop",
+        "push 4", "push -6", "pop", "dup", "swap", "add", "sub", "mul", "div",
+        "load 0", "load 9", "store 2", "store 40", "clear"
+    };
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testWorkloadPatterns();
+        testOptimizedMatchesUnoptimized(seed);
+    }
+
+    /**
+     * The patterns from our workloads each collapse to one dispatch or vanish
+     */
+    public static void testWorkloadPatterns() {
+        System.out.println("=== Testing Workload Patterns ===");
+
+        check("push 5\nadd", 1, "add_const 5");
+        check("load 1\nload 2\nadd\nstore 3", 3, "load_add_store 1 2 3");
+        check("dup\nmul", 1, "square");
+        check("swap\nswap", 2, "");
+        check("push 2\npush 3\nmul\npush 4\nadd", 4, "push 10");
+        check("push 1\npush 0\ndiv", 0, "push 1\npush 0\ndiv");
+        System.out.println();
+    }
+
+    /**
+     * Random programs built from pattern fragments leave identical state with
+     * and without the optimizer, in the interpreter and in the JIT
+     */
+    public static void testOptimizedMatchesUnoptimized(long seed) throws Exception {
+        System.out.println("=== Testing Optimized vs Unoptimized (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        int mismatches = 0;
+        long eliminated = 0;
+        for (int i = 0; i < PROGRAMS; i++) {
+            StringBuilder source = new StringBuilder();
+            int fragments = 1 + random.nextInt(30);
+            for (int f = 0; f < fragments; f++) {
+                source.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]).append('\n');
+            }
+            Program plain = Compiler.parse(source.toString());
+            Program optimized = Optimizer.optimize(plain);
+            eliminated += optimized.getEliminatedDispatches();
+
+            Runtime expected = new Runtime(8);
+            Runtime interpreted = new Runtime(8);
+            Runtime jitted = new Runtime(8);
+            CompiledCode compiled = ProgramJit.compile(optimized);
+            for (int run = 0; run < 3; run++) {
+                expected.interpret(plain);
+                interpreted.interpret(optimized);
+                compiled.run(jitted);
+            }
+            if (!sameState(expected, interpreted) || !sameState(expected, jitted)) {
+                mismatches++;
+                System.out.println("✗ Mismatch for:\n" + source + "optimized to:\n" + optimized);
+            }
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + PROGRAMS + " programs matched, " + eliminated + " dispatches eliminated");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + PROGRAMS + " programs differed");
+        }
+        System.out.println();
+    }
+
+    private static void check(String source, int expectedEliminated, String expectedCode) {
+        Program program = Optimizer.optimize(Compiler.parse(source));
+        String label = source.replace('\n', ';');
+        if (program.getEliminatedDispatches() == expectedEliminated && program.toString().equals(expectedCode)) {
+            System.out.println("✓ " + label + " -> " + (expectedCode.isEmpty() ? "(nothing)" : expectedCode.replace('\n', ';')));
+        } else {
+            System.out.println("✗ " + label + " -> " + program.toString().replace('\n', ';')
+                    + " (eliminated " + program.getEliminatedDispatches() + ")");
+        }
+    }
+
+    private static boolean sameState(Runtime a, Runtime b) {
+        return Arrays.equals(a.stack.toArray(), b.stack.toArray()) && Arrays.equals(a.memory.toArray(), b.memory.toArray());
+    }
+}
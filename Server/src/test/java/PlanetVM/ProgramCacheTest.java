@@ -0,0 +1,107 @@
+package PlanetVM;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the program cache: it stays within its entry and weight bounds,
+ * entries hit since the clock hand last passed outlive ones that weren't,
+ * and concurrent hits all get the one cached program
+ */
+public class ProgramCacheTest {
+    private static final int THREADS = 8;
+    private static final int LOOKUPS = 100_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        testBounds();
+        testReferencedEntriesSurvive();
+        testConcurrentHits();
+    }
+
+    private static String source(int i) {
+        return "push " + i + "\npop";
+    }
+
+    public static void testBounds() {
+        System.out.println("=== Testing Cache Bounds ===");
+
+        ProgramCache byCount = new ProgramCache(4, Long.MAX_VALUE, 1 << 16);
+        for (int i = 0; i < 10; i++) byCount.get(source(i));
+        long entryWeight = byCount.getWeight() / byCount.size();
+        ProgramCache byWeight = new ProgramCache(100, 3 * entryWeight, 1 << 16);
+        for (int i = 0; i < 10; i++) byWeight.get(source(i));
+        ProgramCache oneLine = new ProgramCache(4, Long.MAX_VALUE, 1 << 16);
+        oneLine.get("push 1");
+
+        if (byCount.size() == 4 && byCount.getEvictions() == 6 && byWeight.size() == 3
+                && byWeight.getWeight() <= byWeight.getMaxWeight() && oneLine.size() == 0 && oneLine.getUncached() == 1) {
+            System.out.println("✓ Cache kept 4 entries by count, 3 by weight, and no single instruction");
+        } else {
+            System.out.println("✗ byCount=" + byCount + " byWeight=" + byWeight + " oneLine=" + oneLine);
+        }
+        System.out.println();
+    }
+
+    public static void testReferencedEntriesSurvive() {
+        System.out.println("=== Testing Second Chance ===");
+
+        ProgramCache cache = new ProgramCache(4, Long.MAX_VALUE, 1 << 16);
+        for (int i = 0; i < 4; i++) cache.get(source(i));
+        cache.get(source(0));
+        // Full: the hand passes the hit entry 0 and evicts 1
+        cache.get(source(4));
+        long hits = cache.getHits();
+        cache.get(source(0));
+        boolean kept = cache.getHits() == hits + 1;
+        long misses = cache.getMisses();
+        cache.get(source(1));
+        boolean evicted = cache.getMisses() == misses + 1;
+
+        if (kept && evicted) {
+            System.out.println("✓ Entry hit since insertion outlived an older unused one");
+        } else {
+            System.out.println("✗ kept=" + kept + " evicted=" + evicted + " " + cache);
+        }
+        System.out.println();
+    }
+
+    public static void testConcurrentHits() throws InterruptedException {
+        System.out.println("=== Testing Concurrent Hits ===");
+
+        ProgramCache cache = new ProgramCache(64, Long.MAX_VALUE, 1 << 16);
+        Program[] cached = new Program[16];
+        for (int i = 0; i < cached.length; i++) cached[i] = cache.get(source(i));
+        long hitsBefore = cache.getHits();
+
+        AtomicInteger wrong = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < LOOKUPS; i++) {
+                    int index = (i + offset) % cached.length;
+                    if (cache.get(source(index)) != cached[index]) wrong.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long millis = (System.nanoTime() - begin) / 1_000_000;
+
+        long hits = cache.getHits() - hitsBefore;
+        if (wrong.get() == 0 && hits == (long) THREADS * LOOKUPS && cache.getMisses() == cached.length) {
+            System.out.println("✓ " + THREADS + " threads hit the same programs " + hits + " times in " + millis + "ms");
+        } else {
+            System.out.println("✗ wrong=" + wrong.get() + " hits=" + hits + " " + cache);
+        }
+        System.out.println();
+    }
+}
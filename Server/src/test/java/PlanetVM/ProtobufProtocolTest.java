@@ -0,0 +1,140 @@
+package PlanetVM;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionRequest;
+import org.finite.planetlang.proto.PlanetLangProto.ExecuteInstructionResponse;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateRequest;
+import org.finite.planetlang.proto.PlanetLangProto.GetStateResponse;
+import org.finite.planetlang.proto.PlanetLangProto.Message;
+import org.finite.planetlang.proto.PlanetLangProto.Request;
+import org.finite.planetlang.proto.PlanetLangProto.SubscribeRequest;
+import org.finite.planetlangserver.Networking.Protocol;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Negotiates protobuf framing with every server mode and checks that
+ * execution changes, pushed events and conditional reads come back as
+ * structured fields, with each reply carrying its request's message_id
+ */
+public class ProtobufProtocolTest {
+    private static int passed = 0;
+    private static int failed = 0;
+
+    public static void main(String[] args) throws Exception {
+        for (Server.Mode mode : Server.Mode.values()) {
+            testMode(mode);
+        }
+        System.out.println("Passed: " + passed + ", Failed: " + failed);
+    }
+
+    public static void testMode(Server.Mode mode) throws Exception {
+        System.out.println("=== Testing protobuf over " + mode + " Server ===");
+
+        PrintStream console = System.out;
+        // The server logs every command; keep the results readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(mode);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        List<String> results = new ArrayList<>();
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(5000);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String greeting = Protocol.readLine(in);
+
+            // The first frame goes out in the same write as the negotiation line
+            ByteArrayOutputStream first = new ByteArrayOutputStream();
+            first.write((Protocol.PROTOBUF + "\n").getBytes(StandardCharsets.UTF_8));
+            first.write(Protocol.frame(execute(1, "push 7\npush 6\nmul\nstore 3", true)));
+            out.write(first.toByteArray());
+            check(results, "greeting then negotiation answered",
+                    greeting.startsWith("SESSION:") && Protocol.PROTOBUF.equals(Protocol.readLine(in)));
+
+            Message reply = Protocol.readFrame(in);
+            ExecuteInstructionResponse changes = reply.getResponse().getExecuteInstruction();
+            check(results, "program changes as fields", reply.getMessageId() == 1 && reply.getResponse().getSuccess()
+                    && changes.getVersion() > 0 && changes.getPushedCount() == 0
+                    && changes.getMemoryWritesCount() == 1 && changes.getMemoryWrites(0).getAddress() == 3
+                    && changes.getMemoryWrites(0).getValue() == 42);
+            long version = changes.getVersion();
+
+            out.write(Protocol.frame(request(2, Request.newBuilder()
+                    .setSubscribe(SubscribeRequest.newBuilder().addTopics("USER_STACK")).build())));
+            out.write(Protocol.frame(execute(3, "push -9", false)));
+            Message executed = null;
+            Message pushed = null;
+            for (int i = 0; i < 10 && (executed == null || pushed == null); i++) {
+                Message frame = Protocol.readFrame(in);
+                if (frame.getMessageId() == 3) executed = frame;
+                // Sessions from one address share a runtime, so only the top is known
+                if (frame.hasEvent() && frame.getEvent().getStackState().getValuesCount() > 0
+                        && frame.getEvent().getStackState().getValues(0) == -9) pushed = frame;
+            }
+            check(results, "push in the reply", executed != null
+                    && executed.getResponse().getExecuteInstruction().getPushedList().equals(List.of(-9L))
+                    && executed.getResponse().getExecuteInstruction().getVersion() == version + 1);
+            check(results, "subscribed stack pushed as an event", pushed != null
+                    && pushed.getEvent().getTopic().equals("USER_STACK"));
+
+            out.write(Protocol.frame(getState(4, GetStateRequest.StateType.USER_STACK, version + 1, 0, 0)));
+            out.write(Protocol.frame(getState(5, GetStateRequest.StateType.USER_MEMORY, -1, 3, 1)));
+            GetStateResponse unchanged = Protocol.readFrame(in).getResponse().getGetState();
+            GetStateResponse memory = Protocol.readFrame(in).getResponse().getGetState();
+            check(results, "conditional read not modified", unchanged.getNotModified() && unchanged.getVersion() == version + 1);
+            check(results, "memory range as cells", memory.getMemoryState().getStart() == 3
+                    && memory.getMemoryState().getCellsList().equals(List.of(42L)));
+
+            out.write(Protocol.frame(execute(6, "bogus", true)));
+            Message error = Protocol.readFrame(in);
+            check(results, "errors keep their text", error.getMessageId() == 6 && !error.getResponse().getSuccess()
+                    && error.getResponse().getErrorMessage().startsWith("ERROR:"));
+        } finally {
+            server.stop();
+            // Let the handler finish logging its disconnect
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+        for (String result : results) System.out.println(result);
+        System.out.println();
+    }
+
+    private static void check(List<String> results, String name, boolean ok) {
+        if (ok) passed++; else failed++;
+        results.add((ok ? "✓ " : "✗ ") + name);
+    }
+
+    private static Message execute(long id, String source, boolean program) {
+        return request(id, Request.newBuilder().setExecuteInstruction(ExecuteInstructionRequest.newBuilder()
+                .setInstruction(source)
+                .setProgram(program)).build());
+    }
+
+    private static Message getState(long id, GetStateRequest.StateType type, long ifChangedSince, int start, int count) {
+        GetStateRequest.Builder get = GetStateRequest.newBuilder().setStateType(type).setStart(start).setCount(count);
+        if (ifChangedSince >= 0) get.setIfChangedSince(ifChangedSince);
+        return request(id, Request.newBuilder().setGetState(get).build());
+    }
+
+    private static Message request(long id, Request request) {
+        return Message.newBuilder().setMessageId(id).setRequest(request).build();
+    }
+}
@@ -0,0 +1,140 @@
+package PlanetVM;
+
+/**
+ * Checks global rate limiting: a bucket admits its burst and then its rate,
+ * a session that floods the global runtime is throttled without holding up
+ * another session, new sessions don't give a user a fresh burst, sources
+ * cost one token per non-blank line, and rejections are counted
+ */
+public class RateLimitTest {
+
+    public static void main(String[] args) {
+        // Read when the manager class loads, so set before first use
+        System.setProperty("planetlang.vm.globalRatePerSession", "1000");
+        System.setProperty("planetlang.vm.globalBurstPerSession", "100");
+        System.setProperty("planetlang.vm.globalRatePerUser", "1000");
+        System.setProperty("planetlang.vm.globalBurstPerUser", "150");
+        testBucketBurstAndRefill();
+        testBucketRefund();
+        testFloodingSessionIsThrottled();
+        testReconnectsShareUserBudget();
+        testCostCountsLines();
+    }
+
+    public static void testBucketBurstAndRefill() {
+        System.out.println("=== Testing Token Bucket ===");
+
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        long now = 1_000_000_000L;
+        int admitted = 0;
+        while (bucket.tryAcquire(1, now) == 0) admitted++;
+        long wait = bucket.tryAcquire(1, now);
+        // One token per millisecond after the burst
+        boolean refilled = bucket.tryAcquire(1, now + 1_000_000) == 0 && bucket.tryAcquire(1, now + 1_000_000) > 0;
+        boolean bigRefused = bucket.tryAcquire(5, now + 3_000_000) > 0 && bucket.tryAcquire(5, now + 6_000_000) == 0;
+
+        if (admitted == 10 && wait > 0 && wait <= 1_000_000 && refilled && bigRefused) {
+            System.out.println("✓ Burst of " + admitted + ", then one token per " + wait + "ns, costs weighted");
+        } else {
+            System.out.println("✗ admitted=" + admitted + " wait=" + wait + " refilled=" + refilled + " weighted=" + bigRefused);
+        }
+        System.out.println();
+    }
+
+    public static void testBucketRefund() {
+        System.out.println("=== Testing Token Refund ===");
+
+        TokenBucket bucket = new TokenBucket(1, 4);
+        long now = 1_000_000_000_000L;
+        boolean taken = bucket.tryAcquire(4, now) == 0 && bucket.tryAcquire(1, now) > 0;
+        bucket.refund(2);
+        boolean restored = bucket.tryAcquire(2, now) == 0 && bucket.tryAcquire(1, now) > 0;
+
+        if (taken && restored) {
+            System.out.println("✓ Refunded tokens can be spent again");
+        } else {
+            System.out.println("✗ taken=" + taken + " restored=" + restored);
+        }
+        System.out.println();
+    }
+
+    public static void testFloodingSessionIsThrottled() {
+        System.out.println("=== Testing Session Throttling ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String flooder = manager.createUserSession("flooder");
+        String neighbour = manager.createUserSession("neighbour");
+        long before = manager.getThrottledBySession();
+
+        int ok = 0;
+        int throttled = 0;
+        for (int i = 0; i < 200; i++) {
+            String result = manager.executeGlobalProgram(flooder, "push 1\npop");
+            if (result.startsWith("OK")) ok++;
+            else if (result.startsWith("THROTTLED: retry in ")) throttled++;
+        }
+        String neighbourResult = manager.executeGlobalInstruction(neighbour, "push 2");
+        String tooLong = manager.executeGlobalProgram(neighbour, "push 1\n".repeat(101));
+        long counted = manager.getThrottledBySession() - before;
+        String stats = manager.getVmStats();
+        manager.removeUserSession(flooder);
+        manager.removeUserSession(neighbour);
+
+        // 100 tokens of burst at 2 per program, plus whatever refilled meanwhile
+        if (ok >= 50 && ok < 200 && throttled == 200 - ok && counted == throttled
+                && neighbourResult.startsWith("OK") && tooLong.startsWith("ERROR") && stats.contains("throttle{session=")) {
+            System.out.println("✓ Flooder ran " + ok + " programs and was throttled " + throttled + " times; neighbour unaffected");
+        } else {
+            System.out.println("✗ ok=" + ok + " throttled=" + throttled + " counted=" + counted
+                    + " neighbour=" + neighbourResult + " tooLong=" + tooLong);
+        }
+        System.out.println();
+    }
+
+    public static void testReconnectsShareUserBudget() {
+        System.out.println("=== Testing User Throttling ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        long before = manager.getThrottledByUser();
+        int ok = 0;
+        // Each new session has a full burst of its own, but the user doesn't
+        for (int s = 0; s < 5; s++) {
+            String session = manager.createUserSession("reconnector");
+            for (int i = 0; i < 100; i++) {
+                if (manager.executeGlobalInstruction(session, "push 1").startsWith("OK")) ok++;
+            }
+            manager.removeUserSession(session);
+        }
+        String cleaner = manager.createUserSession("cleaner");
+        manager.executeGlobalInstruction(cleaner, "clear");
+        manager.removeUserSession(cleaner);
+        long counted = manager.getThrottledByUser() - before;
+
+        // 150 tokens of user burst, plus whatever refilled meanwhile
+        if (ok >= 150 && ok < 300 && counted == 500 - ok) {
+            System.out.println("✓ 5 sessions of one user ran " + ok + " of 500 instructions");
+        } else {
+            System.out.println("✗ ok=" + ok + " throttledByUser=" + counted);
+        }
+        System.out.println();
+    }
+
+    public static void testCostCountsLines() {
+        System.out.println("=== Testing Global Cost ===");
+
+        int single = PlanetVMManager.globalCost("push 1");
+        int blankLines = PlanetVMManager.globalCost("push 1\n\n  \r\npop\n");
+        int empty = PlanetVMManager.globalCost("");
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String session = manager.createUserSession("liner");
+        String tooLong = manager.executeGlobalInstruction(session, "push 1\n".repeat(101));
+        manager.removeUserSession(session);
+
+        if (single == 1 && blankLines == 2 && empty == 1 && tooLong.startsWith("ERROR: Program too long")) {
+            System.out.println("✓ Sources cost their non-blank lines, instructions included");
+        } else {
+            System.out.println("✗ single=" + single + " blankLines=" + blankLines + " empty=" + empty + " tooLong=" + tooLong);
+        }
+        System.out.println();
+    }
+}
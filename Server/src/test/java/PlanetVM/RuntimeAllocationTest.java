@@ -0,0 +1,82 @@
+package PlanetVM;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that arithmetic instructions run without allocating on the heap
+ */
+public class RuntimeAllocationTest {
+    private static final int WARMUP_RUNS = 20_000;
+    private static final int MEASURED_RUNS = 100_000;
+    // Boxing even one Long per run would show up as ~16 bytes per run; anything
+    // under a byte per run is JIT/bookkeeping noise, not the interpreter
+    private static final long NOISE_BYTES = MEASURED_RUNS;
+
+    public static void main(String[] args) {
+        testArithmeticDoesNotAllocate();
+        testStackGrowthIsBounded();
+    }
+
+    /**
+     * Runs an arithmetic-heavy program many times and compares the thread's
+     * allocated byte counter before and after
+     */
+    public static void testArithmeticDoesNotAllocate() {
+        System.out.println("=== Testing Arithmetic Allocation ===");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("- Thread allocation counters not supported on this JVM, skipping");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Runtime runtime = new Runtime(16);
+        Program program = Compiler.compile(String.join("\n",
+            "push 6", "push 7", "mul", "dup", "add",
+            "push 4", "swap", "sub", "push 2", "div",
+            "store 1", "load 1", "load 1", "add", "pop"));
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runtime.execute(program);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long overhead = measureOverhead(threads, threadId);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            runtime.execute(program);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        if (allocated < NOISE_BYTES) {
+            System.out.println("✓ " + MEASURED_RUNS + " runs allocated no heap memory (" + allocated + " bytes of noise)");
+        } else {
+            System.out.println("✗ " + MEASURED_RUNS + " runs allocated " + allocated + " bytes");
+        }
+        System.out.println();
+    }
+
+    /**
+     * Pushing past the bound is refused instead of growing the stack
+     */
+    public static void testStackGrowthIsBounded() {
+        System.out.println("=== Testing Bounded Stack ===");
+
+        Runtime runtime = new Runtime(16, 4);
+        boolean completed = runtime.execute(Compiler.compile("push 1\npush 2\npush 3\npush 4\npush 5"));
+
+        if (!completed && runtime.stack.size() == 4 && runtime.getStackAsString().equals("[4, 3, 2, 1]")) {
+            System.out.println("✓ Overflow stopped the program at the bound");
+        } else {
+            System.out.println("✗ Unexpected state: completed=" + completed + " stack=" + runtime.getStackAsString());
+        }
+        System.out.println();
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean threads, long threadId) {
+        long first = threads.getThreadAllocatedBytes(threadId);
+        long second = threads.getThreadAllocatedBytes(threadId);
+        return second - first;
+    }
+}
@@ -0,0 +1,100 @@
+package PlanetVM;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the single-writer executor applies concurrent updates without
+ * losing any, and that a caller always reads its own writes
+ */
+public class RuntimeExecutorTest {
+    private static final int THREADS = 16;
+    private static final int UPDATES = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        testConcurrentUpdatesAreNotLost();
+        testReadYourWrites();
+    }
+
+    /**
+     * Many threads increment the same cell; the final value counts every one
+     */
+    public static void testConcurrentUpdatesAreNotLost() throws InterruptedException {
+        System.out.println("=== Testing Concurrent Global Updates ===");
+
+        RuntimeExecutor executor = new RuntimeExecutor(new Runtime(4, 1024), "test-writer");
+        Program increment = Compiler.compile("load 0\npush 1\nadd\nstore 0");
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < UPDATES; i++) {
+                    executor.call(runtime -> runtime.execute(increment), true);
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - begin) / 1_000_000;
+
+        long expected = (long) THREADS * UPDATES;
+        long actual = executor.call(runtime -> runtime.memory.load(0), false);
+        if (actual == expected && executor.getRuntime().stack.isEmpty()) {
+            System.out.println("✓ " + expected + " updates applied in " + millis + "ms (" + executor + ")");
+        } else {
+            System.out.println("✗ Expected " + expected + " but memory[0]=" + actual);
+        }
+        executor.shutdown();
+        System.out.println();
+    }
+
+    /**
+     * Once a mutation returns, the published snapshot already includes it
+     */
+    public static void testReadYourWrites() throws InterruptedException {
+        System.out.println("=== Testing Snapshot Freshness ===");
+
+        RuntimeExecutor executor = new RuntimeExecutor(new Runtime(4, 1024), "test-writer");
+        AtomicInteger stale = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int value = t + 1;
+            threads[t] = new Thread(() -> {
+                Program store = Compiler.compile("push " + value + "\nstore " + (value - 1));
+                for (int i = 0; i < 2_000; i++) {
+                    executor.call(runtime -> runtime.execute(store), true);
+                    // Other threads only write other cells, so ours must show
+                    String view = executor.memorySnapshot();
+                    if (!view.contains(value + ",") && !view.contains(value + "]")) {
+                        stale.incrementAndGet();
+                    }
+                    executor.call(runtime -> {
+                        runtime.memory.store(value - 1, 0);
+                        return null;
+                    }, true);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (stale.get() == 0) {
+            System.out.println("✓ Every snapshot read after a write included it");
+        } else {
+            System.out.println("✗ " + stale.get() + " snapshots missed the caller's own write");
+        }
+        executor.shutdown();
+        System.out.println();
+    }
+}
@@ -0,0 +1,173 @@
+package PlanetVM;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks the runtime memory implementations: bounds checking, durability of
+ * mapped memory, that large memories are kept off the Java heap, and that
+ * paged memory only holds the pages in use, cut to its size
+ */
+public class RuntimeMemoryTest {
+    private static final int LARGE_SIZE = 4 << 20;
+
+    public static void main(String[] args) throws IOException {
+        testBoundsChecks(new HeapMemory(16));
+        testBoundsChecks(new OffHeapMemory(16));
+        testBoundsChecks(new PagedMemory(16));
+        testBoundsChecks(new PagedMemory(PagedMemory.PAGE_SIZE * 3 + 5));
+        Path file = Files.createTempFile("planetvm-memory", ".bin");
+        try {
+            try (MappedMemory mapped = new MappedMemory(file, 16, MappedMemory.SyncPolicy.ALWAYS, 0)) {
+                testBoundsChecks(mapped);
+            }
+            testMappedMemoryReattaches(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        testLargeMemoryStaysOffHeap();
+        testPagesFollowUsage();
+        testSmallPagedMemory();
+    }
+
+    /**
+     * Every cell round-trips, and addresses outside the memory throw
+     */
+    public static void testBoundsChecks(RuntimeMemory memory) {
+        String name = memory.getClass().getSimpleName();
+        System.out.println("=== Testing " + name + " Bounds ===");
+
+        boolean roundTrips = true;
+        for (int i = 0; i < memory.size(); i++) {
+            memory.store(i, Long.MIN_VALUE + i);
+        }
+        for (int i = 0; i < memory.size(); i++) {
+            roundTrips &= memory.load(i) == Long.MIN_VALUE + i;
+        }
+        System.out.println((roundTrips ? "✓ " : "✗ ") + memory.size() + " cells round-trip");
+
+        int rejected = 0;
+        for (int address : new int[] { -1, memory.size(), Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+            try {
+                memory.load(address);
+            } catch (IndexOutOfBoundsException e) {
+                rejected++;
+            }
+            try {
+                memory.store(address, 1);
+            } catch (IndexOutOfBoundsException e) {
+                rejected++;
+            }
+        }
+        System.out.println((rejected == 8 ? "✓ " : "✗ ") + rejected + " of 8 out-of-range accesses rejected");
+
+        Runtime runtime = new Runtime(memory, 8);
+        int size = memory.size();
+        boolean completed = runtime.execute(Compiler.compile(
+                "push 5\nstore -1\nstore " + size + "\nload " + (size + 83) + "\nload -3"));
+        if (completed && runtime.getStackAsString().equals("[5]")) {
+            System.out.println("✓ Programs treat out-of-range addresses as no-ops");
+        } else {
+            System.out.println("✗ Unexpected stack " + runtime.getStackAsString());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Cells written through one mapping are there when the file is mapped
+     * again, and growing the mapping keeps them
+     */
+    public static void testMappedMemoryReattaches(Path file) throws IOException {
+        System.out.println("=== Testing Mapped Memory Re-attach ===");
+
+        try (MappedMemory memory = new MappedMemory(file, 16, MappedMemory.SyncPolicy.PERIODIC, 10)) {
+            Runtime runtime = new Runtime(memory, 8);
+            runtime.execute(Compiler.compile("push 7\npush 6\nmul\nstore 3\npush -1\nstore 15"));
+        }
+        try (MappedMemory memory = new MappedMemory(file, 32, MappedMemory.SyncPolicy.NONE, 0)) {
+            if (memory.load(3) == 42 && memory.load(15) == -1 && memory.load(31) == 0) {
+                System.out.println("✓ Stored cells survived re-mapping (file is " + Files.size(file) + " bytes)");
+            } else {
+                System.out.println("✗ Lost cells: [3]=" + memory.load(3) + " [15]=" + memory.load(15));
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * A memory past the off-heap threshold does not grow the heap by its size
+     */
+    public static void testLargeMemoryStaysOffHeap() {
+        System.out.println("=== Testing Large Memory ===");
+
+        java.lang.Runtime jvm = java.lang.Runtime.getRuntime();
+        System.gc();
+        long heapBefore = jvm.totalMemory() - jvm.freeMemory();
+        Runtime runtime = new Runtime(LARGE_SIZE, 8);
+        runtime.execute(Compiler.compile("push 42\nstore " + (LARGE_SIZE - 1) + "\nload " + (LARGE_SIZE - 1)));
+        System.gc();
+        long heapGrowth = jvm.totalMemory() - jvm.freeMemory() - heapBefore;
+
+        long cellBytes = (long) LARGE_SIZE * Long.BYTES;
+        if (runtime.memory instanceof OffHeapMemory && runtime.getStackAsString().equals("[42]")
+                && heapGrowth < cellBytes / 4) {
+            System.out.println("✓ " + LARGE_SIZE + " cells allocated off-heap (heap grew " + heapGrowth / 1024 + "KB)");
+        } else {
+            System.out.println("✗ " + runtime.memory.getClass().getSimpleName() + " grew the heap by "
+                    + heapGrowth / 1024 + "KB, stack " + runtime.getStackAsString());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Pages appear on the first non-zero store, untouched pages read as zero,
+     * and zeroing a page releases it
+     */
+    public static void testPagesFollowUsage() {
+        System.out.println("=== Testing Paged Memory ===");
+
+        PagedMemory memory = new PagedMemory(1 << 24);
+        Runtime runtime = new Runtime(memory, 8);
+        int far = memory.size() - 1;
+        runtime.execute(Compiler.compile("push 0\nstore 700\nload 123456\nstore 5"));
+        boolean zeroStoresFree = memory.getAllocatedPages() == 0;
+
+        runtime.execute(Compiler.compile("push 1\nstore 3\npush 2\nstore 4\npush 3\nstore " + far));
+        boolean twoPages = memory.getAllocatedPages() == 2 && memory.load(far) == 3 && memory.load(far - 1) == 0;
+
+        // Cell 4 keeps the first page alive; the far page empties and goes
+        runtime.execute(Compiler.compile("push 0\nstore 3\npush 0\nstore " + far));
+        boolean farReleased = memory.getAllocatedPages() == 1 && memory.load(4) == 2;
+        runtime.execute(Compiler.compile("push 0\nstore 4"));
+        boolean allReleased = memory.getAllocatedPages() == 0 && memory.load(4) == 0;
+
+        if (zeroStoresFree && twoPages && farReleased && allReleased) {
+            System.out.println("✓ Pages allocated on write and released when zeroed ("
+                    + memory.getAllocatedBytes() + " bytes for a " + memory.size() + " cell space)");
+        } else {
+            System.out.println("✗ zeroStoresFree=" + zeroStoresFree + " twoPages=" + twoPages + " farReleased="
+                    + farReleased + " allReleased=" + allReleased + " pages=" + memory.getAllocatedPages());
+        }
+        System.out.println();
+    }
+
+    /**
+     * A memory smaller than a page pays for its own cells, not a whole page
+     * and directory block
+     */
+    public static void testSmallPagedMemory() {
+        System.out.println("=== Testing Small Paged Memory ===");
+
+        PagedMemory memory = new PagedMemory(256);
+        memory.store(255, 9);
+        long bytes = memory.getAllocatedBytes();
+        // The cells themselves plus a couple of directory slots
+        if (memory.load(255) == 9 && memory.getAllocatedPages() == 1 && bytes <= 256 * Long.BYTES + 64) {
+            System.out.println("✓ One store into 256 cells holds " + bytes + " bytes");
+        } else {
+            System.out.println("✗ One store into 256 cells holds " + bytes + " bytes");
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,228 @@
+package PlanetVM;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.finite.planetlangserver.Networking.Server;
+
+/**
+ * Checks session expiry and runtime reclamation with short timeouts: idle
+ * sessions expire, active ones don't, a connection that only pings keeps
+ * its session, one that only receives pushes doesn't, and a user's runtime
+ * survives a quick reconnect but is released once the grace period passes
+ */
+public class SessionLifecycleTest {
+    private static final long TTL = 300;
+    private static final long GRACE = 300;
+    private static final long TICK = 20;
+
+    public static void main(String[] args) throws Exception {
+        // Must be set before the manager is first created
+        System.setProperty("planetlang.vm.sessionTtlMillis", String.valueOf(TTL));
+        System.setProperty("planetlang.vm.reconnectGraceMillis", String.valueOf(GRACE));
+        System.setProperty("planetlang.vm.reaperTickMillis", String.valueOf(TICK));
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+
+        testReconnectKeepsRuntime(manager);
+        testRuntimeReleasedAfterGrace(manager);
+        testIdleSessionExpires(manager);
+        testActiveSessionSurvives(manager);
+        testPingingConnectionSurvives();
+        testPushedSubscriberExpires();
+    }
+
+    public static void testReconnectKeepsRuntime(PlanetVMManager manager) throws InterruptedException {
+        System.out.println("=== Testing Reconnect Within Grace ===");
+
+        String first = manager.createUserSession("reconnect");
+        manager.executeLocalProgram(first, "push 5");
+        manager.removeUserSession(first);
+        Thread.sleep(GRACE / 3);
+        String second = manager.createUserSession("reconnect");
+        // Outlast the first session's grace period, staying active meanwhile
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(GRACE / 4);
+            manager.getUserStack(second);
+        }
+
+        String stack = manager.getUserStack(second);
+        if (stack.equals("[5]")) {
+            System.out.println("✓ Runtime kept its stack across the reconnect");
+        } else {
+            System.out.println("✗ Stack after reconnect was " + stack);
+        }
+        manager.removeUserSession(second);
+        System.out.println();
+    }
+
+    public static void testRuntimeReleasedAfterGrace(PlanetVMManager manager) throws InterruptedException {
+        System.out.println("=== Testing Runtime Release ===");
+
+        long released = manager.getRuntimesReleased();
+        String session = manager.createUserSession("leaver");
+        manager.executeLocalProgram(session, "push 7");
+        manager.removeUserSession(session);
+        boolean keptDuringGrace = manager.hasUserRuntime("leaver");
+        Thread.sleep(GRACE + 5 * TICK);
+
+        if (keptDuringGrace && !manager.hasUserRuntime("leaver") && manager.getRuntimesReleased() > released) {
+            System.out.println("✓ Runtime released after the grace period");
+        } else {
+            System.out.println("✗ keptDuringGrace=" + keptDuringGrace + " stillThere=" + manager.hasUserRuntime("leaver"));
+        }
+        System.out.println();
+    }
+
+    public static void testIdleSessionExpires(PlanetVMManager manager) throws InterruptedException {
+        System.out.println("=== Testing Idle Session Expiry ===");
+
+        long expired = manager.getSessionsExpired();
+        String session = manager.createUserSession("idler");
+        Thread.sleep(TTL + GRACE + 10 * TICK);
+
+        String response = manager.executeLocalInstruction(session, "push 1");
+        if (response.equals("ERROR: Invalid session") && manager.getSessionsExpired() > expired
+                && !manager.hasUserRuntime("idler")) {
+            System.out.println("✓ Idle session expired and its runtime was released");
+        } else {
+            System.out.println("✗ Idle session still answered: " + response);
+        }
+        System.out.println();
+    }
+
+    public static void testActiveSessionSurvives(PlanetVMManager manager) throws InterruptedException {
+        System.out.println("=== Testing Active Session ===");
+
+        String session = manager.createUserSession("worker");
+        long end = System.currentTimeMillis() + TTL * 3;
+        while (System.currentTimeMillis() < end) {
+            manager.executeLocalInstruction(session, "push 1");
+            Thread.sleep(TTL / 4);
+        }
+
+        String response = manager.executeLocalInstruction(session, "clear");
+        if (response.startsWith("OK")) {
+            System.out.println("✓ Session stayed alive for " + TTL * 3 + "ms of activity");
+        } else {
+            System.out.println("✗ Active session was evicted: " + response);
+        }
+        System.out.println();
+    }
+
+    public static void testPingingConnectionSurvives() throws Exception {
+        System.out.println("=== Testing Pinging Connection ===");
+
+        PrintStream console = System.out;
+        // The server logs every command; keep the results readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(Server.Mode.THREADS);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        String response;
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in.readLine();
+            // Like a subscribed client: nothing but keep-alives for longer than the TTL
+            long end = System.currentTimeMillis() + TTL * 3;
+            while (System.currentTimeMillis() < end) {
+                out.println("PING");
+                in.readLine();
+                Thread.sleep(TTL / 4);
+            }
+            out.println("GET_USER_STACK");
+            response = in.readLine();
+        } finally {
+            server.stop();
+            // Let the handler finish logging its disconnect
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+
+        if (response != null && response.startsWith("USER_STACK:[")) {
+            System.out.println("✓ Session kept by " + TTL * 3 + "ms of pings alone");
+        } else {
+            System.out.println("✗ Pinging connection lost its session: " + response);
+        }
+        System.out.println();
+    }
+
+    /**
+     * A subscriber that sends nothing while another connection of the same
+     * user keeps changing the stack it watches: the pushes it receives are
+     * not its own activity
+     */
+    public static void testPushedSubscriberExpires() throws Exception {
+        System.out.println("=== Testing Pushed Subscriber ===");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Server server = new Server(Server.Mode.THREADS);
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start(0);
+            } catch (IOException e) {
+                // stop() closes the listening socket
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (server.getPort() < 0) Thread.sleep(10);
+
+        String response = null;
+        int events = 0;
+        try (Socket subscriber = new Socket("localhost", server.getPort());
+             Socket worker = new Socket("localhost", server.getPort())) {
+            BufferedReader subscriberIn = new BufferedReader(new InputStreamReader(subscriber.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter subscriberOut = new PrintWriter(new OutputStreamWriter(subscriber.getOutputStream(), StandardCharsets.UTF_8), true);
+            BufferedReader workerIn = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter workerOut = new PrintWriter(new OutputStreamWriter(worker.getOutputStream(), StandardCharsets.UTF_8), true);
+            subscriberIn.readLine();
+            workerIn.readLine();
+            subscriberOut.println("SUBSCRIBE:USER_STACK");
+
+            // Same address, so the same user runtime
+            long end = System.currentTimeMillis() + TTL * 3 + GRACE;
+            while (System.currentTimeMillis() < end) {
+                workerOut.println("LOCAL:push 1");
+                workerIn.readLine();
+                Thread.sleep(TTL / 4);
+            }
+            subscriberOut.println("GET_USER_STACK");
+            String line;
+            while ((line = subscriberIn.readLine()) != null) {
+                if (line.startsWith("EVENT:USER_STACK@")) events++;
+                if (line.startsWith("USER_STACK:")) {
+                    response = line;
+                    break;
+                }
+            }
+        } finally {
+            server.stop();
+            Thread.sleep(200);
+            System.setOut(console);
+        }
+
+        if (events > 0 && "USER_STACK:ERROR: Invalid session".equals(response)) {
+            System.out.println("✓ Session expired after " + events + " pushes and no requests");
+        } else {
+            System.out.println("✗ events=" + events + ", stack read after " + TTL * 3 + "ms of pushes: " + response);
+        }
+        System.out.println();
+    }
+}
@@ -0,0 +1,207 @@
+package PlanetVM;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.finite.planetlangserver.Networking.EventPublisher;
+
+/**
+ * Checks state-change notifications: a burst of mutations reaches a
+ * subscriber as a few coalesced flushes, user topics only reach the
+ * runtime's owner, memory topics only fire when memory was written, and
+ * the state pushes read is published with each change and readable while
+ * the runtimes are busy
+ */
+public class StatePushTest {
+    private static final int MUTATIONS = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        EventPublisher publisher = new EventPublisher();
+        manager.addStateListener(publisher);
+        try {
+            testBurstIsCoalesced(manager, publisher);
+            testUserTopicsStayWithOwner(manager, publisher);
+            testMemoryTopicNeedsWrite(manager, publisher);
+            testPublishedStateDoesNotWait(manager, publisher);
+        } finally {
+            manager.removeStateListener(publisher);
+            publisher.shutdown();
+        }
+    }
+
+    public static void testBurstIsCoalesced(PlanetVMManager manager, EventPublisher publisher) throws InterruptedException {
+        System.out.println("=== Testing Push Coalescing ===");
+
+        String session = manager.createUserSession("pusher");
+        RecordingSubscriber subscriber = new RecordingSubscriber("pusher",
+                StateTopic.USER_STACK.bit() | StateTopic.GLOBAL_STACK.bit());
+        publisher.register(subscriber);
+        for (int i = 0; i < MUTATIONS; i++) {
+            manager.executeLocalInstruction(session, i % 2 == 0 ? "push 1" : "pop");
+            manager.executeGlobalInstruction(session, i % 2 == 0 ? "push 1" : "pop");
+        }
+        Thread.sleep(200);
+        publisher.unregister(subscriber);
+        manager.removeUserSession(session);
+
+        int flushes = subscriber.flushes.get();
+        int both = StateTopic.USER_STACK.bit() | StateTopic.GLOBAL_STACK.bit();
+        if (flushes > 0 && flushes < MUTATIONS / 10 && subscriber.seen.get() == both) {
+            System.out.println("✓ " + (2 * MUTATIONS) + " mutations pushed in " + flushes + " flushes");
+        } else {
+            System.out.println("✗ flushes=" + flushes + " topics seen=" + subscriber.seen.get());
+        }
+        System.out.println();
+    }
+
+    public static void testUserTopicsStayWithOwner(PlanetVMManager manager, EventPublisher publisher) throws InterruptedException {
+        System.out.println("=== Testing User Topic Routing ===");
+
+        String session = manager.createUserSession("owner");
+        RecordingSubscriber owner = new RecordingSubscriber("owner", StateTopic.USER_STACK.bit());
+        RecordingSubscriber other = new RecordingSubscriber("someone-else", StateTopic.USER_STACK.bit());
+        publisher.register(owner);
+        publisher.register(other);
+        manager.executeLocalInstruction(session, "push 3");
+        Thread.sleep(200);
+        publisher.unregister(owner);
+        publisher.unregister(other);
+        manager.removeUserSession(session);
+
+        if (owner.flushes.get() == 1 && other.flushes.get() == 0) {
+            System.out.println("✓ Only the owning user was notified");
+        } else {
+            System.out.println("✗ owner flushes=" + owner.flushes.get() + " other flushes=" + other.flushes.get());
+        }
+        System.out.println();
+    }
+
+    public static void testMemoryTopicNeedsWrite(PlanetVMManager manager, EventPublisher publisher) throws InterruptedException {
+        System.out.println("=== Testing Memory Topic Filtering ===");
+
+        String session = manager.createUserSession("storer");
+        RecordingSubscriber subscriber = new RecordingSubscriber("storer", StateTopic.USER_MEMORY.bit());
+        publisher.register(subscriber);
+        manager.executeLocalInstruction(session, "push 4");
+        Thread.sleep(200);
+        int afterPush = subscriber.flushes.get();
+        manager.executeLocalProgram(session, "push 4\nstore 1");
+        Thread.sleep(200);
+        publisher.unregister(subscriber);
+        manager.removeUserSession(session);
+
+        if (afterPush == 0 && subscriber.flushes.get() == 1) {
+            System.out.println("✓ Memory subscribers notified for the store, not the push");
+        } else {
+            System.out.println("✗ flushes after push=" + afterPush + ", after store=" + subscriber.flushes.get());
+        }
+        System.out.println();
+    }
+
+    public static void testPublishedStateDoesNotWait(PlanetVMManager manager, EventPublisher publisher) throws Exception {
+        System.out.println("=== Testing Published State ===");
+
+        String session = manager.createUserSession("publisher");
+        int topics = StateTopic.USER_STACK.bit() | StateTopic.USER_MEMORY.bit()
+                | StateTopic.GLOBAL_STACK.bit() | StateTopic.GLOBAL_MEMORY.bit();
+        RecordingSubscriber subscriber = new RecordingSubscriber("publisher", topics);
+        publisher.register(subscriber);
+        manager.publishForSubscriber(session, topics);
+        ExecutionResult local = manager.executeLocal(session, "push 7\nstore 2\npush 7", true);
+        ExecutionResult global = manager.executeGlobal(session, "push 8", false);
+
+        // Keep both runtimes busy: a read through the lock or the executor would wait
+        Runtime userRuntime = manager.getUserRuntime(session);
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            userRuntime.lock.lock();
+            manager.getGlobalRuntime().lock.lock();
+            try {
+                held.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                // Released by the test
+            } finally {
+                manager.getGlobalRuntime().lock.unlock();
+                userRuntime.lock.unlock();
+            }
+        });
+        holder.start();
+        held.await();
+        CompletableFuture<Object[]> reads = CompletableFuture.supplyAsync(() -> new Object[] {
+            manager.getPublishedUserStack(session), manager.getPublishedUserMemory(session),
+            manager.getPublishedGlobalStack(), manager.getPublishedGlobalMemory()
+        });
+        Object[] published;
+        try {
+            published = reads.get(1, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            published = null;
+        } finally {
+            release.countDown();
+            holder.join();
+            publisher.unregister(subscriber);
+            manager.removeUserSession(session);
+        }
+
+        if (published == null) {
+            System.out.println("✗ Reading the published state waited for a busy runtime");
+        } else {
+            StackSnapshot userStack = (StackSnapshot) published[0];
+            MemoryRange userMemory = (MemoryRange) published[1];
+            StackSnapshot globalStack = (StackSnapshot) published[2];
+            MemoryRange globalMemory = (MemoryRange) published[3];
+            boolean userOk = userStack.version == local.version && userStack.values[0] == 7
+                    && userMemory.version == local.version && userMemory.values[2] == 7;
+            boolean globalOk = globalStack.version == global.version && globalStack.values[0] == 8
+                    && globalMemory != null && globalMemory.version < global.version;
+            if (userOk && globalOk) {
+                System.out.println("✓ Published state matched each change and was read past busy runtimes");
+            } else {
+                System.out.println("✗ user stack=" + userStack + "@" + userStack.version + " memory=" + userMemory
+                        + " global stack=" + globalStack + "@" + globalStack.version + " (want " + local.version
+                        + " and " + global.version + ")");
+            }
+        }
+        System.out.println();
+    }
+
+    private static final class RecordingSubscriber implements EventPublisher.Subscriber {
+        final String userId;
+        final int subscriptions;
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger seen = new AtomicInteger();
+        final AtomicInteger flushes = new AtomicInteger();
+
+        RecordingSubscriber(String userId, int subscriptions) {
+            this.userId = userId;
+            this.subscriptions = subscriptions;
+        }
+
+        @Override
+        public String getUserId() {
+            return userId;
+        }
+
+        @Override
+        public int getSubscriptions() {
+            return subscriptions;
+        }
+
+        @Override
+        public boolean markPending(int topics) {
+            return pending.getAndUpdate(mask -> mask | topics) == 0;
+        }
+
+        @Override
+        public void flush() {
+            int topics = pending.getAndSet(0);
+            seen.getAndUpdate(mask -> mask | topics);
+            flushes.incrementAndGet();
+        }
+    }
+}
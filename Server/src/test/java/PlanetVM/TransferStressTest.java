@@ -0,0 +1,148 @@
+package PlanetVM;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stress test for cross-stack transfers: thousands of concurrent SHARE, TAKE
+ * and multi-value transfers, racing local execution, must neither drop nor
+ * duplicate a single value; and a SHARE waiting on a busy user runtime must
+ * not hold up the global runtime
+ */
+public class TransferStressTest {
+    private static final int USERS = 8;
+    private static final int VALUES_PER_USER = 200;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testValuesAreConserved(seed);
+        testBusyUserDoesNotBlockGlobal();
+    }
+
+    public static void testValuesAreConserved(long seed) throws InterruptedException {
+        System.out.println("=== Testing Transfer Conservation (seed " + seed + ") ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String[] sessions = new String[USERS];
+        Runtime[] runtimes = new Runtime[USERS];
+        for (int u = 0; u < USERS; u++) {
+            sessions[u] = manager.createUserSession("stress-" + u);
+            StringBuilder source = new StringBuilder();
+            for (int v = 1; v <= VALUES_PER_USER; v++) {
+                source.append("push ").append(u * VALUES_PER_USER + v).append('\n');
+            }
+            manager.executeLocalProgram(sessions[u], source.toString());
+            runtimes[u] = manager.getUserRuntime(sessions[u]);
+        }
+        Runtime global = manager.getGlobalRuntime();
+        long expectedCount = count(runtimes, global);
+        long expectedSum = sum(runtimes, global);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(seed + t);
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int a = random.nextInt(USERS);
+                    int b = random.nextInt(USERS);
+                    switch (random.nextInt(5)) {
+                        case 0: manager.shareToGlobal(sessions[a]); break;
+                        case 1: manager.takeFromGlobal(sessions[a]); break;
+                        case 2: manager.transfer(runtimes[a], runtimes[b], 1 + random.nextInt(5)); break;
+                        case 3: manager.transfer(global, runtimes[a], 1 + random.nextInt(5)); break;
+                        default: manager.executeLocalProgram(sessions[a], "dup\nswap\npop"); break;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - begin) / 1_000_000;
+
+        long actualCount = count(runtimes, global);
+        long actualSum = sum(runtimes, global);
+        if (actualCount == expectedCount && actualSum == expectedSum) {
+            System.out.println("✓ " + THREADS * OPERATIONS + " concurrent operations conserved "
+                    + expectedCount + " values in " + millis + "ms");
+        } else {
+            System.out.println("✗ Expected " + expectedCount + " values summing to " + expectedSum
+                    + ", found " + actualCount + " summing to " + actualSum);
+        }
+        System.out.println();
+    }
+
+    public static void testBusyUserDoesNotBlockGlobal() throws InterruptedException {
+        System.out.println("=== Testing Share Into a Busy Global Runtime ===");
+
+        PlanetVMManager manager = PlanetVMManager.getInstance();
+        String busy = manager.createUserSession("busy");
+        String other = manager.createUserSession("bystander");
+        manager.executeLocalInstruction(busy, "push 42");
+        Runtime busyRuntime = manager.getUserRuntime(busy);
+
+        String[] shared = new String[1];
+        Thread sharer = new Thread(() -> shared[0] = manager.shareToGlobal(busy));
+        long millis;
+        String bystander;
+        // Stands for a long program holding the user's runtime
+        busyRuntime.lock.lock();
+        try {
+            sharer.start();
+            Thread.sleep(100);
+            long begin = System.nanoTime();
+            CompletableFuture<String> run = CompletableFuture.supplyAsync(() -> manager.executeGlobalInstruction(other, "push 1"));
+            try {
+                bystander = run.get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                bystander = "stuck behind the share";
+            }
+            millis = (System.nanoTime() - begin) / 1_000_000;
+        } finally {
+            busyRuntime.lock.unlock();
+        }
+        sharer.join();
+        String top = manager.getGlobalStack();
+        manager.removeUserSession(busy);
+        manager.removeUserSession(other);
+
+        if (bystander.startsWith("OK") && millis < 500 && "OK".equals(shared[0]) && top.startsWith("[42, 1")) {
+            System.out.println("✓ Global instruction ran in " + millis + "ms while the share waited; share landed after it");
+        } else {
+            System.out.println("✗ bystander=" + bystander + " in " + millis + "ms, share=" + shared[0] + " global=" + top);
+        }
+        System.out.println();
+    }
+
+    private static long count(Runtime[] runtimes, Runtime global) {
+        long count = global.stack.size();
+        for (Runtime runtime : runtimes) {
+            count += runtime.stack.size();
+        }
+        return count;
+    }
+
+    private static long sum(Runtime[] runtimes, Runtime global) {
+        long sum = 0;
+        for (long value : global.stack.toArray()) sum += value;
+        for (Runtime runtime : runtimes) {
+            for (long value : runtime.stack.toArray()) sum += value;
+        }
+        return sum;
+    }
+}
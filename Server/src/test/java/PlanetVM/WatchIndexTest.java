@@ -0,0 +1,160 @@
+package PlanetVM;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks memory watches: every store to a watched cell reaches exactly the
+ * watches covering it, removed watches go quiet, stores made before an
+ * execution throws are still dispatched, and stores to unwatched cells
+ * don't allocate
+ */
+public class WatchIndexTest {
+    private static final int MEMORY = 4096;
+    private static final int PROGRAMS = 2_000;
+    private static final int MEASURED_RUNS = 100_000;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+        testNotificationsMatchScan(seed);
+        testRemovedWatchesGoQuiet();
+        testThrowingProgramDispatches();
+        testUnwatchedStoresDoNotAllocate();
+    }
+
+    /**
+     * Random watches and random stores; the expected notifications come from
+     * scanning every watch
+     */
+    public static void testNotificationsMatchScan(long seed) {
+        System.out.println("=== Testing Watch Notifications (seed " + seed + ") ===");
+
+        Random random = new Random(seed);
+        Runtime runtime = new Runtime(MEMORY, 64);
+        runtime.watches = new WatchIndex();
+        Map<String, Long> received = new HashMap<>();
+        WatchIndex.Watcher watcher = (id, address, value, version) -> received.put(id + ":" + address, value);
+        List<int[]> watches = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int start = random.nextInt(MEMORY);
+            int end = Math.min(MEMORY, start + 1 + random.nextInt(random.nextBoolean() ? 4 : 200));
+            watches.add(new int[] { runtime.watches.add(watcher, start, end), start, end });
+        }
+
+        int mismatches = 0;
+        for (int p = 0; p < PROGRAMS; p++) {
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                source.append("push ").append(random.nextInt(1000)).append("\nstore ").append(random.nextInt(MEMORY)).append('\n');
+            }
+            received.clear();
+            runtime.execute(Compiler.compile(source.toString()));
+
+            Map<String, Long> expected = new HashMap<>();
+            for (String line : source.toString().split("\n")) {
+                if (!line.startsWith("store")) continue;
+                int address = Integer.parseInt(line.substring(6));
+                for (int[] watch : watches) {
+                    if (address >= watch[1] && address < watch[2]) {
+                        expected.put(watch[0] + ":" + address, runtime.memory.load(address));
+                    }
+                }
+            }
+            if (!expected.equals(received)) mismatches++;
+        }
+
+        if (mismatches == 0) {
+            System.out.println("✓ " + PROGRAMS + " programs notified exactly the covering watches");
+        } else {
+            System.out.println("✗ " + mismatches + " of " + PROGRAMS + " programs notified the wrong watches");
+        }
+        System.out.println();
+    }
+
+    public static void testRemovedWatchesGoQuiet() {
+        System.out.println("=== Testing Watch Removal ===");
+
+        Runtime runtime = new Runtime(256, 64);
+        runtime.watches = new WatchIndex();
+        int[] hits = new int[2];
+        WatchIndex.Watcher first = (id, address, value, version) -> hits[0]++;
+        WatchIndex.Watcher second = (id, address, value, version) -> hits[1]++;
+        int id = runtime.watches.add(first, 10, 20);
+        runtime.watches.add(second, 15, 16);
+        runtime.execute(Compiler.compile("push 1\nstore 15"));
+        boolean removed = runtime.watches.remove(first, id);
+        boolean wrongOwner = runtime.watches.remove(second, id);
+        runtime.execute(Compiler.compile("push 2\nstore 15"));
+        runtime.watches.removeAll(second);
+        runtime.execute(Compiler.compile("push 3\nstore 15"));
+
+        if (removed && !wrongOwner && hits[0] == 1 && hits[1] == 2) {
+            System.out.println("✓ Removed watches stopped receiving writes");
+        } else {
+            System.out.println("✗ removed=" + removed + " wrongOwner=" + wrongOwner + " hits=" + hits[0] + "," + hits[1]);
+        }
+        System.out.println();
+    }
+
+    public static void testThrowingProgramDispatches() {
+        System.out.println("=== Testing Dispatch After a Throw ===");
+
+        Runtime runtime = new Runtime(256, 64);
+        runtime.watches = new WatchIndex();
+        long[] seen = new long[1];
+        runtime.watches.add((id, address, value, version) -> seen[0] = value, 15, 16);
+        // A store, then an opcode the interpreter rejects
+        Program broken = new Program(new int[] { Opcodes.PUSH, Opcodes.STORE, -1 }, new long[] { 9, 15, 0 }, 3, 0, null);
+        boolean threw = false;
+        try {
+            runtime.execute(broken);
+        } catch (IllegalStateException e) {
+            threw = true;
+        }
+
+        if (threw && seen[0] == 9) {
+            System.out.println("✓ Store before the bad opcode reached its watcher");
+        } else {
+            System.out.println("✗ threw=" + threw + " watcher saw " + seen[0]);
+        }
+        System.out.println();
+    }
+
+    public static void testUnwatchedStoresDoNotAllocate() {
+        System.out.println("=== Testing Unwatched Store Allocation ===");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("- Thread allocation counters not supported on this JVM, skipping");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Runtime runtime = new Runtime(MEMORY, 64);
+        runtime.watches = new WatchIndex();
+        runtime.watches.add((id, address, value, version) -> { }, 0, 64);
+        // Same bucket as the watch but an unwatched address, and a far one
+        Program program = Compiler.compile("push 7\nstore 100\npush 8\nstore 3000");
+        for (int i = 0; i < 20_000; i++) {
+            runtime.execute(program);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            runtime.execute(program);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        if (allocated < MEASURED_RUNS) {
+            System.out.println("✓ " + MEASURED_RUNS + " runs storing to unwatched cells allocated nothing (" + allocated + " bytes of noise)");
+        } else {
+            System.out.println("✗ " + MEASURED_RUNS + " runs allocated " + allocated + " bytes");
+        }
+        System.out.println();
+    }
+}